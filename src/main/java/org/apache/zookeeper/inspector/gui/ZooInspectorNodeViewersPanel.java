@@ -121,6 +121,11 @@ public class ZooInspectorNodeViewersPanel extends JPanel implements
 
     selectedNodes.clear();
     for (TreePath path : paths) {
+      Object last = path.getLastPathComponent();
+      if (last instanceof ZooInspectorTreeNode && ((ZooInspectorTreeNode) last).isPlaceholder()) {
+        // stands for children not shown yet, not a node
+        continue;
+      }
       boolean appended = false;
       StringBuilder sb = new StringBuilder();
       Object[] pathArray = path.getPath();
@@ -17,9 +17,17 @@
  */
 package org.apache.zookeeper.inspector.gui;
 
+import org.apache.zookeeper.Watcher.Event.KeeperState;
 import org.apache.zookeeper.ZooKeeper.States;
+import org.apache.zookeeper.data.Stat;
 import org.apache.zookeeper.inspector.gui.nodeviewer.ZooInspectorNodeViewer;
+import org.apache.zookeeper.inspector.manager.DiffListener;
+import org.apache.zookeeper.inspector.manager.ZooInspectorDiff;
 import org.apache.zookeeper.inspector.manager.ZooInspectorManager;
+import org.apache.zookeeper.inspector.manager.ZooInspectorManagerImpl;
+import org.apache.zookeeper.inspector.manager.ZooInspectorOfflineManager;
+import org.apache.zookeeper.inspector.manager.ZooInspectorSearch;
+import org.apache.zookeeper.inspector.manager.ZooInspectorSearchIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -27,11 +35,18 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.PatternSyntaxException;
 
 /**
  * The parent {@link JPanel} for the whole application
@@ -39,6 +54,7 @@ import java.util.concurrent.ExecutionException;
 public class ZooInspectorPanel extends JPanel implements NodeViewersChangeListener {
 
   private static final Logger LOG = LoggerFactory.getLogger(ZooInspectorPanel.class);
+  private static final int MAX_LOOKUP_RESULTS = 10000;
 
   private final JButton refreshButton;
   private final JButton disconnectButton;
@@ -48,9 +64,18 @@ public class ZooInspectorPanel extends JPanel implements NodeViewersChangeListen
   private final ZooInspectorManager zooInspectorManager;
   private final JButton addNodeButton;
   private final JButton deleteNodeButton;
+  private final JButton importButton;
+  private final JButton exportButton;
+  private final JButton openDumpButton;
+  private final JButton compareButton;
+  private final JButton searchButton;
   private final JButton nodeViewersButton;
   private final JButton aboutButton;
+  private final JToggleButton liveButton;
+  private final JTextField filterField;
   private final List<NodeViewersChangeListener> listeners = new ArrayList<>();
+  // the search indexes used since connecting, by root
+  private final Map<String, ZooInspectorSearchIndex> searchIndexes = new ConcurrentHashMap<>();
 
   {
     listeners.add(this);
@@ -92,27 +117,51 @@ public class ZooInspectorPanel extends JPanel implements NodeViewersChangeListen
         .getChangeNodeViewersIcon());
     aboutButton = new JButton(ZooInspectorIconResources
         .getInformationIcon());
+    liveButton = new JToggleButton("Live");
+    importButton = new JButton("Import");
+    exportButton = new JButton("Export");
+    openDumpButton = new JButton("Open Dump");
+    compareButton = new JButton("Compare");
+    searchButton = new JButton("Search");
     toolbar.add(connectButton);
     toolbar.add(disconnectButton);
     toolbar.add(refreshButton);
+    toolbar.add(liveButton);
     toolbar.add(addNodeButton);
     toolbar.add(deleteNodeButton);
+    toolbar.add(importButton);
+    toolbar.add(exportButton);
+    toolbar.add(openDumpButton);
+    toolbar.add(compareButton);
+    toolbar.add(searchButton);
     toolbar.add(nodeViewersButton);
     toolbar.add(aboutButton);
     aboutButton.setEnabled(true);
     connectButton.setEnabled(true);
     disconnectButton.setEnabled(false);
     refreshButton.setEnabled(false);
+    liveButton.setEnabled(false);
     addNodeButton.setEnabled(false);
     deleteNodeButton.setEnabled(false);
+    importButton.setEnabled(false);
+    exportButton.setEnabled(false);
+    openDumpButton.setEnabled(true);
+    compareButton.setEnabled(false);
+    searchButton.setEnabled(false);
     nodeViewersButton.setEnabled(true);
     nodeViewersButton.setToolTipText("Change Node Viewers");
     aboutButton.setToolTipText("About ZooInspector");
     connectButton.setToolTipText("Connect");
     disconnectButton.setToolTipText("Disconnect");
     refreshButton.setToolTipText("Refresh");
+    liveButton.setToolTipText("Follow Changes (ZooKeeper 3.6+)");
     addNodeButton.setToolTipText("Add Node");
     deleteNodeButton.setToolTipText("Delete Node");
+    importButton.setToolTipText("Import Nodes from a Directory, Export or JSON File");
+    exportButton.setToolTipText("Export the Selected Node and its Subtree (gzipped if named *.gz)");
+    openDumpButton.setToolTipText("Browse an Exported Dump or a ZooKeeper Snapshot Offline");
+    compareButton.setToolTipText("Compare the Selected Node and its Subtree with a Dump or Snapshot");
+    searchButton.setToolTipText("Search the Data of the Selected Node and its Subtree");
     connectButton.addActionListener(e -> {
       ZooInspectorConnectionPropertiesDialog zicpd = new ZooInspectorConnectionPropertiesDialog(
           zooInspectorManager.getLastConnectionProps(),
@@ -121,7 +170,31 @@ public class ZooInspectorPanel extends JPanel implements NodeViewersChangeListen
       zicpd.setVisible(true);
     });
     disconnectButton.addActionListener(e -> disconnect());
-    refreshButton.addActionListener(e -> treeViewer.refreshView());
+    refreshButton.addActionListener(e -> {
+      treeViewer.refreshView();
+      for (ZooInspectorSearchIndex index : searchIndexes.values()) {
+        index.markStale();
+      }
+    });
+    liveButton.addActionListener(e -> {
+      boolean enable = liveButton.isSelected();
+      if (treeViewer.setLiveMode(enable) != enable) {
+        liveButton.setSelected(false);
+        JOptionPane.showMessageDialog(ZooInspectorPanel.this,
+            "Unable to follow changes, live mode needs ZooKeeper 3.6 or later",
+            "Error", JOptionPane.ERROR_MESSAGE);
+      }
+    });
+    treeViewer.addLiveListener((nodePath, eventType, eventInfo) -> {
+      if (KeeperState.Expired.name().equals(eventType)) {
+        SwingUtilities.invokeLater(() -> {
+          liveButton.setSelected(false);
+          JOptionPane.showMessageDialog(ZooInspectorPanel.this,
+              "The session expired, live mode was turned off",
+              "Error", JOptionPane.ERROR_MESSAGE);
+        });
+      }
+    });
     addNodeButton.addActionListener(new ActionListener() {
       String nodeName;
 
@@ -176,14 +249,8 @@ public class ZooInspectorPanel extends JPanel implements NodeViewersChangeListen
 
             @Override
             protected Boolean doInBackground() {
-              for (String nodePath : selectedNodes) {
-                boolean result = ZooInspectorPanel.this.zooInspectorManager
-                    .deleteNode(nodePath);
-                if (!result) {
-                  return false;
-                }
-              }
-              return true;
+              return ZooInspectorPanel.this.zooInspectorManager
+                  .deleteNodes(selectedNodes);
             }
 
             @Override
@@ -195,6 +262,302 @@ public class ZooInspectorPanel extends JPanel implements NodeViewersChangeListen
         }
       }
     });
+    importButton.addActionListener(e -> {
+      final List<String> selectedNodes = treeViewer.getSelectedNodes();
+      if (selectedNodes.size() != 1) {
+        JOptionPane.showMessageDialog(ZooInspectorPanel.this,
+            "Please select 1 parent node for the imported nodes.");
+        return;
+      }
+      JFileChooser chooser = new JFileChooser();
+      chooser.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
+      if (chooser.showOpenDialog(ZooInspectorPanel.this) != JFileChooser.APPROVE_OPTION) {
+        return;
+      }
+      final File source = chooser.getSelectedFile();
+      final long start = System.currentTimeMillis();
+      final AtomicLong imported = new AtomicLong();
+      SwingWorker<Boolean, Void> worker = new SwingWorker<Boolean, Void>() {
+
+        @Override
+        protected Boolean doInBackground() {
+          return ZooInspectorPanel.this.zooInspectorManager
+              .importNodes(selectedNodes.get(0), source,
+                  (completed, total) -> imported.set(completed));
+        }
+
+        @Override
+        protected void done() {
+          treeViewer.refreshView();
+          long ms = Math.max(1, System.currentTimeMillis() - start);
+          try {
+            if (get()) {
+              JOptionPane.showMessageDialog(ZooInspectorPanel.this,
+                  String.format("Imported %,d nodes in %,d ms (%,d nodes/s)",
+                      imported.get(), ms, imported.get() * 1000 / ms));
+            } else {
+              JOptionPane.showMessageDialog(ZooInspectorPanel.this,
+                  "Some nodes could not be imported, see the log for details.",
+                  "Error", JOptionPane.ERROR_MESSAGE);
+            }
+          } catch (InterruptedException | ExecutionException ex) {
+            LOG.error("Error occurred importing nodes from: {}", source, ex);
+          }
+        }
+      };
+      worker.execute();
+    });
+    exportButton.addActionListener(e -> {
+      final List<String> selectedNodes = treeViewer.getSelectedNodes();
+      if (selectedNodes.size() != 1) {
+        JOptionPane.showMessageDialog(ZooInspectorPanel.this,
+            "Please select 1 node to export.");
+        return;
+      }
+      JFileChooser chooser = new JFileChooser();
+      if (chooser.showSaveDialog(ZooInspectorPanel.this) != JFileChooser.APPROVE_OPTION) {
+        return;
+      }
+      final File target = chooser.getSelectedFile();
+      final long start = System.currentTimeMillis();
+      final AtomicLong exported = new AtomicLong();
+      SwingWorker<Boolean, Void> worker = new SwingWorker<Boolean, Void>() {
+
+        @Override
+        protected Boolean doInBackground() {
+          return ZooInspectorPanel.this.zooInspectorManager
+              .exportNodes(selectedNodes.get(0), target, target.getName().endsWith(".gz"),
+                  (completed, total) -> exported.set(completed));
+        }
+
+        @Override
+        protected void done() {
+          long ms = Math.max(1, System.currentTimeMillis() - start);
+          try {
+            if (get()) {
+              JOptionPane.showMessageDialog(ZooInspectorPanel.this,
+                  String.format("Exported %,d nodes in %,d ms (%,d nodes/s)",
+                      exported.get(), ms, exported.get() * 1000 / ms));
+            } else {
+              JOptionPane.showMessageDialog(ZooInspectorPanel.this,
+                  "The nodes could not be exported, see the log for details.",
+                  "Error", JOptionPane.ERROR_MESSAGE);
+            }
+          } catch (InterruptedException | ExecutionException ex) {
+            LOG.error("Error occurred exporting nodes to: {}", target, ex);
+          }
+        }
+      };
+      worker.execute();
+    });
+    openDumpButton.addActionListener(e -> {
+      JFileChooser chooser = new JFileChooser();
+      if (chooser.showOpenDialog(ZooInspectorPanel.this) != JFileChooser.APPROVE_OPTION) {
+        return;
+      }
+      File dump = chooser.getSelectedFile();
+      String zxid = null;
+      if (ZooInspectorOfflineManager.isSnapshot(dump)) {
+        zxid = JOptionPane.showInputDialog(ZooInspectorPanel.this,
+            "Replay the transaction logs up to zxid (empty for all):", "");
+        if (zxid == null) {
+          return;
+        }
+      }
+      JFrame frame = new JFrame("ZooInspector - " + dump.getName());
+      frame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+      final ZooInspectorPanel dumpPanel = new ZooInspectorPanel(
+          new ZooInspectorOfflineManager(zooInspectorManager));
+      frame.addWindowListener(new WindowAdapter() {
+        @Override
+        public void windowClosed(WindowEvent we) {
+          dumpPanel.disconnect();
+        }
+      });
+      frame.setContentPane(dumpPanel);
+      frame.setSize(1024, 768);
+      frame.setLocationRelativeTo(ZooInspectorPanel.this);
+      frame.setVisible(true);
+      Properties props = new Properties();
+      props.setProperty(ZooInspectorOfflineManager.DUMP_FILE, dump.getAbsolutePath());
+      if (zxid != null) {
+        props.setProperty(ZooInspectorOfflineManager.REPLAY_ZXID, zxid);
+      }
+      dumpPanel.connect(props);
+    });
+    compareButton.addActionListener(e -> {
+      final List<String> selectedNodes = treeViewer.getSelectedNodes();
+      if (selectedNodes.size() != 1) {
+        JOptionPane.showMessageDialog(ZooInspectorPanel.this,
+            "Please select 1 node to compare.");
+        return;
+      }
+      JFileChooser chooser = new JFileChooser();
+      if (chooser.showOpenDialog(ZooInspectorPanel.this) != JFileChooser.APPROVE_OPTION) {
+        return;
+      }
+      final File dump = chooser.getSelectedFile();
+      final String root = selectedNodes.get(0);
+      final JTextArea results = new JTextArea();
+      results.setEditable(false);
+      results.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+      JFrame frame = new JFrame("Compare " + root + " with " + dump.getName());
+      frame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+      frame.setContentPane(new JScrollPane(results));
+      frame.setSize(800, 600);
+      frame.setLocationRelativeTo(ZooInspectorPanel.this);
+      frame.setVisible(true);
+      final long start = System.currentTimeMillis();
+      final SwingWorker<Long, String> worker = new SwingWorker<Long, String>() {
+
+        @Override
+        protected Long doInBackground() throws Exception {
+          ZooInspectorOfflineManager other = new ZooInspectorOfflineManager(zooInspectorManager);
+          Properties props = new Properties();
+          props.setProperty(ZooInspectorOfflineManager.DUMP_FILE, dump.getAbsolutePath());
+          if (!other.connect(props)) {
+            throw new IOException("Unable to open: " + dump);
+          }
+          try {
+            // what changed since the dump was taken
+            return new ZooInspectorDiff(other, zooInspectorManager, ZooInspectorDiff.DEFAULT_BATCH)
+                .diff(root, root, new DiffListener() {
+                  @Override
+                  public void nodeAdded(String path) {
+                    publish("+ " + path);
+                  }
+
+                  @Override
+                  public void nodeRemoved(String path) {
+                    publish("- " + path);
+                  }
+
+                  @Override
+                  public void nodeChanged(String path, Stat left, Stat right,
+                                          boolean dataChanged, boolean aclChanged) {
+                    publish("~ " + path + (dataChanged ? " data" : "") + (aclChanged ? " acl" : ""));
+                  }
+                });
+          } finally {
+            other.disconnect();
+          }
+        }
+
+        @Override
+        protected void process(List<String> lines) {
+          for (String line : lines) {
+            results.append(line + "\n");
+          }
+        }
+
+        @Override
+        protected void done() {
+          try {
+            results.append(String.format("Compared %,d nodes in %,d ms%n", get(),
+                System.currentTimeMillis() - start));
+          } catch (InterruptedException | ExecutionException ex) {
+            LOG.error("Error occurred comparing {} with: {}", root, dump, ex);
+            results.append("The nodes could not be compared, see the log for details.\n");
+          }
+        }
+      };
+      frame.addWindowListener(new WindowAdapter() {
+        @Override
+        public void windowClosed(WindowEvent we) {
+          worker.cancel(true);
+        }
+      });
+      worker.execute();
+    });
+    searchButton.addActionListener(e -> {
+      final List<String> selectedNodes = treeViewer.getSelectedNodes();
+      if (selectedNodes.size() != 1) {
+        JOptionPane.showMessageDialog(ZooInspectorPanel.this,
+            "Please select 1 node to search.");
+        return;
+      }
+      JTextField text = new JTextField(30);
+      JCheckBox regex = new JCheckBox("Regular Expression");
+      JCheckBox matchCase = new JCheckBox("Match Case");
+      JCheckBox useIndex = new JCheckBox("Look Up Words in the Search Index");
+      JPanel options = new JPanel(new GridLayout(4, 1));
+      options.add(text);
+      options.add(regex);
+      options.add(matchCase);
+      options.add(useIndex);
+      if (JOptionPane.showConfirmDialog(ZooInspectorPanel.this, options, "Search Node Data",
+          JOptionPane.OK_CANCEL_OPTION) != JOptionPane.OK_OPTION || text.getText().isEmpty()) {
+        return;
+      }
+      if (useIndex.isSelected()) {
+        if (regex.isSelected()) {
+          JOptionPane.showMessageDialog(ZooInspectorPanel.this,
+              "The search index looks up words, not regular expressions.",
+              "Error", JOptionPane.ERROR_MESSAGE);
+          return;
+        }
+        lookUp(selectedNodes.get(0), text.getText());
+        return;
+      }
+      final ZooInspectorSearch.DataMatcher matcher;
+      try {
+        matcher = regex.isSelected()
+            ? ZooInspectorSearch.regex(text.getText(), matchCase.isSelected())
+            : ZooInspectorSearch.literal(text.getText(), matchCase.isSelected());
+      } catch (PatternSyntaxException ex) {
+        JOptionPane.showMessageDialog(ZooInspectorPanel.this, ex.getMessage(),
+            "Error", JOptionPane.ERROR_MESSAGE);
+        return;
+      }
+      final String root = selectedNodes.get(0);
+      final JTextArea results = new JTextArea();
+      results.setEditable(false);
+      results.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+      JFrame frame = new JFrame("Search " + root + " for " + text.getText());
+      frame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+      frame.setContentPane(new JScrollPane(results));
+      frame.setSize(800, 600);
+      frame.setLocationRelativeTo(ZooInspectorPanel.this);
+      frame.setVisible(true);
+      final long start = System.currentTimeMillis();
+      final AtomicLong found = new AtomicLong();
+      final SwingWorker<Long, String> worker = new SwingWorker<Long, String>() {
+
+        @Override
+        protected Long doInBackground() throws Exception {
+          return new ZooInspectorSearch(zooInspectorManager, ZooInspectorSearch.DEFAULT_WINDOW,
+              ZooInspectorSearch.DEFAULT_MAX_BYTES).search(root, matcher, (path, excerpt) -> {
+                found.incrementAndGet();
+                publish(path + ": " + excerpt);
+              });
+        }
+
+        @Override
+        protected void process(List<String> lines) {
+          for (String line : lines) {
+            results.append(line + "\n");
+          }
+        }
+
+        @Override
+        protected void done() {
+          try {
+            results.append(String.format("Found %,d of %,d nodes in %,d ms%n", found.get(), get(),
+                System.currentTimeMillis() - start));
+          } catch (InterruptedException | ExecutionException ex) {
+            LOG.error("Error occurred searching: {}", root, ex);
+            results.append("The nodes could not be searched, see the log for details.\n");
+          }
+        }
+      };
+      frame.addWindowListener(new WindowAdapter() {
+        @Override
+        public void windowClosed(WindowEvent we) {
+          worker.cancel(true);
+        }
+      });
+      worker.execute();
+    });
     nodeViewersButton.addActionListener(e -> {
       ZooInspectorNodeViewersDialog nvd = new ZooInspectorNodeViewersDialog(
           JOptionPane.getRootFrame(), nodeViewers, listeners,
@@ -206,9 +569,17 @@ public class ZooInspectorPanel extends JPanel implements NodeViewersChangeListen
           JOptionPane.getRootFrame());
       zicpd.setVisible(true);
     });
+    filterField = new JTextField();
+    filterField.setToolTipText("<html>Show only the nodes matching a path pattern, e.g. "
+        + "/services/*/instances/host-17*, or regex: followed by a regular expression."
+        + "<br>Press Enter to apply, with nothing to show all nodes.</html>");
+    filterField.addActionListener(e -> treeViewer.setFilter(filterField.getText().trim()));
     JScrollPane treeScroller = new JScrollPane(treeViewer);
+    JPanel treePanel = new JPanel(new BorderLayout());
+    treePanel.add(filterField, BorderLayout.NORTH);
+    treePanel.add(treeScroller, BorderLayout.CENTER);
     JSplitPane splitPane = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT,
-        treeScroller, nodeViewersPanel);
+        treePanel, nodeViewersPanel);
     splitPane.setResizeWeight(0.25);
     this.add(splitPane, BorderLayout.CENTER);
     this.add(toolbar, BorderLayout.NORTH);
@@ -218,8 +589,13 @@ public class ZooInspectorPanel extends JPanel implements NodeViewersChangeListen
     if (zooInspectorManager == null
         || zooInspectorManager.getZookeeperStates() != States.CONNECTED) {
       refreshButton.setEnabled(false);
+      liveButton.setEnabled(false);
       addNodeButton.setEnabled(false);
       deleteNodeButton.setEnabled(false);
+      importButton.setEnabled(false);
+      exportButton.setEnabled(false);
+      compareButton.setEnabled(false);
+      searchButton.setEnabled(false);
       JOptionPane
           .showMessageDialog(
               ZooInspectorPanel.this,
@@ -230,6 +606,72 @@ public class ZooInspectorPanel extends JPanel implements NodeViewersChangeListen
     return true;
   }
 
+  // look up words in the index of root, updated first with the changes
+  // followed since it was last used
+  private void lookUp(final String root, final String query) {
+    Properties props = zooInspectorManager.getLastConnectionProps();
+    final String source = props == null ? "" : props.getProperty(
+        ZooInspectorManagerImpl.CONNECT_STRING,
+        props.getProperty(ZooInspectorOfflineManager.DUMP_FILE, ""));
+    final ZooInspectorSearchIndex index = searchIndexes.computeIfAbsent(root, r -> {
+      ZooInspectorSearchIndex i = ZooInspectorSearchIndex.open(source, r);
+      treeViewer.addLiveListener(i);
+      return i;
+    });
+    final JTextArea results = new JTextArea();
+    results.setEditable(false);
+    results.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+    JFrame frame = new JFrame("Look up " + query + " in " + root);
+    frame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+    frame.setContentPane(new JScrollPane(results));
+    frame.setSize(800, 600);
+    frame.setLocationRelativeTo(ZooInspectorPanel.this);
+    frame.setVisible(true);
+    final AtomicLong updated = new AtomicLong(-1);
+    final AtomicLong micros = new AtomicLong();
+    SwingWorker<List<String>, Long> worker = new SwingWorker<List<String>, Long>() {
+
+      @Override
+      protected List<String> doInBackground() throws Exception {
+        if (!index.isComplete()) {
+          updated.set(index.update(zooInspectorManager, ZooInspectorDiff.DEFAULT_BATCH,
+              (completed, total) -> publish(completed)));
+        } else if (index.hasChanges()) {
+          updated.set(index.updateChanged(zooInspectorManager));
+        }
+        long start = System.nanoTime();
+        List<String> found = index.lookup(query, MAX_LOOKUP_RESULTS);
+        micros.set((System.nanoTime() - start) / 1000);
+        return found;
+      }
+
+      @Override
+      protected void process(List<Long> progress) {
+        results.setText(String.format("Updating the search index, %,d nodes listed%n",
+            progress.get(progress.size() - 1)));
+      }
+
+      @Override
+      protected void done() {
+        try {
+          StringBuilder sb = new StringBuilder();
+          List<String> found = get();
+          for (String path : found) {
+            sb.append(path).append('\n');
+          }
+          sb.append(String.format("Found %,d of %,d indexed nodes in %,d us%s%n", found.size(),
+              index.size(), micros.get(), updated.get() < 0 ? ""
+                  : String.format(", %,d nodes fetched to update the index", updated.get())));
+          results.setText(sb.toString());
+        } catch (InterruptedException | ExecutionException ex) {
+          LOG.error("Error occurred looking up {} in: {}", query, root, ex);
+          results.append("The search index could not be updated, see the log for details.\n");
+        }
+      }
+    };
+    worker.execute();
+  }
+
   /**
    * @param connectionProps the {@link Properties} for connecting to the zookeeper
    *                        instance
@@ -249,17 +691,24 @@ public class ZooInspectorPanel extends JPanel implements NodeViewersChangeListen
           if (get()) {
             // connect successfully
             treeViewer.refreshView();
+            boolean writable = !zooInspectorManager.isReadOnly();
             connectButton.setEnabled(false);
             disconnectButton.setEnabled(true);
             refreshButton.setEnabled(true);
-            addNodeButton.setEnabled(true);
-            deleteNodeButton.setEnabled(true);
+            liveButton.setEnabled(writable);
+            addNodeButton.setEnabled(writable);
+            deleteNodeButton.setEnabled(writable);
+            importButton.setEnabled(writable);
+            exportButton.setEnabled(true);
+            compareButton.setEnabled(true);
+            searchButton.setEnabled(true);
 
             // save successful connect string in default properties
             zooInspectorManager.updateDefaultConnectionFile(connectionProps);
           } else {
             JOptionPane.showMessageDialog(ZooInspectorPanel.this,
-                "Unable to connect to zookeeper", "Error",
+                zooInspectorManager.isReadOnly() ? "Unable to open the dump file"
+                    : "Unable to connect to zookeeper", "Error",
                 JOptionPane.ERROR_MESSAGE);
           }
         } catch (InterruptedException | ExecutionException e) {
@@ -297,11 +746,22 @@ public class ZooInspectorPanel extends JPanel implements NodeViewersChangeListen
         try {
           if (get()) {
             treeViewer.clearView();
+            filterField.setText("");
+            for (ZooInspectorSearchIndex index : searchIndexes.values()) {
+              treeViewer.removeLiveListener(index);
+            }
+            searchIndexes.clear();
             connectButton.setEnabled(true);
             disconnectButton.setEnabled(false);
             refreshButton.setEnabled(false);
+            liveButton.setSelected(false);
+            liveButton.setEnabled(false);
             addNodeButton.setEnabled(false);
             deleteNodeButton.setEnabled(false);
+            importButton.setEnabled(false);
+            exportButton.setEnabled(false);
+            compareButton.setEnabled(false);
+            searchButton.setEnabled(false);
           }
         } catch (InterruptedException e) {
           LOG.error("Error occurred while disconnecting from ZooKeeper server", e);
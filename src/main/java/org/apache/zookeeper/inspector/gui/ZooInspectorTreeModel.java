@@ -0,0 +1,457 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.zookeeper.inspector.gui;
+
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.inspector.manager.CacheListener;
+import org.apache.zookeeper.inspector.manager.ZooInspectorManagerCache;
+import org.apache.zookeeper.inspector.manager.ZooInspectorPathFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.swing.*;
+import javax.swing.event.EventListenerList;
+import javax.swing.event.TreeModelEvent;
+import javax.swing.event.TreeModelListener;
+import javax.swing.tree.TreeModel;
+import javax.swing.tree.TreePath;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A {@link TreeModel} over the {@link ZooInspectorManagerCache}. Each node's
+ * children are read from the cache the first time the tree asks for them and
+ * kept as shown; when the cache reports new children for a shown node the
+ * two sorted lists are merged and only the inserted and removed rows are
+ * fired, so the tree keeps its layout, expansion and selection.
+ * <p>
+ * Child nodes are created once per shown child and kept by their parent, and
+ * nodes that stay across an update keep their identity. Children are shown
+ * {@link ZooInspectorManagerCache#PAGE_SIZE} at a time; a placeholder row
+ * after them stands for the rest until {@link #showMore} is called, so a node
+ * with a million children costs the tree one page of rows.
+ * <p>
+ * With the {@link ZooInspectorPathFilter.Matches} of a filter only the
+ * children leading to a match are shown, and all children below a match.
+ * <p>
+ * Like all Swing models it is only used on the event dispatch thread. Cache
+ * changes are handed over to it with {@link SwingUtilities#invokeLater}.
+ */
+class ZooInspectorTreeModel implements TreeModel, CacheListener {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ZooInspectorTreeModel.class);
+
+  private final ZooInspectorManagerCache cache;
+  // null to show all nodes
+  private final ZooInspectorPathFilter.Matches filter;
+  private final ZooInspectorTreeNode root = new ZooInspectorTreeNode(null, "");
+  private final EventListenerList listeners = new EventListenerList();
+  // the nodes whose children the tree has seen, by path
+  private final Map<String, ZooInspectorTreeNode> shown = new HashMap<>();
+
+  /**
+   * @param cache  - the cache to show, the model follows its changes until
+   *               {@link #dispose()}
+   * @param filter - the nodes to show, null for all
+   */
+  ZooInspectorTreeModel(ZooInspectorManagerCache cache, ZooInspectorPathFilter.Matches filter) {
+    this.cache = cache;
+    this.filter = filter;
+    cache.addCacheListener(this);
+  }
+
+  ZooInspectorManagerCache getCache() {
+    return cache;
+  }
+
+  ZooInspectorPathFilter.Matches getFilter() {
+    return filter;
+  }
+
+  /**
+   * @param nodePath - the path of a node
+   * @return the path of tree nodes down to nodePath, or null if it is not
+   * shown, or not on a shown page of its parent's children
+   */
+  TreePath find(String nodePath) {
+    List<Object> nodes = new ArrayList<>();
+    ZooInspectorTreeNode node = root;
+    nodes.add(node);
+    for (String name : nodePath.split("/")) {
+      if (name.isEmpty()) {
+        continue;
+      }
+      int index = Collections.binarySearch(children(node), name);
+      if (index < 0 || index >= node.childNodes.length) {
+        return null;
+      }
+      node = (ZooInspectorTreeNode) getChild(node, index);
+      nodes.add(node);
+    }
+    return new TreePath(nodes.toArray());
+  }
+
+  /**
+   * Stop following the cache
+   */
+  void dispose() {
+    cache.removeCacheListener(this);
+  }
+
+  /**
+   * Forget the children shown below path, e.g. once it is collapsed, so that
+   * they are read again from the cache when shown again
+   *
+   * @param path - the path whose descendants are no longer shown
+   */
+  void collapsed(String path) {
+    String prefix = path.equals("/") ? path : path + "/";
+    Iterator<ZooInspectorTreeNode> it = shown.values().iterator();
+    while (it.hasNext()) {
+      ZooInspectorTreeNode node = it.next();
+      String p = node.getNodePath();
+      if (p.startsWith(prefix) && !p.equals(path)) {
+        forget(node);
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * Show the next page of the children of parent
+   *
+   * @param parent - a node whose placeholder was activated
+   */
+  void showMore(ZooInspectorTreeNode parent) {
+    if (parent.children == null || !hasMore(parent)) {
+      return;
+    }
+    int shownBefore = parent.childNodes.length;
+    int shownAfter = Math.min(parent.children.size(), shownBefore + ZooInspectorManagerCache.PAGE_SIZE);
+    prefetch(parent, shownBefore, shownAfter);
+    TreePath parentPath = treePath(parent);
+    Object[] placeholder = {parent.more};
+    parent.more = null;
+    // a node with its placeholder gone, then with the next page
+    parent.childNodes = Arrays.copyOf(parent.childNodes, shownBefore);
+    List<String> all = parent.children;
+    parent.children = all.subList(0, shownBefore);
+    fire(parentPath, new int[]{shownBefore}, placeholder, false);
+    parent.children = all;
+    parent.childNodes = Arrays.copyOf(parent.childNodes, shownAfter);
+    int rows = shownAfter - shownBefore + (hasMore(parent) ? 1 : 0);
+    int[] indices = new int[rows];
+    Object[] nodes = new Object[rows];
+    for (int k = 0; k < rows; k++) {
+      indices[k] = shownBefore + k;
+      nodes[k] = getChild(parent, shownBefore + k);
+    }
+    fire(parentPath, indices, nodes, true);
+  }
+
+  /**
+   * Fetch the stats and children of the shown children of path that are not
+   * cached yet, in one pipelined batch instead of one round trip per row
+   *
+   * @param path - a node about to be expanded
+   */
+  void prefetch(String path) {
+    ZooInspectorTreeNode node = shown.get(path);
+    int shownChildren = node == null || node.children == null
+        ? ZooInspectorManagerCache.PAGE_SIZE : node.childNodes.length;
+    List<String> children = node == null || node.children == null
+        ? filtered(path, cache.getChildren(path)) : node.children;
+    prefetch(path, children, 0, Math.min(children.size(), shownChildren));
+  }
+
+  private void prefetch(ZooInspectorTreeNode node, int from, int to) {
+    prefetch(node.getNodePath(), node.children, from, to);
+  }
+
+  private void prefetch(String path, List<String> children, int from, int to) {
+    String prefix = path.equals("/") ? path : path + "/";
+    List<String> missing = new ArrayList<>();
+    for (int i = from; i < to; i++) {
+      String child = prefix + children.get(i);
+      if (!cache.contains(child)) {
+        missing.add(child);
+      }
+    }
+    try {
+      cache.refresh(missing, 0);
+    } catch (KeeperException e) {
+      LOG.warn("Error occurred fetching {} children of: {}", missing.size(), path, e);
+    }
+  }
+
+  @Override
+  public Object getRoot() {
+    return root;
+  }
+
+  @Override
+  public Object getChild(Object parent, int index) {
+    ZooInspectorTreeNode node = (ZooInspectorTreeNode) parent;
+    List<String> children = children(node);
+    int shownChildren = node.childNodes.length;
+    if (index == shownChildren && hasMore(node)) {
+      if (node.more == null) {
+        node.more = new ZooInspectorTreeNode(node, children.size() - shownChildren);
+      }
+      return node.more;
+    }
+    if (index < 0 || index >= shownChildren) {
+      return null;
+    }
+    ZooInspectorTreeNode child = node.childNodes[index];
+    if (child == null) {
+      child = new ZooInspectorTreeNode(node, children.get(index));
+      node.childNodes[index] = child;
+    }
+    return child;
+  }
+
+  @Override
+  public int getChildCount(Object parent) {
+    ZooInspectorTreeNode node = (ZooInspectorTreeNode) parent;
+    if (node.isPlaceholder()) {
+      return 0;
+    }
+    children(node);
+    return node.childNodes.length + (hasMore(node) ? 1 : 0);
+  }
+
+  @Override
+  public boolean isLeaf(Object node) {
+    ZooInspectorTreeNode n = (ZooInspectorTreeNode) node;
+    return n.isPlaceholder() || children(n).isEmpty();
+  }
+
+  @Override
+  public void valueForPathChanged(TreePath path, Object newValue) {
+    // the tree is not editable
+  }
+
+  @Override
+  public int getIndexOfChild(Object parent, Object child) {
+    if (parent == null || child == null) {
+      return -1;
+    }
+    ZooInspectorTreeNode node = (ZooInspectorTreeNode) child;
+    ZooInspectorTreeNode p = (ZooInspectorTreeNode) parent;
+    if (!p.equals(node.getParent())) {
+      return -1;
+    }
+    if (node.isPlaceholder()) {
+      return node.equals(p.more) ? p.childNodes.length : -1;
+    }
+    int index = Collections.binarySearch(children(p), node.getNodeName());
+    return index < 0 || index >= p.childNodes.length ? -1 : index;
+  }
+
+  @Override
+  public void addTreeModelListener(TreeModelListener l) {
+    listeners.add(TreeModelListener.class, l);
+  }
+
+  @Override
+  public void removeTreeModelListener(TreeModelListener l) {
+    listeners.remove(TreeModelListener.class, l);
+  }
+
+  @Override
+  public void childrenChanged(final String nodePath, List<String> oldChildren,
+                              final List<String> newChildren) {
+    SwingUtilities.invokeLater(() -> update(nodePath, newChildren));
+  }
+
+  private List<String> children(ZooInspectorTreeNode node) {
+    if (node.children == null) {
+      node.children = filtered(node.getNodePath(), cache.getChildren(node.getNodePath()));
+      node.childNodes = new ZooInspectorTreeNode[Math.min(node.children.size(),
+          ZooInspectorManagerCache.PAGE_SIZE)];
+      node.more = null;
+      shown.put(node.getNodePath(), node);
+    }
+    return node.children;
+  }
+
+  private List<String> filtered(String path, List<String> children) {
+    return filter == null ? children : filter.filterChildren(path, children);
+  }
+
+  private static boolean hasMore(ZooInspectorTreeNode node) {
+    return node.childNodes.length < node.children.size();
+  }
+
+  private static void forget(ZooInspectorTreeNode node) {
+    node.children = null;
+    node.childNodes = null;
+    node.more = null;
+  }
+
+  private static TreePath treePath(ZooInspectorTreeNode node) {
+    int depth = 0;
+    for (ZooInspectorTreeNode n = node; n != null; n = n.getParent()) {
+      depth++;
+    }
+    Object[] nodes = new Object[depth];
+    for (ZooInspectorTreeNode n = node; n != null; n = n.getParent()) {
+      nodes[--depth] = n;
+    }
+    return new TreePath(nodes);
+  }
+
+  // merge the shown and the new children, both sorted, and fire the difference.
+  // for a paged node only the shown rows are compared, and the placeholder
+  // is replaced since its count changes
+  private void update(String path, List<String> all) {
+    ZooInspectorTreeNode parent = shown.get(path);
+    if (parent == null) {
+      // never shown, read from the cache on demand
+      return;
+    }
+    all = filtered(path, all);
+    ZooInspectorTreeNode[] beforeNodes = parent.childNodes;
+    List<String> before = parent.children.subList(0, beforeNodes.length);
+    int shownAfter = Math.min(all.size(), Math.max(beforeNodes.length, ZooInspectorManagerCache.PAGE_SIZE));
+    List<String> after = all.subList(0, shownAfter);
+    int keptSize = 0;
+    List<String> kept = new ArrayList<>(Math.min(before.size(), after.size()));
+    ZooInspectorTreeNode[] keptNodes = new ZooInspectorTreeNode[Math.min(before.size(), after.size())];
+    ZooInspectorTreeNode[] afterNodes = new ZooInspectorTreeNode[after.size()];
+    List<Integer> removed = new ArrayList<>();
+    List<Integer> inserted = new ArrayList<>();
+    int i = 0;
+    int j = 0;
+    while (i < before.size() || j < after.size()) {
+      int cmp = i == before.size() ? 1 : j == after.size() ? -1
+          : before.get(i).compareTo(after.get(j));
+      if (cmp < 0) {
+        removed.add(i++);
+      } else if (cmp > 0) {
+        inserted.add(j++);
+      } else {
+        kept.add(before.get(i));
+        keptNodes[keptSize++] = beforeNodes[i];
+        afterNodes[j] = beforeNodes[i];
+        i++;
+        j++;
+      }
+    }
+    boolean hadMore = hasMore(parent);
+    // with the same shown rows and the same total the placeholder is the same too
+    if (removed.isEmpty() && inserted.isEmpty() && all.size() == parent.children.size()) {
+      parent.children = all;
+      parent.childNodes = afterNodes;
+      return;
+    }
+    TreePath parentPath = treePath(parent);
+    if (hadMore) {
+      removed.add(beforeNodes.length);
+    }
+    if (!removed.isEmpty()) {
+      Object[] children = nodes(parent, before, beforeNodes, removed);
+      // the tree may query the model while handling the event, so it must
+      // already be without the removed children but not yet with the new ones
+      parent.children = kept;
+      parent.childNodes = Arrays.copyOf(keptNodes, keptSize);
+      parent.more = null;
+      forgetRemoved(children);
+      fire(parentPath, toArray(removed), children, false);
+    }
+    parent.children = all;
+    parent.childNodes = afterNodes;
+    if (hasMore(parent)) {
+      inserted.add(afterNodes.length);
+    }
+    if (!inserted.isEmpty()) {
+      Object[] children = new Object[inserted.size()];
+      for (int k = 0; k < children.length; k++) {
+        children[k] = getChild(parent, inserted.get(k));
+      }
+      fire(parentPath, toArray(inserted), children, true);
+    }
+  }
+
+  private static int[] toArray(List<Integer> indices) {
+    int[] result = new int[indices.size()];
+    for (int k = 0; k < result.length; k++) {
+      result[k] = indices.get(k);
+    }
+    return result;
+  }
+
+  // the nodes at indices, created where the tree never asked for them. the
+  // index after the shown children stands for the placeholder
+  private static Object[] nodes(ZooInspectorTreeNode parent, List<String> names,
+                                ZooInspectorTreeNode[] nodes, List<Integer> indices) {
+    Object[] result = new Object[indices.size()];
+    for (int k = 0; k < result.length; k++) {
+      int index = indices.get(k);
+      if (index == nodes.length) {
+        result[k] = parent.more != null ? parent.more
+            : new ZooInspectorTreeNode(parent, parent.children.size() - nodes.length);
+        continue;
+      }
+      if (nodes[index] == null) {
+        nodes[index] = new ZooInspectorTreeNode(parent, names.get(index));
+      }
+      result[k] = nodes[index];
+    }
+    return result;
+  }
+
+  // forget the removed children and their shown descendants in one pass
+  private void forgetRemoved(Object[] removed) {
+    Set<Object> gone = new HashSet<>(Arrays.asList(removed));
+    Iterator<ZooInspectorTreeNode> it = shown.values().iterator();
+    while (it.hasNext()) {
+      ZooInspectorTreeNode node = it.next();
+      for (ZooInspectorTreeNode n = node; n != null; n = n.getParent()) {
+        if (gone.contains(n)) {
+          forget(node);
+          it.remove();
+          break;
+        }
+      }
+    }
+  }
+
+  private void fire(TreePath parentPath, int[] childIndices, Object[] children,
+                    boolean inserted) {
+    TreeModelEvent e = new TreeModelEvent(this, parentPath, childIndices, children);
+    Object[] ls = listeners.getListenerList();
+    for (int k = ls.length - 2; k >= 0; k -= 2) {
+      if (ls[k] == TreeModelListener.class) {
+        if (inserted) {
+          ((TreeModelListener) ls[k + 1]).treeNodesInserted(e);
+        } else {
+          ((TreeModelListener) ls[k + 1]).treeNodesRemoved(e);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,120 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.zookeeper.inspector.gui;
+
+import java.util.List;
+
+/**
+ * A node of the {@link ZooInspectorTreeModel}. The model creates one instance
+ * per shown znode and hands out the same instance on every call, so painting
+ * and scrolling do not allocate, and equality is a comparison of the
+ * precomputed path.
+ * <p>
+ * The children fields are managed by the model on the event dispatch thread.
+ * A node with more children than a page shows them a page at a time, followed
+ * by a placeholder node standing for the rest.
+ */
+class ZooInspectorTreeNode {
+  private final String nodePath;
+  private final String nodeName;
+  private final ZooInspectorTreeNode parent;
+  private final int hash;
+  private final boolean placeholder;
+
+  // the sorted children names, null until the tree asks for them
+  List<String> children;
+  // the nodes of the shown children, created as the tree asks for them. its
+  // length is the number of shown children
+  ZooInspectorTreeNode[] childNodes;
+  // the placeholder row after the shown children, if not all are shown
+  ZooInspectorTreeNode more;
+
+  /**
+   * @param parent   - the parent node, null for the root
+   * @param nodeName - the name of the node, empty for the root
+   */
+  ZooInspectorTreeNode(ZooInspectorTreeNode parent, String nodeName) {
+    this.parent = parent;
+    this.nodeName = nodeName;
+    if (parent == null) {
+      this.nodePath = "/";
+    } else if (parent.parent == null) {
+      this.nodePath = "/" + nodeName;
+    } else {
+      this.nodePath = parent.nodePath + "/" + nodeName;
+    }
+    this.hash = nodePath.hashCode();
+    this.placeholder = false;
+  }
+
+  /**
+   * Create the placeholder for the children of parent that are not shown
+   *
+   * @param parent - the parent node
+   * @param hidden - the number of children not shown
+   */
+  ZooInspectorTreeNode(ZooInspectorTreeNode parent, int hidden) {
+    this.parent = parent;
+    this.nodeName = String.format("\u2026 %,d more", hidden);
+    // not a valid child path, so never equal to a real node
+    this.nodePath = parent.nodePath + "//" + nodeName;
+    this.hash = nodePath.hashCode();
+    this.placeholder = true;
+  }
+
+  /**
+   * @return true if this node stands for children that are not shown yet
+   */
+  boolean isPlaceholder() {
+    return placeholder;
+  }
+
+  String getNodePath() {
+    return nodePath;
+  }
+
+  String getNodeName() {
+    return nodeName;
+  }
+
+  ZooInspectorTreeNode getParent() {
+    return parent;
+  }
+
+  @Override
+  public String toString() {
+    return this.nodeName;
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof ZooInspectorTreeNode)) {
+      return false;
+    }
+    ZooInspectorTreeNode other = (ZooInspectorTreeNode) obj;
+    return hash == other.hash && nodePath.equals(other.nodePath);
+  }
+}
@@ -18,10 +18,15 @@
 package org.apache.zookeeper.inspector.gui;
 
 import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
 import org.apache.zookeeper.inspector.ZooInspectorUtil;
 import org.apache.zookeeper.inspector.manager.NodeListener;
 import org.apache.zookeeper.inspector.manager.ZooInspectorManager;
+import org.apache.zookeeper.inspector.manager.ZooInspectorManagerCache;
+import org.apache.zookeeper.inspector.manager.ZooInspectorPathFilter;
 import org.apache.zookeeper.inspector.toaster.Toaster;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.swing.*;
 import javax.swing.event.TreeExpansionEvent;
@@ -36,6 +41,8 @@ import java.awt.event.MouseEvent;
 import java.io.File;
 import java.util.List;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
 
 // import com.nitido.utils.toaster.Toaster;
 
@@ -45,17 +52,22 @@ import java.util.*;
  */
 public class ZooInspectorTreeViewer extends JPanel implements NodeListener,
     TreeWillExpandListener {
+  private static final Logger LOG = LoggerFactory.getLogger(ZooInspectorTreeViewer.class);
+  // the number of nodes a filter shows at most, and of them the number made visible
+  private static final int MAX_FILTER_MATCHES = 10000;
+  private static final int MAX_EXPANDED_MATCHES = 100;
+
   private final ZooInspectorManager zooInspectorManager;
   private final JTree tree;
   private final Toaster toasterManager;
 
-  /**
-   * HACK:
-   * treeExpand event can be triggered other than mouse click, e.g. delete/add node
-   * in such cases we can skip cache refresh on expanded paths
-   */
-  private final Set<String> skipRefreshPaths = Collections.synchronizedSet(new HashSet<String>());
   private final ZooInspectorPanel zooInspectorPanel;
+  // follows the cache of the current connection, null when disconnected
+  private ZooInspectorTreeModel model;
+  // the nodes the model shows, null for all
+  private ZooInspectorPathFilter.Matches filter;
+  private volatile boolean live;
+  private final List<NodeListener> liveListeners = new CopyOnWriteArrayList<>();
 
   /**
    * @param zooInspectorManager - the {@link ZooInspectorManager} for the application
@@ -95,8 +107,25 @@ public class ZooInspectorTreeViewer extends JPanel implements NodeListener,
     System.out.println("init jtree: " + tree);
 
     tree.setCellRenderer(new ZooInspectorTreeCellRenderer());
+    // with a fixed row height the tree only lays out the visible rows, instead
+    // of asking for every child of an expanded node
+    tree.setRowHeight(Math.max(18, tree.getFontMetrics(tree.getFont()).getHeight() + 2));
+    tree.setLargeModel(true);
     tree.setEditable(false);
     tree.getSelectionModel().addTreeSelectionListener(listener);
+    // selecting the "more" row of a large node shows its next page
+    tree.getSelectionModel().addTreeSelectionListener(e -> {
+      TreePath path = e.getNewLeadSelectionPath();
+      if (path != null && path.getLastPathComponent() instanceof ZooInspectorTreeNode) {
+        final ZooInspectorTreeNode node = (ZooInspectorTreeNode) path.getLastPathComponent();
+        if (node.isPlaceholder() && model != null) {
+          SwingUtilities.invokeLater(() -> {
+            tree.removeSelectionPath(path);
+            model.showMore(node.getParent());
+          });
+        }
+      }
+    });
     tree.addMouseListener(new MouseAdapter() {
       @Override
       public void mouseClicked(MouseEvent e) {
@@ -123,73 +152,120 @@ public class ZooInspectorTreeViewer extends JPanel implements NodeListener,
   public void treeWillExpand(TreeExpansionEvent event) {
     String znodePath = ZooInspectorUtil.treePathToZnodePath(event.getPath());
     System.out.println("treeWillExpand invoked. willExpandPath: " + znodePath);
-//      System.out.println("Skip refresh " + skipRefreshPaths.size() + " paths");
 
-    if (skipRefreshPaths.contains(znodePath)) {
-//        System.out.println("Skip refresh path: " + znodePath);
-    } else {
-      try {
+    zooInspectorManager.getCache().pin(znodePath);
+    try {
+      if (filter == null || filter.isMatched(znodePath)) {
+        // nodes with more than a page of children are not descended into,
+        // only the shown page of them is fetched
         zooInspectorManager.getCache().refresh(Arrays.asList(znodePath), 1);
-      } catch (KeeperException e) {
-        zooInspectorPanel.checkZookeeperStates(e.getMessage());
       }
+      // with a filter only the children leading to a match are fetched
+      getModel().prefetch(znodePath);
+    } catch (KeeperException e) {
+      zooInspectorPanel.checkZookeeperStates(e.getMessage());
     }
   }
 
   @Override
   public void treeWillCollapse(TreeExpansionEvent event) {
-    // TODO Auto-generated method stub
-    // System.out.println("collapsePath: " + event.getPath());
+    // hidden nodes may be evicted from the cache
+    String znodePath = ZooInspectorUtil.treePathToZnodePath(event.getPath());
+    zooInspectorManager.getCache().unpin(znodePath);
+    if (model != null) {
+      model.collapsed(znodePath);
+    }
   }
 
-  private List<String> getExpandedNodes() {
-    List<String> expandedPaths = new ArrayList<String>();
-    int rowCount = tree.getRowCount();
-    for (int i = 0; i < rowCount; i++) {
-      TreePath path = tree.getPathForRow(i);
-      if (tree.isExpanded(path)) {
-        expandedPaths.add(ZooInspectorUtil.treePathToZnodePath(path));
+  // show the cache of the current connection, keeping the model while it is the same
+  private ZooInspectorTreeModel getModel() {
+    ZooInspectorManagerCache cache = zooInspectorManager.getCache();
+    if (model == null || model.getCache() != cache) {
+      if (model != null) {
+        model.dispose();
+        // the matches were of another connection
+        filter = null;
       }
+      model = new ZooInspectorTreeModel(cache, filter);
+      tree.setModel(model);
     }
-    return expandedPaths;
+    return model;
   }
 
-  private void doRefresh(final TreePath[] selectedNodes) {
-    System.out.println("\tdoRefresh#selectedTreePaths: " + Arrays.toString(selectedNodes));
-
-    final Set<TreePath> expandedNodes = new LinkedHashSet<TreePath>();
-    int rowCount = tree.getRowCount();
-    for (int i = 0; i < rowCount; i++) {
-      TreePath path = tree.getPathForRow(i);
-      if (tree.isExpanded(path)) {
-        expandedNodes.add(path);
-      }
+  /**
+   * Show only the nodes matching a {@link ZooInspectorPathFilter} pattern,
+   * their ancestors and their descendants. The matches are found in the
+   * background, fetching only the nodes the pattern can reach, and stay as
+   * found until the filter is set again.
+   *
+   * @param pattern - the pattern of the nodes to show, empty to show all
+   */
+  public void setFilter(String pattern) {
+    final ZooInspectorManagerCache cache = zooInspectorManager.getCache();
+    if (cache == null) {
+      return;
     }
-
-//      final TreePath[] selectedNodes = tree.getSelectionPaths();
-    System.out.println("\texpandedNodes: " + expandedNodes);
-
-
-    SwingWorker<Boolean, Void> worker = new SwingWorker<Boolean, Void>() {
+    if (pattern.isEmpty()) {
+      showFilter(null);
+      return;
+    }
+    final ZooInspectorPathFilter pathFilter;
+    try {
+      pathFilter = ZooInspectorPathFilter.compile(pattern);
+    } catch (IllegalArgumentException e) {
+      JOptionPane.showMessageDialog(this, e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+      return;
+    }
+    new SwingWorker<ZooInspectorPathFilter.Matches, Void>() {
 
       @Override
-      protected Boolean doInBackground() throws Exception {
-        tree.setModel(new DefaultTreeModel(new ZooInspectorTreeNode(
-            "/", null)));
-        return true;
+      protected ZooInspectorPathFilter.Matches doInBackground() throws Exception {
+        return pathFilter.evaluate(cache, MAX_FILTER_MATCHES);
       }
 
       @Override
       protected void done() {
-        for (TreePath path : expandedNodes) {
-          tree.expandPath(path);
+        ZooInspectorPathFilter.Matches matches;
+        try {
+          matches = get();
+        } catch (InterruptedException | ExecutionException e) {
+          LOG.error("Error occurred filtering the nodes: {}", pathFilter.getPattern(), e);
+          zooInspectorPanel.checkZookeeperStates(e.getMessage());
+          return;
+        }
+        if (cache != zooInspectorManager.getCache()) {
+          // disconnected meanwhile
+          return;
+        }
+        showFilter(matches);
+        if (matches.isTruncated()) {
+          JOptionPane.showMessageDialog(ZooInspectorTreeViewer.this,
+              String.format("Showing the first %,d matching nodes.", matches.size()));
         }
-        tree.getSelectionModel().setSelectionPaths(selectedNodes);
+      }
+    }.execute();
+  }
 
-        skipRefreshPaths.clear();
+  private void showFilter(ZooInspectorPathFilter.Matches matches) {
+    if (model != null) {
+      model.dispose();
+      model = null;
+    }
+    filter = matches;
+    ZooInspectorTreeModel m = getModel();
+    if (matches == null) {
+      return;
+    }
+    int expanded = 0;
+    for (String path : matches.getPaths()) {
+      if (expanded++ == MAX_EXPANDED_MATCHES) {
+        break;
+      }
+      TreePath treePath = m.find(path);
+      if (treePath != null) {
+        tree.makeVisible(treePath);
       }
-    };
-    worker.execute();
+    }
   }
 
   /**
@@ -212,6 +288,11 @@ public class ZooInspectorTreeViewer extends JPanel implements NodeListener,
 
     for (int i = 0; i < rowCount; i++) {
       TreePath path = tree.getPathForRow(i);
+      Object last = path.getLastPathComponent();
+      if (last instanceof ZooInspectorTreeNode && ((ZooInspectorTreeNode) last).isPlaceholder()) {
+        // stands for children not shown yet, not a node
+        continue;
+      }
       visiblePaths.add(ZooInspectorUtil.treePathToZnodePath(path));
 //            if (tree.isExpanded(path)) {
 //                expandedNodes.add(path);
@@ -221,18 +302,59 @@ public class ZooInspectorTreeViewer extends JPanel implements NodeListener,
 //        final TreePath[] selectedNodes = tree.getSelectionPaths();
 //        System.out.println("\tvisiblePaths: " + visiblePaths);
 //        System.out.println("selectedNodes: " + selectedPaths);
+    getModel();
     try {
-      zooInspectorManager.getCache().refresh(visiblePaths, 0);
+      if (!live) {
+        // in live mode the cache is already up to date. otherwise the model
+        // shows the differences once the refreshed nodes are cached
+        zooInspectorManager.getCache().refresh(visiblePaths, 0);
+      }
     } catch (KeeperException e) {
       zooInspectorPanel.checkZookeeperStates(e.getMessage());
+    }
+    System.out.println("[END] ZooInspectorTreeViewer#refreshView invoked.");
+  }
 
-      // shall skip refresh
-      return;
+  /**
+   * Follow changes under the root through zookeeper notifications, so that
+   * only changed nodes are fetched again, instead of every visible node on
+   * refresh
+   *
+   * @param enable - true to turn live mode on, false to turn it off
+   * @return true if live mode is on
+   */
+  public boolean setLiveMode(boolean enable) {
+    if (enable) {
+      // the model follows the cache, nothing else to do on a change
+      live = zooInspectorManager.enableLiveMode("/", (nodePath, eventType, eventInfo) -> {
+        if (KeeperState.Expired.name().equals(eventType)) {
+          // live mode stopped with the session
+          live = false;
+        }
+        for (NodeListener listener : liveListeners) {
+          listener.processEvent(nodePath, eventType, eventInfo);
+        }
+      });
+    } else {
+      zooInspectorManager.disableLiveMode();
+      live = false;
     }
+    return live;
+  }
 
-    skipRefreshPaths.addAll(getExpandedNodes());
-    doRefresh(tree.getSelectionPaths());
-    System.out.println("[END] ZooInspectorTreeViewer#refreshView invoked.");
+  /**
+   * @param listener - notified of the changes followed in live mode, from a
+   *                 background thread
+   */
+  public void addLiveListener(NodeListener listener) {
+    liveListeners.add(listener);
+  }
+
+  /**
+   * @param listener - the listener to stop notifying
+   */
+  public void removeLiveListener(NodeListener listener) {
+    liveListeners.remove(listener);
   }
 
   /**
@@ -242,32 +364,32 @@ public class ZooInspectorTreeViewer extends JPanel implements NodeListener,
    */
   public void refreshViewAfterDelete(List<String> deletedNodes) {
     System.out.println("deletedNodes: " + deletedNodes);
-    Set<String> expandedNodes = new HashSet<String>(getExpandedNodes());
 
+    // modify selected nodes (that's deleted) to their parents
+    TreePath[] selectedNodes = tree.getSelectionPaths();
+    if (selectedNodes != null) {
+      for (int i = 0; i < selectedNodes.length; i++) {
+        TreePath parent = selectedNodes[i].getParentPath();
+        selectedNodes[i] = parent;
+      }
+      tree.setSelectionPaths(selectedNodes);
+    }
+
+    Set<String> parents = new LinkedHashSet<>();
     for (String path : deletedNodes) {
-      expandedNodes.remove(path);
       zooInspectorManager.getCache().removePrefix(path);
       String parent = new File(path).getParent();
-      System.out.println("parent: " + parent);
-      try {
-        zooInspectorManager.getCache().refresh(Arrays.asList(parent), 0);
-      } catch (KeeperException e) {
-        zooInspectorPanel.checkZookeeperStates(e.getMessage());
-
-        // shall skip refresh
-        return;
+      if (parent != null) {
+        parents.add(parent);
       }
     }
-
-    skipRefreshPaths.addAll(expandedNodes);
-
-    // modify selected nodes (that's deleted) to their parents
-    TreePath[] selectedNodes = tree.getSelectionPaths();
-    for (int i = 0; i < selectedNodes.length; i++) {
-      TreePath parent = selectedNodes[i].getParentPath();
-      selectedNodes[i] = parent;
+    parents.removeIf(p -> deletedNodes.contains(p));
+    try {
+      // the model removes the deleted rows once the parents are refreshed
+      zooInspectorManager.getCache().refresh(new ArrayList<>(parents), 0);
+    } catch (KeeperException e) {
+      zooInspectorPanel.checkZookeeperStates(e.getMessage());
     }
-    doRefresh(selectedNodes);
   }
 
   /**
@@ -287,8 +409,6 @@ public class ZooInspectorTreeViewer extends JPanel implements NodeListener,
       // shall skip refresh
       return;
     }
-    skipRefreshPaths.addAll(getExpandedNodes());
-    doRefresh(tree.getSelectionPaths());
   }
 
 
@@ -296,6 +416,11 @@ public class ZooInspectorTreeViewer extends JPanel implements NodeListener,
    * clear the tree view of all nodes
    */
   public void clearView() {
+    if (model != null) {
+      model.dispose();
+      model = null;
+    }
+    filter = null;
     tree.setModel(new DefaultTreeModel(new DefaultMutableTreeNode()));
   }
 
@@ -361,159 +486,4 @@ public class ZooInspectorTreeViewer extends JPanel implements NodeListener,
       setClosedIcon(ZooInspectorIconResources.getTreeClosedIcon());
     }
   }
-
-  /**
-   * @author Colin
-   */
-  private class ZooInspectorTreeNode implements TreeNode {
-    private final String nodePath;
-    private final String nodeName;
-    private final ZooInspectorTreeNode parent;
-
-    public ZooInspectorTreeNode(String nodePath, ZooInspectorTreeNode parent) {
-      this.parent = parent;
-      this.nodePath = nodePath;
-      int index = nodePath.lastIndexOf("/");
-      if (index == -1) {
-        throw new IllegalArgumentException("Invalid node path"
-            + nodePath);
-      }
-      this.nodeName = nodePath.substring(index + 1);
-
-      // System.out.println("init treeNode: " + nodePath + ", parent: " + parent);
-    }
-
-    /*
-     * (non-Javadoc)
-     *
-     * @see javax.swing.tree.TreeNode#children()
-     */
-    @Override
-    public Enumeration<TreeNode> children() {
-      List<String> children = zooInspectorManager
-          .getChildren(this.nodePath);
-//            Collections.sort(children);
-      // System.out.println("sorted childs: " + children);
-      List<TreeNode> returnChildren = new ArrayList<TreeNode>();
-      for (String child : children) {
-        returnChildren.add(new ZooInspectorTreeNode((this.nodePath
-            .equals("/") ? "" : this.nodePath)
-            + "/" + child, this));
-      }
-      return Collections.enumeration(returnChildren);
-    }
-
-    /*
-     * (non-Javadoc)
-     *
-     * @see javax.swing.tree.TreeNode#getAllowsChildren()
-     */
-    @Override
-    public boolean getAllowsChildren() {
-      return zooInspectorManager.isAllowsChildren(this.nodePath);
-    }
-
-    /*
-     * (non-Javadoc)
-     *
-     * @see javax.swing.tree.TreeNode#getChildAt(int)
-     */
-    @Override
-    public TreeNode getChildAt(int childIndex) {
-      String child = zooInspectorManager.getNodeChild(this.nodePath,
-          childIndex);
-      // System.out.println("getChildAt: " + childIndex + ", child: " + child);
-      if (child != null) {
-        return new ZooInspectorTreeNode((this.nodePath.equals("/") ? ""
-            : this.nodePath)
-            + "/" + child, this);
-      }
-      return null;
-    }
-
-    /*
-     * (non-Javadoc)
-     *
-     * @see javax.swing.tree.TreeNode#getChildCount()
-     */
-    @Override
-    public int getChildCount() {
-      return zooInspectorManager.getNumChildren(this.nodePath);
-    }
-
-    /*
-     * (non-Javadoc)
-     *
-     * @see javax.swing.tree.TreeNode#getIndex(javax.swing.tree.TreeNode)
-     */
-    @Override
-    public int getIndex(TreeNode node) {
-      int idx = zooInspectorManager.getNodeIndex(this.nodePath);
-      System.out.println("getIndex: " + node + ", idx: " + idx);
-      return idx;
-    }
-
-    /*
-     * (non-Javadoc)
-     *
-     * @see javax.swing.tree.TreeNode#getParent()
-     */
-    @Override
-    public TreeNode getParent() {
-      return this.parent;
-    }
-
-    /*
-     * (non-Javadoc)
-     *
-     * @see javax.swing.tree.TreeNode#isLeaf()
-     */
-    @Override
-    public boolean isLeaf() {
-      return !zooInspectorManager.hasChildren(this.nodePath);
-    }
-
-    @Override
-    public String toString() {
-      return this.nodeName;
-    }
-
-    @Override
-    public int hashCode() {
-      final int prime = 31;
-      int result = 1;
-      result = prime * result + getOuterType().hashCode();
-      result = prime * result
-          + ((nodePath == null) ? 0 : nodePath.hashCode());
-      result = prime * result
-          + ((parent == null) ? 0 : parent.hashCode());
-      return result;
-    }
-
-    @Override
-    public boolean equals(Object obj) {
-      if (this == obj)
-        return true;
-      if (obj == null)
-        return false;
-      if (getClass() != obj.getClass())
-        return false;
-      ZooInspectorTreeNode other = (ZooInspectorTreeNode) obj;
-      if (!getOuterType().equals(other.getOuterType()))
-        return false;
-      if (nodePath == null) {
-        if (other.nodePath != null)
-          return false;
-      } else if (!nodePath.equals(other.nodePath))
-        return false;
-      if (parent == null) {
-        return other.parent == null;
-      } else return parent.equals(other.parent);
-    }
-
-    private ZooInspectorTreeViewer getOuterType() {
-      return ZooInspectorTreeViewer.this;
-    }
-
-  }
 }
@@ -0,0 +1,302 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.zookeeper.inspector.gui.nodeviewer;
+
+import javax.swing.*;
+import java.awt.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * A read only view of the data of a node as rows, which only decodes the rows
+ * it paints. Showing a value of several megabytes costs the same as showing a
+ * screen of it, instead of building a document of the whole value. Rows have
+ * a fixed height and are drawn with a monospaced font; the view is meant to
+ * be shown in a {@link JScrollPane}.
+ */
+class DataRowsView extends JComponent implements Scrollable {
+
+  /**
+   * The rows of a value, decoded on demand
+   */
+  interface Rows {
+    int getRowCount();
+
+    /**
+     * @return the number of characters of the longest row, or more
+     */
+    int getMaxRowLength();
+
+    /**
+     * @param row - the index of the row
+     * @return the text of the row
+     */
+    String getRow(int row);
+  }
+
+  static final Rows EMPTY = new Rows() {
+    @Override
+    public int getRowCount() {
+      return 0;
+    }
+
+    @Override
+    public int getMaxRowLength() {
+      return 0;
+    }
+
+    @Override
+    public String getRow(int row) {
+      throw new IndexOutOfBoundsException("row: " + row);
+    }
+  };
+
+  // a line longer than this is shown in several rows, so that a value on a
+  // single line is not decoded as a whole
+  private static final int MAX_ROW_BYTES = 512;
+  private static final int INSET = 4;
+  /**
+   * The number of bytes in a row of {@link #hexRows}
+   */
+  static final int HEX_ROW_BYTES = 16;
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  private final int rowHeight;
+  private final int charWidth;
+  private final int ascent;
+  private Rows rows = EMPTY;
+  private int highlighted = -1;
+
+  DataRowsView() {
+    setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+    FontMetrics metrics = getFontMetrics(getFont());
+    rowHeight = metrics.getHeight();
+    charWidth = metrics.charWidth('m');
+    ascent = metrics.getAscent();
+    setOpaque(true);
+    setBackground(Color.WHITE);
+    setForeground(Color.BLACK);
+  }
+
+  /**
+   * Split text encoded as UTF-8 into its lines, without decoding it. Rows
+   * only break a line between characters.
+   *
+   * @param data - the raw data
+   * @return the lines of data
+   */
+  static Rows textRows(final byte[] data) {
+    int[] starts = new int[Math.max(16, data.length / 64)];
+    int count = 0;
+    int maxLength = 0;
+    int pos = 0;
+    while (pos < data.length) {
+      int limit = Math.min(data.length, pos + MAX_ROW_BYTES);
+      int end = pos;
+      while (end < limit && data[end] != '\n') {
+        end++;
+      }
+      int next;
+      if (end < limit || limit == data.length) {
+        next = end + 1;
+      } else {
+        // continuation bytes of a character start with the bits 10
+        while (end > pos && (data[end] & 0xC0) == 0x80) {
+          end--;
+        }
+        if (end == pos) {
+          end = limit;
+        }
+        next = end;
+      }
+      if (count + 1 >= starts.length) {
+        starts = Arrays.copyOf(starts, starts.length * 2);
+      }
+      starts[count++] = pos;
+      maxLength = Math.max(maxLength, end - pos);
+      pos = next;
+    }
+    starts[count] = Math.min(pos, data.length);
+    final int[] rowStarts = starts;
+    final int rowCount = count;
+    final int maxRowLength = maxLength;
+    return new Rows() {
+      @Override
+      public int getRowCount() {
+        return rowCount;
+      }
+
+      @Override
+      public int getMaxRowLength() {
+        return maxRowLength;
+      }
+
+      @Override
+      public String getRow(int row) {
+        int start = rowStarts[row];
+        int end = rowStarts[row + 1];
+        while (end > start && (data[end - 1] == '\n' || data[end - 1] == '\r')) {
+          end--;
+        }
+        return new String(data, start, end - start, StandardCharsets.UTF_8).replace('\t', ' ');
+      }
+    };
+  }
+
+  /**
+   * Show data as rows of {@link #HEX_ROW_BYTES} bytes, each with its offset,
+   * the bytes in hex and the printable ASCII characters among them. Rows are
+   * formatted when painted, straight from data.
+   *
+   * @param data - the raw data
+   * @return the rows of the hex dump of data
+   */
+  static Rows hexRows(final byte[] data) {
+    final int rowCount = (data.length + HEX_ROW_BYTES - 1) / HEX_ROW_BYTES;
+    // offset, hex bytes with a gap in the middle, and the characters
+    final int rowLength = 8 + 2 + 3 * HEX_ROW_BYTES + 2 + 1 + HEX_ROW_BYTES + 1;
+    return new Rows() {
+      @Override
+      public int getRowCount() {
+        return rowCount;
+      }
+
+      @Override
+      public int getMaxRowLength() {
+        return rowLength;
+      }
+
+      @Override
+      public String getRow(int row) {
+        char[] chars = new char[rowLength];
+        Arrays.fill(chars, ' ');
+        int offset = row * HEX_ROW_BYTES;
+        for (int k = 7; k >= 0; k--) {
+          chars[7 - k] = HEX_DIGITS[(offset >>> (4 * k)) & 0xF];
+        }
+        int count = Math.min(HEX_ROW_BYTES, data.length - offset);
+        int text = 8 + 2 + 3 * HEX_ROW_BYTES + 2;
+        chars[text] = '|';
+        for (int k = 0; k < count; k++) {
+          int b = data[offset + k] & 0xFF;
+          int hex = 8 + 2 + 3 * k + (k >= HEX_ROW_BYTES / 2 ? 1 : 0);
+          chars[hex] = HEX_DIGITS[b >>> 4];
+          chars[hex + 1] = HEX_DIGITS[b & 0xF];
+          chars[text + 1 + k] = b >= 0x20 && b < 0x7F ? (char) b : '.';
+        }
+        chars[text + 1 + count] = '|';
+        return new String(chars, 0, text + 2 + count);
+      }
+    };
+  }
+
+  Rows getRows() {
+    return rows;
+  }
+
+  /**
+   * @param rows - the rows to show, from the first
+   */
+  void setRows(Rows rows) {
+    this.rows = rows;
+    this.highlighted = -1;
+    revalidate();
+    repaint();
+    scrollRectToVisible(new Rectangle(0, 0, 1, 1));
+  }
+
+  /**
+   * Highlight the first row containing text, ignoring case, and scroll to it
+   *
+   * @param text - the text to find
+   * @return the index of the row, or -1 if no row contains text
+   */
+  int find(String text) {
+    highlighted = -1;
+    if (text != null && !text.isEmpty()) {
+      String lower = text.toLowerCase(Locale.ROOT);
+      for (int row = 0; row < rows.getRowCount(); row++) {
+        if (rows.getRow(row).toLowerCase(Locale.ROOT).contains(lower)) {
+          highlighted = row;
+          scrollRectToVisible(new Rectangle(0, row * rowHeight, 1, rowHeight));
+          break;
+        }
+      }
+    }
+    repaint();
+    return highlighted;
+  }
+
+  @Override
+  public Dimension getPreferredSize() {
+    return new Dimension(2 * INSET + rows.getMaxRowLength() * charWidth,
+        rows.getRowCount() * rowHeight);
+  }
+
+  @Override
+  protected void paintComponent(Graphics g) {
+    Rectangle clip = g.getClipBounds();
+    if (clip == null) {
+      clip = new Rectangle(0, 0, getWidth(), getHeight());
+    }
+    g.setColor(getBackground());
+    g.fillRect(clip.x, clip.y, clip.width, clip.height);
+    g.setFont(getFont());
+    int first = Math.max(0, clip.y / rowHeight);
+    int last = Math.min(rows.getRowCount() - 1, (clip.y + clip.height) / rowHeight);
+    for (int row = first; row <= last; row++) {
+      if (row == highlighted) {
+        g.setColor(Color.YELLOW);
+        g.fillRect(clip.x, row * rowHeight, clip.width, rowHeight);
+      }
+      g.setColor(getForeground());
+      g.drawString(rows.getRow(row), INSET, row * rowHeight + ascent);
+    }
+  }
+
+  @Override
+  public Dimension getPreferredScrollableViewportSize() {
+    return getPreferredSize();
+  }
+
+  @Override
+  public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+    return orientation == SwingConstants.VERTICAL ? rowHeight : charWidth;
+  }
+
+  @Override
+  public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+    return orientation == SwingConstants.VERTICAL
+        ? Math.max(rowHeight, visibleRect.height - rowHeight)
+        : Math.max(charWidth, visibleRect.width - charWidth);
+  }
+
+  @Override
+  public boolean getScrollableTracksViewportWidth() {
+    // fill a viewport wider than the rows
+    Container parent = getParent();
+    return parent instanceof JViewport && parent.getWidth() > getPreferredSize().width;
+  }
+
+  @Override
+  public boolean getScrollableTracksViewportHeight() {
+    Container parent = getParent();
+    return parent instanceof JViewport && parent.getHeight() > getPreferredSize().height;
+  }
+}
@@ -32,22 +32,34 @@ import javax.swing.text.DefaultStyledDocument;
 import java.awt.*;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 
 /**
- * A node viewer for displaying the data for the currently selected node
+ * A node viewer for displaying the data for the currently selected node.
+ * Decrypted values larger than {@link #LARGE_DATA_SIZE} are shown read only
+ * by a {@link DataRowsView}, which only decodes the lines on screen. The edit
+ * button offers to move such a value into the text pane to edit it there.
  */
 public class NodeViewerData extends ZooInspectorNodeViewer {
 
   private static final Logger LOG = LoggerFactory.getLogger(NodeViewerData.class);
+  /**
+   * The size in bytes above which data is not put into a text pane
+   */
+  public static final int LARGE_DATA_SIZE = 64 * 1024;
 
   private final JTextPane dataArea;
+  private final DataRowsView largeDataView;
+  private final JButton saveButton;
   private final DefaultHighlighter highlighter;
   private final JScrollPane scroller;
   private final JToolBar toolbar;
   private ZooInspectorNodeManager zooInspectorManager;
   private String selectedNode;
+  // the decrypted data while largeDataView shows it, null otherwise
+  private String largeData;
 
   /**
    *
@@ -94,6 +106,8 @@ public class NodeViewerData extends ZooInspectorNodeViewer {
       }
     });
     dataArea.setEditable(false);
+    this.largeDataView = new DataRowsView();
+    largeDataView.setToolTipText("Read only, use the edit button to edit this value");
 
     this.toolbar = new JToolBar();
     this.toolbar.setFloatable(false);
@@ -102,9 +116,9 @@ public class NodeViewerData extends ZooInspectorNodeViewer {
 
     this.add(scroller, BorderLayout.CENTER);
     this.add(this.toolbar, BorderLayout.NORTH);
-    final JButton saveButton = new JButton(ZooInspectorIconResources.getSaveIcon());
+    saveButton = new JButton(ZooInspectorIconResources.getSaveIcon());
     saveButton.addActionListener(e -> {
-      if (selectedNode != null) {
+      if (selectedNode != null && largeData == null) {
         if (JOptionPane.showConfirmDialog(NodeViewerData.this,
             "Are you sure you want to save this node?" + " (this action cannot be reverted)",
             "Confirm Save", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE) == JOptionPane.YES_OPTION) {
@@ -120,6 +134,15 @@ public class NodeViewerData extends ZooInspectorNodeViewer {
     editButton.addActionListener(e -> {
       // toggle save button
       if (zooInspectorManager != null && zooInspectorManager.getZookeeperStates() == States.CONNECTED) {
+        if (largeData != null) {
+          if (JOptionPane.showConfirmDialog(NodeViewerData.this,
+              "This value is too large to be shown editable (" + (largeData.length() / 1024)
+                  + " KB). Edit it in the text pane anyway?" + " (this may be slow)",
+              "Edit Large Value", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE) != JOptionPane.YES_OPTION) {
+            return;
+          }
+          showText(largeData);
+        }
         saveButton.setEnabled(!saveButton.isEnabled());
         dataArea.setEditable(saveButton.isEnabled());
       }
@@ -145,6 +168,10 @@ public class NodeViewerData extends ZooInspectorNodeViewer {
   }
 
   public void highlight(String selText) {
+    if (largeData != null) {
+      largeDataView.find(selText);
+      return;
+    }
     highlighter.removeAllHighlights();
     if (selText == null || selText.isEmpty()) {
       return;
@@ -215,27 +242,44 @@ public class NodeViewerData extends ZooInspectorNodeViewer {
 //      final long start = System.currentTimeMillis();
 
       this.selectedNode = selectedNodes.get(0);
-      SwingWorker<String, Void> worker = new SwingWorker<String, Void>() {
+      final String nodePath = this.selectedNode;
+      // the decrypted data, and its rows if it is large
+      SwingWorker<Object[], Void> worker = new SwingWorker<Object[], Void>() {
 
         @Override
-        protected String doInBackground() {
-          return NodeViewerData.this.zooInspectorManager.getData(NodeViewerData.this.selectedNode);
+        protected Object[] doInBackground() {
+          String data = NodeViewerData.this.zooInspectorManager.getData(nodePath);
+          // a char takes at most 3 bytes, 4 for the 2 chars of a surrogate pair
+          if (data != null && data.length() > LARGE_DATA_SIZE / 3) {
+            byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > LARGE_DATA_SIZE) {
+              return new Object[] {data, DataRowsView.textRows(bytes)};
+            }
+          }
+          return new Object[] {data, null};
         }
 
         @Override
         protected void done() {
-          String data = "";
+          Object[] data = {null, null};
           try {
             data = get();
           } catch (InterruptedException e) {
             LOG.error(
-                "Error retrieving data for node: " + NodeViewerData.this.selectedNode, e);
+                "Error retrieving data for node: " + nodePath, e);
           } catch (ExecutionException e) {
             LOG.error(
-                "Error retrieving data for node: " + NodeViewerData.this.selectedNode, e);
+                "Error retrieving data for node: " + nodePath, e);
+          }
+          if (!nodePath.equals(NodeViewerData.this.selectedNode)) {
+            // another node was selected meanwhile
+            return;
           }
-          NodeViewerData.this.dataArea.setText(data);
-          NodeViewerData.this.dataArea.setCaretPosition(0);
+          if (data[1] != null) {
+            showLargeData((String) data[0], (DataRowsView.Rows) data[1]);
+            return;
+          }
+          showText((String) data[0]);
           // NodeViewerData.this.dataArea.moveCaretPosition(0);
 //          long end = System.currentTimeMillis();
 //          System.out.println("NodeViewerData.nodeSelectionChanged() invoked. took: "
@@ -247,6 +291,31 @@ public class NodeViewerData extends ZooInspectorNodeViewer {
     }
   }
 
+  // show the rows of data in the large data view, read only
+  private void showLargeData(String data, DataRowsView.Rows rows) {
+    if (largeData == null) {
+      saveButton.setEnabled(false);
+      dataArea.setEditable(false);
+      dataArea.setText("");
+      scroller.setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_AS_NEEDED);
+      scroller.setViewportView(largeDataView);
+    }
+    largeData = data;
+    largeDataView.setRows(rows);
+  }
+
+  // show data in the text pane
+  private void showText(String data) {
+    if (largeData != null) {
+      largeData = null;
+      largeDataView.setRows(DataRowsView.EMPTY);
+      scroller.setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_NEVER);
+      scroller.setViewportView(dataArea);
+    }
+    dataArea.setText(data);
+    dataArea.setCaretPosition(0);
+  }
+
   /*
    * (non-Javadoc)
    * @see
@@ -0,0 +1,124 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.zookeeper.inspector.gui.nodeviewer;
+
+import org.apache.zookeeper.inspector.manager.NodeSnapshot;
+import org.apache.zookeeper.inspector.manager.ZooInspectorNodeManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A node viewer for displaying the raw data of the currently selected node as
+ * a hex dump, for binary values such as protobuf or Avro that do not decode
+ * as text. Only the rows on screen are formatted, straight from the bytes of
+ * the node snapshot.
+ */
+public class NodeViewerHex extends ZooInspectorNodeViewer {
+
+  private static final Logger LOG = LoggerFactory.getLogger(NodeViewerHex.class);
+
+  private final DataRowsView dataView;
+  private final JLabel sizeLabel;
+  private ZooInspectorNodeManager zooInspectorManager;
+  private String selectedNode;
+
+  /**
+   *
+   */
+  public NodeViewerHex() {
+    this.setLayout(new BorderLayout());
+    this.dataView = new DataRowsView();
+    this.sizeLabel = new JLabel(" ");
+    this.sizeLabel.setBorder(BorderFactory.createEmptyBorder(2, 4, 2, 4));
+    this.add(this.sizeLabel, BorderLayout.NORTH);
+    this.add(new JScrollPane(this.dataView), BorderLayout.CENTER);
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see
+   * org.apache.zookeeper.inspector.gui.nodeviewer.ZooInspectorNodeViewer#
+   * getTitle()
+   */
+  @Override
+  public String getTitle() {
+    return "Node Data (Hex)";
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see
+   * org.apache.zookeeper.inspector.gui.nodeviewer.ZooInspectorNodeViewer#
+   * nodeSelectionChanged(java.util.Set)
+   */
+  @Override
+  public void nodeSelectionChanged(List<String> selectedNodes) {
+    if (selectedNodes.size() > 0) {
+      final String nodePath = selectedNodes.get(0);
+      this.selectedNode = nodePath;
+      SwingWorker<byte[], Void> worker = new SwingWorker<byte[], Void>() {
+
+        @Override
+        protected byte[] doInBackground() {
+          NodeSnapshot snapshot = NodeViewerHex.this.zooInspectorManager.getNodeSnapshot(nodePath);
+          return snapshot == null ? null : snapshot.getData();
+        }
+
+        @Override
+        protected void done() {
+          byte[] data = null;
+          try {
+            data = get();
+          } catch (InterruptedException | ExecutionException e) {
+            LOG.error("Error retrieving data for node: {}", nodePath, e);
+          }
+          if (!nodePath.equals(NodeViewerHex.this.selectedNode)) {
+            // another node was selected meanwhile
+            return;
+          }
+          if (data == null) {
+            sizeLabel.setText(" ");
+            dataView.setRows(DataRowsView.EMPTY);
+          } else {
+            sizeLabel.setText(String.format("%,d bytes", data.length));
+            dataView.setRows(DataRowsView.hexRows(data));
+          }
+        }
+      };
+      worker.execute();
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see
+   * org.apache.zookeeper.inspector.gui.nodeviewer.ZooInspectorNodeViewer#
+   * setZooInspectorManager
+   * (org.apache.zookeeper.inspector.manager.ZooInspectorNodeManager)
+   */
+  @Override
+  public void setZooInspectorManager(ZooInspectorNodeManager zooInspectorManager) {
+    this.zooInspectorManager = zooInspectorManager;
+  }
+
+}
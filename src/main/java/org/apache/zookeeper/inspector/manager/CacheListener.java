@@ -0,0 +1,36 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.zookeeper.inspector.manager;
+
+import java.util.List;
+
+/**
+ * A Listener for changes of the cached children of nodes
+ */
+public interface CacheListener {
+  /**
+   * Called from the thread that updated the cache, typically the zookeeper
+   * event thread, so implementations must not block.
+   *
+   * @param nodePath    - the path of the node
+   * @param oldChildren - the sorted children cached before, empty if the node
+   *                    was not cached
+   * @param newChildren - the sorted children cached now
+   */
+  void childrenChanged(String nodePath, List<String> oldChildren, List<String> newChildren);
+}
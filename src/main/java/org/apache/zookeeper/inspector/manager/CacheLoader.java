@@ -0,0 +1,52 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.zookeeper.inspector.manager;
+
+import org.apache.zookeeper.KeeperException;
+
+import java.util.List;
+
+/**
+ * Where a {@link ZooInspectorManagerCache} loads the children and stat of
+ * nodes from
+ */
+interface CacheLoader {
+
+  /**
+   * @return true if nodes can be loaded, i.e. the source is connected or open
+   */
+  boolean isAvailable();
+
+  /**
+   * Load paths and their descendants down to depth
+   *
+   * @param paths   - the paths to load
+   * @param depth   - the number of levels below paths to load
+   * @param handler - called with every loaded node, parents before children
+   * @throws KeeperException - if the nodes cannot be loaded
+   */
+  void traverse(List<String> paths, int depth, ZooInspectorRefreshEngine.ChildrenHandler handler)
+      throws KeeperException;
+
+  /**
+   * Called before the cached entry of path is replaced or removed
+   *
+   * @param path - the path of the node
+   */
+  void invalidate(String path);
+}
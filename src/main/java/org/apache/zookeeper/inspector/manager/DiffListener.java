@@ -0,0 +1,48 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.zookeeper.inspector.manager;
+
+import org.apache.zookeeper.data.Stat;
+
+/**
+ * Receives the differences found by a {@link ZooInspectorDiff} as they are
+ * found. Paths are relative to the compared roots, "/" being the roots
+ * themselves.
+ */
+public interface DiffListener {
+  /**
+   * @param path - the path of a node only in the right subtree. Its
+   *             descendants are not reported
+   */
+  void nodeAdded(String path);
+
+  /**
+   * @param path - the path of a node only in the left subtree. Its
+   *             descendants are not reported
+   */
+  void nodeRemoved(String path);
+
+  /**
+   * @param path        - the path of a node in both subtrees
+   * @param left        - the {@link Stat} of the node on the left
+   * @param right       - the {@link Stat} of the node on the right
+   * @param dataChanged - true if the data differs
+   * @param aclChanged  - true if the ACLs differ
+   */
+  void nodeChanged(String path, Stat left, Stat right, boolean dataChanged, boolean aclChanged);
+}
@@ -0,0 +1,230 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.zookeeper.inspector.manager;
+
+import org.apache.zookeeper.inspector.encryption.DataEncryptionManager;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PushbackReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Reads the nodes to import from JSON objects, one per line (NDJSON) or in an
+ * array, without reading the whole file:
+ * <pre>
+ * {"path": "/app/config", "data": "text"}
+ * {"path": "/app/config/key", "data64": "AAEC"}
+ * </pre>
+ * The first object is the root of the subtree and every other path must be
+ * below it, listed after its parent. Text data is encrypted with the data
+ * encryption manager like data entered in the editor, base64 data is
+ * imported as it is. Other members are ignored.
+ */
+class JsonImportSource extends ZooInspectorBulkImport.PathSource {
+
+  private final PushbackReader in;
+  private final DataEncryptionManager encryptionManager;
+  private int line = 1;
+
+  /**
+   * @param file              - the JSON or NDJSON file
+   * @param encryptionManager - encrypts text data
+   * @throws IOException - if file cannot be opened
+   */
+  JsonImportSource(File file, DataEncryptionManager encryptionManager) throws IOException {
+    this.in = new PushbackReader(new BufferedReader(new InputStreamReader(
+        new FileInputStream(file), StandardCharsets.UTF_8), 1 << 16));
+    this.encryptionManager = encryptionManager;
+  }
+
+  @Override
+  public ZooInspectorBulkImport.Record next() throws IOException {
+    int c = skipWhitespace();
+    // objects may be separated by newlines or be the elements of an array
+    while (c == '[' || c == ']' || c == ',') {
+      c = skipWhitespace();
+    }
+    if (c == -1) {
+      return null;
+    }
+    if (c != '{') {
+      throw error("expected an object");
+    }
+    String path = null;
+    byte[] data = null;
+    c = skipWhitespace();
+    while (c != '}') {
+      if (c != '"') {
+        throw error("expected a member name");
+      }
+      String key = readString();
+      if (skipWhitespace() != ':') {
+        throw error("expected ':'");
+      }
+      c = skipWhitespace();
+      if (key.equals("path") && c == '"') {
+        path = readString();
+      } else if (key.equals("data") && c == '"') {
+        data = encrypt(readString());
+      } else if (key.equals("data64") && c == '"') {
+        try {
+          data = Base64.getDecoder().decode(readString());
+        } catch (IllegalArgumentException e) {
+          throw error(e.getMessage());
+        }
+      } else {
+        skipValue(c);
+      }
+      c = skipWhitespace();
+      if (c == ',') {
+        c = skipWhitespace();
+      } else if (c != '}') {
+        throw error("expected ',' or '}'");
+      }
+    }
+    if (path == null || !path.startsWith("/")) {
+      throw error("expected an absolute path");
+    }
+    String relative = relative(path);
+    if (relative == null) {
+      throw error(path + " is not below " + getRoot());
+    }
+    return new ZooInspectorBulkImport.Record(relative, data);
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+
+  private byte[] encrypt(String data) throws IOException {
+    try {
+      return encryptionManager.encryptData(data);
+    } catch (Exception e) {
+      throw new IOException("Unable to encrypt data on line " + line, e);
+    }
+  }
+
+  private int read() throws IOException {
+    int c = in.read();
+    if (c == '\n') {
+      line++;
+    }
+    return c;
+  }
+
+  private int skipWhitespace() throws IOException {
+    int c;
+    do {
+      c = read();
+    } while (c == ' ' || c == '\t' || c == '\r' || c == '\n');
+    return c;
+  }
+
+  // reads the rest of a string after its opening quote
+  private String readString() throws IOException {
+    StringBuilder sb = new StringBuilder();
+    while (true) {
+      int c = read();
+      if (c == -1) {
+        throw error("unterminated string");
+      } else if (c == '"') {
+        return sb.toString();
+      } else if (c != '\\') {
+        sb.append((char) c);
+        continue;
+      }
+      c = read();
+      switch (c) {
+        case '"':
+        case '\\':
+        case '/':
+          sb.append((char) c);
+          break;
+        case 'b':
+          sb.append('\b');
+          break;
+        case 'f':
+          sb.append('\f');
+          break;
+        case 'n':
+          sb.append('\n');
+          break;
+        case 'r':
+          sb.append('\r');
+          break;
+        case 't':
+          sb.append('\t');
+          break;
+        case 'u':
+          int code = 0;
+          for (int i = 0; i < 4; i++) {
+            int digit = Character.digit(read(), 16);
+            if (digit < 0) {
+              throw error("invalid unicode escape");
+            }
+            code = code * 16 + digit;
+          }
+          sb.append((char) code);
+          break;
+        default:
+          throw error("invalid escape");
+      }
+    }
+  }
+
+  // skips a value starting with c
+  private void skipValue(int c) throws IOException {
+    if (c == '"') {
+      readString();
+    } else if (c == '{' || c == '[') {
+      int close = c == '{' ? '}' : ']';
+      c = skipWhitespace();
+      while (c != close) {
+        if (c == -1) {
+          throw error("unterminated " + (close == '}' ? "object" : "array"));
+        }
+        if (c != ',' && c != ':') {
+          skipValue(c);
+        }
+        c = skipWhitespace();
+      }
+    } else {
+      // a number, true, false or null
+      while (c != -1 && c != ',' && c != '}' && c != ']'
+          && c != ' ' && c != '\t' && c != '\r' && c != '\n') {
+        c = read();
+      }
+      if (c != -1) {
+        if (c == '\n') {
+          line--;
+        }
+        in.unread(c);
+      }
+    }
+  }
+
+  private IOException error(String message) {
+    return new IOException("Invalid JSON on line " + line + ": " + message);
+  }
+}
@@ -0,0 +1,860 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.zookeeper.inspector.manager;
+
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Id;
+import org.apache.zookeeper.data.Stat;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Random access to the nodes of a dump written by {@link NodeDumpWriter},
+ * read through memory mapped files so that dumps much larger than the heap
+ * open without loading them. The first time a dump is opened a sidecar index
+ * is built in one pass over it:
+ * <pre>
+ * index := "ZIDX" version:int dumpSize:long dumpModified:long nodes:int
+ *          acls:int entriesAt:long names entry* aclAt:long*
+ * entry := record:long nameAt:int nameLength:int firstChild:int children:int
+ * </pre>
+ * Entry 0 is the root, and the children of every node are consecutive
+ * entries sorted by name, so a path is found by a binary search of the
+ * children of each of its ancestors and children are listed from the index
+ * alone. Only the stat, ACLs and data of a node are read from its record in
+ * the dump, with ACL references resolved through the offsets of the ACL
+ * lists. Ancestors of the dumped subtree, and of nodes left out of it, are
+ * indexed with no record.
+ * <p>
+ * The index is reused as long as the size and modification time of the dump
+ * match. A compressed dump is inflated to a temporary file first.
+ */
+final class NodeDumpIndex implements Closeable {
+
+  static final byte[] MAGIC = {'Z', 'I', 'D', 'X'};
+  static final int VERSION = 1;
+  private static final int HEADER = 40;
+  private static final int ENTRY = 24;
+  // the dump is mapped in windows overlapping the next by OVERLAP bytes, so
+  // a record header starting in a window can be read from it alone
+  private static final long WINDOW = 1L << 30;
+  private static final int OVERLAP = 64 << 20;
+
+  private final Path path;
+  private final MappedDump dump;
+  private final ByteBuffer index;
+  private final int nodes;
+  private final int acls;
+  private final int entriesAt;
+  // set when the dump is a temporary file, deleted on close
+  private final Path inflated;
+
+  private NodeDumpIndex(Path path, MappedDump dump, ByteBuffer index, Path inflated)
+      throws IOException {
+    this.path = path;
+    this.dump = dump;
+    this.index = index;
+    this.inflated = inflated;
+    this.nodes = index.getInt(24);
+    this.acls = index.getInt(28);
+    long entries = index.getLong(32);
+    if (nodes < 1 || entries + (long) nodes * ENTRY + (long) acls * 8 > index.capacity()) {
+      throw new IOException("Corrupt node dump index");
+    }
+    this.entriesAt = (int) entries;
+  }
+
+  /**
+   * Open a dump, building its index next to it, or in the temporary
+   * directory if that is not writable
+   *
+   * @param dumpFile - the dump file, optionally gzip compressed
+   * @return the index of the dump
+   * @throws IOException - if the file is not a dump or cannot be indexed
+   */
+  static NodeDumpIndex open(Path dumpFile) throws IOException {
+    Path file = dumpFile.toAbsolutePath();
+    Path inflated = null;
+    Path source = file;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      if (NodeDumpReader.isCompressed(channel)) {
+        inflated = Files.createTempFile("zooinspector-", ".dump");
+        try (InputStream in = new GZIPInputStream(Channels.newInputStream(channel), 1 << 16)) {
+          Files.copy(in, inflated, StandardCopyOption.REPLACE_EXISTING);
+        }
+        source = inflated;
+      }
+    } catch (IOException | RuntimeException e) {
+      if (inflated != null) {
+        Files.deleteIfExists(inflated);
+      }
+      throw e;
+    }
+    return open(file, source, inflated);
+  }
+
+  /**
+   * Open a temporary dump, deleted with its index when closed
+   *
+   * @param dumpFile - the uncompressed dump file
+   * @return the index of the dump
+   * @throws IOException - if the file is not a dump or cannot be indexed
+   */
+  static NodeDumpIndex openTemporary(Path dumpFile) throws IOException {
+    Path file = dumpFile.toAbsolutePath();
+    return open(file, file, file);
+  }
+
+  private static NodeDumpIndex open(Path file, Path source, Path inflated) throws IOException {
+    MappedDump dump = null;
+    try {
+      dump = new MappedDump(source);
+      long modified = Files.getLastModifiedTime(source).toMillis();
+      Path indexFile = inflated != null ? Paths.get(inflated + ".idx")
+          : file.resolveSibling(file.getFileName() + ".idx");
+      if (!isCurrent(indexFile, dump.size, modified)) {
+        try {
+          build(dump, modified, indexFile);
+        } catch (IOException e) {
+          if (inflated != null || Files.isWritable(indexFile.getParent())) {
+            throw e;
+          }
+          indexFile = Paths.get(System.getProperty("java.io.tmpdir"),
+              "zooinspector-" + Integer.toHexString(file.hashCode())
+                  + "-" + file.getFileName() + ".idx");
+          if (!isCurrent(indexFile, dump.size, modified)) {
+            build(dump, modified, indexFile);
+          }
+        }
+      }
+      ByteBuffer index;
+      try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+        if (channel.size() > Integer.MAX_VALUE) {
+          throw new IOException("Node dump index too large: " + indexFile);
+        }
+        index = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      }
+      if (inflated != null) {
+        // the mapping stays valid once the file is gone
+        Files.deleteIfExists(indexFile);
+      }
+      return new NodeDumpIndex(file, dump, index, inflated);
+    } catch (IOException | RuntimeException e) {
+      if (dump != null) {
+        dump.close();
+      }
+      if (inflated != null) {
+        Files.deleteIfExists(inflated);
+      }
+      throw e;
+    }
+  }
+
+  private static boolean isCurrent(Path indexFile, long size, long modified) {
+    if (!Files.isRegularFile(indexFile)) {
+      return false;
+    }
+    try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER);
+      while (header.hasRemaining() && channel.read(header) != -1) {
+        // read the whole header
+      }
+      if (header.hasRemaining()) {
+        return false;
+      }
+      byte[] magic = new byte[MAGIC.length];
+      header.flip();
+      header.get(magic);
+      return Arrays.equals(magic, MAGIC) && header.getInt() == VERSION
+          && header.getLong() == size && header.getLong() == modified;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  private static void build(MappedDump dump, long modified, Path indexFile) throws IOException {
+    Path tmp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+    try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      Builder builder = new Builder(out);
+      ByteBuffer head = dump.at(0);
+      byte[] magic = new byte[NodeDumpWriter.MAGIC.length];
+      head.get(magic);
+      if (!Arrays.equals(magic, NodeDumpWriter.MAGIC)) {
+        throw new IOException("Not a node dump");
+      }
+      int version = head.get();
+      if (version != NodeDumpWriter.VERSION) {
+        throw new IOException("Unsupported node dump version: " + version);
+      }
+      long pos = NodeDumpWriter.MAGIC.length + 1;
+      long records = 0;
+      String previous = "";
+      try {
+        while (true) {
+          ByteBuffer r = dump.at(pos);
+          int base = r.position();
+          int tag = r.get();
+          if (tag == NodeDumpWriter.END) {
+            long expected = getVarlong(r);
+            if (expected != records) {
+              throw new IOException("Node dump ended after " + records + " of " + expected
+                  + " nodes");
+            }
+            break;
+          }
+          if (tag != NodeDumpWriter.NODE) {
+            throw new IOException("Corrupt node dump after " + records + " nodes");
+          }
+          int shared = getVarint(r);
+          if (shared < 0 || shared > previous.length()) {
+            throw new IOException("Corrupt node dump after " + records + " nodes");
+          }
+          String path = previous.substring(0, shared) + getString(r);
+          previous = path;
+          // czxid mzxid ctime mtime pzxid ephemeralOwner version cversion
+          // aversion numChildren
+          for (int i = 0; i < 10; i++) {
+            getVarlong(r);
+          }
+          int acl = getVarint(r);
+          if (acl == 0) {
+            builder.addAcl(pos + r.position() - base);
+            getAcl(r);
+          } else if (acl < 0 || acl > builder.acls) {
+            throw new IOException("Corrupt node dump after " + records + " nodes");
+          }
+          long length = getVarlong(r);
+          if (length < 0) {
+            throw new IOException("Corrupt node dump after " + records + " nodes");
+          }
+          builder.add(path, pos);
+          pos += r.position() - base + Math.max(0, length - 1);
+          records++;
+        }
+      } catch (BufferUnderflowException e) {
+        throw new EOFException("Node dump truncated after " + records + " nodes");
+      }
+      builder.finish(dump.size, modified);
+    } catch (IOException | RuntimeException e) {
+      Files.deleteIfExists(tmp);
+      throw e;
+    }
+    Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * @return the dump file this index was opened from
+   */
+  Path getPath() {
+    return path;
+  }
+
+  /**
+   * @return the number of indexed nodes, including the root and the
+   * ancestors of the dumped subtree
+   */
+  int getNodeCount() {
+    return nodes;
+  }
+
+  /**
+   * @param nodePath - the path of a node
+   * @return the id of the node, or -1 if it is not in the dump
+   */
+  int find(String nodePath) {
+    if (nodePath.isEmpty() || nodePath.equals("/")) {
+      return 0;
+    }
+    if (nodePath.charAt(0) != '/') {
+      return -1;
+    }
+    int node = 0;
+    int from = 1;
+    while (node >= 0) {
+      int slash = nodePath.indexOf('/', from);
+      String name = slash < 0 ? nodePath.substring(from) : nodePath.substring(from, slash);
+      node = findChild(node, name.getBytes(StandardCharsets.UTF_8));
+      if (slash < 0) {
+        break;
+      }
+      from = slash + 1;
+    }
+    return node;
+  }
+
+  private int findChild(int node, byte[] name) {
+    int first = index.getInt(entry(node) + 16);
+    int low = 0;
+    int high = getChildCount(node) - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int cmp = compareName(first + mid, name);
+      if (cmp < 0) {
+        low = mid + 1;
+      } else if (cmp > 0) {
+        high = mid - 1;
+      } else {
+        return first + mid;
+      }
+    }
+    return -1;
+  }
+
+  // compares the name of node with name as unsigned bytes, which for the
+  // characters allowed in znode names is the order of String.compareTo
+  private int compareName(int node, byte[] name) {
+    int e = entry(node);
+    int at = namePos(index.getInt(e + 8));
+    int length = index.getInt(e + 12);
+    int n = Math.min(length, name.length);
+    for (int i = 0; i < n; i++) {
+      int cmp = (index.get(at + i) & 0xFF) - (name[i] & 0xFF);
+      if (cmp != 0) {
+        return cmp;
+      }
+    }
+    return length - name.length;
+  }
+
+  /**
+   * @param node - the id of a node
+   * @return the number of children of the node
+   */
+  int getChildCount(int node) {
+    return index.getInt(entry(node) + 20);
+  }
+
+  /**
+   * @param node - the id of a node
+   * @return the sorted names of the children, read from the index as they
+   * are asked for
+   */
+  List<String> getChildren(int node) {
+    return new ChildList(index.getInt(entry(node) + 16), getChildCount(node));
+  }
+
+  /**
+   * @param node - the id of a node
+   * @return the id of the first child, the others following it by name
+   */
+  int getFirstChild(int node) {
+    return index.getInt(entry(node) + 16);
+  }
+
+  /**
+   * @param node - the id of a node
+   * @return the name of the node, empty for the root
+   */
+  String getName(int node) {
+    int e = entry(node);
+    byte[] name = new byte[index.getInt(e + 12)];
+    ByteBuffer b = index.duplicate();
+    b.position(namePos(index.getInt(e + 8)));
+    b.get(name);
+    return new String(name, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Read the record of a node from the dump. The data is the only part of
+   * the node copied to the heap
+   *
+   * @param node     - the id of a node
+   * @param nodePath - the path of the node
+   * @return the data, stat, ACLs and children of the node
+   * @throws IOException - if the record cannot be read
+   */
+  NodeSnapshot read(int node, String nodePath) throws IOException {
+    return read(node, nodePath, true);
+  }
+
+  /**
+   * @param node - the id of a node
+   * @return the {@link Stat} of the node, without copying its data
+   * @throws IOException - if the record cannot be read
+   */
+  Stat getStat(int node) throws IOException {
+    return read(node, null, false).getStat();
+  }
+
+  private NodeSnapshot read(int node, String nodePath, boolean withData) throws IOException {
+    long record = index.getLong(entry(node));
+    List<String> children = getChildren(node);
+    Stat stat = new Stat();
+    if (record < 0) {
+      // an ancestor of the dumped subtree
+      stat.setNumChildren(children.size());
+      return new NodeSnapshot(nodePath, null, stat, null, children);
+    }
+    try {
+      ByteBuffer r = dump.at(record);
+      int base = r.position();
+      r.get();
+      getVarint(r);
+      int suffix = getVarint(r);
+      r.position(r.position() + suffix);
+      stat.setCzxid(getVarlong(r));
+      stat.setMzxid(getVarlong(r));
+      stat.setCtime(getVarlong(r));
+      stat.setMtime(getVarlong(r));
+      stat.setPzxid(getVarlong(r));
+      stat.setEphemeralOwner(getVarlong(r));
+      stat.setVersion(getVarint(r));
+      stat.setCversion(getVarint(r));
+      stat.setAversion(getVarint(r));
+      stat.setNumChildren(getVarint(r));
+      List<ACL> acl;
+      int ref = getVarint(r);
+      if (ref == 0) {
+        acl = getAcl(r);
+      } else if (ref <= acls) {
+        acl = getAcl(dump.at(index.getLong(entriesAt + nodes * ENTRY + (ref - 1) * 8)));
+      } else {
+        throw new IOException("Corrupt node dump at offset " + record);
+      }
+      byte[] data = null;
+      int length = getVarint(r);
+      if (length > 0 && withData) {
+        data = new byte[length - 1];
+        dump.read(record + r.position() - base, data);
+      }
+      stat.setDataLength(Math.max(0, length - 1));
+      return new NodeSnapshot(nodePath, data, stat, acl, children);
+    } catch (BufferUnderflowException e) {
+      throw new EOFException("Node dump truncated at offset " + record);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      dump.close();
+    } finally {
+      if (inflated != null) {
+        Files.deleteIfExists(inflated);
+      }
+    }
+  }
+
+  private int entry(int node) {
+    return entriesAt + node * ENTRY;
+  }
+
+  private static int namePos(int nameAt) {
+    return HEADER + nameAt;
+  }
+
+  private static List<ACL> getAcl(ByteBuffer b) throws IOException {
+    int n = getVarint(b);
+    if (n < 0) {
+      throw new IOException("Corrupt node dump ACL");
+    }
+    List<ACL> acl = new ArrayList<>(n);
+    for (int i = 0; i < n; i++) {
+      int perms = getVarint(b);
+      String scheme = getString(b);
+      acl.add(new ACL(perms, new Id(scheme, getString(b))));
+    }
+    return Collections.unmodifiableList(acl);
+  }
+
+  private static String getString(ByteBuffer b) throws IOException {
+    int n = getVarint(b);
+    if (n < 0) {
+      throw new IOException("Corrupt node dump string");
+    }
+    byte[] bytes = new byte[n];
+    b.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static int getVarint(ByteBuffer b) throws IOException {
+    return (int) getVarlong(b);
+  }
+
+  private static long getVarlong(ByteBuffer b) throws IOException {
+    long v = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      byte x = b.get();
+      v |= (long) (x & 0x7F) << shift;
+      if (x >= 0) {
+        return (v >>> 1) ^ -(v & 1);
+      }
+    }
+    throw new IOException("Corrupt node dump varint");
+  }
+
+  /**
+   * The dump file mapped in overlapping windows
+   */
+  private static final class MappedDump implements Closeable {
+    final FileChannel channel;
+    final long size;
+    final ByteBuffer[] windows;
+
+    MappedDump(Path file) throws IOException {
+      this.channel = FileChannel.open(file, StandardOpenOption.READ);
+      try {
+        this.size = channel.size();
+        if (size < NodeDumpWriter.MAGIC.length + 1) {
+          throw new IOException("Not a node dump");
+        }
+        this.windows = new ByteBuffer[(int) ((size + WINDOW - 1) / WINDOW)];
+        for (int i = 0; i < windows.length; i++) {
+          long start = i * WINDOW;
+          windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+              Math.min(size - start, WINDOW + OVERLAP));
+        }
+      } catch (IOException | RuntimeException e) {
+        channel.close();
+        throw e;
+      }
+    }
+
+    /**
+     * @return a buffer positioned at pos, with at least OVERLAP bytes
+     * readable unless the dump ends before
+     */
+    ByteBuffer at(long pos) throws IOException {
+      if (pos < 0 || pos >= size) {
+        throw new EOFException("Node dump truncated at offset " + pos);
+      }
+      int w = (int) (pos / WINDOW);
+      ByteBuffer b = windows[w].duplicate();
+      b.position((int) (pos - w * WINDOW));
+      return b;
+    }
+
+    /**
+     * Copy the bytes at pos into dst, from the mapping if they are in one
+     * window and else from the channel
+     */
+    void read(long pos, byte[] dst) throws IOException {
+      if (pos + dst.length > size) {
+        throw new EOFException("Node dump truncated at offset " + pos);
+      }
+      ByteBuffer b = at(pos);
+      if (b.remaining() >= dst.length) {
+        b.get(dst);
+        return;
+      }
+      ByteBuffer to = ByteBuffer.wrap(dst);
+      while (to.hasRemaining()) {
+        if (channel.read(to, pos + to.position()) == -1) {
+          throw new EOFException("Node dump truncated at offset " + pos);
+        }
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      channel.close();
+    }
+  }
+
+  /**
+   * Collects the entries of the index while the dump is read. The parent of
+   * a node is found through a table of path hashes to ids, checked against
+   * the names of the node and its ancestors, so no path is kept as a String
+   */
+  private static final class Builder {
+    final FileChannel out;
+    byte[] names = new byte[1 << 16];
+    int namesLength;
+    long[] records = new long[1024];
+    int[] parents = new int[1024];
+    int[] nameAt = new int[1024];
+    int[] nameLength = new int[1024];
+    int[] hashes = new int[1024];
+    // open addressing table of ids by path hash, 0 being free as the root
+    // is never put into it
+    int[] table = new int[2048];
+    int count = 1;
+    long[] aclAt = new long[16];
+    int acls;
+
+    Builder(FileChannel out) {
+      this.out = out;
+      records[0] = -1;
+      parents[0] = -1;
+    }
+
+    void addAcl(long pos) {
+      if (acls == aclAt.length) {
+        aclAt = Arrays.copyOf(aclAt, acls * 2);
+      }
+      aclAt[acls++] = pos;
+    }
+
+    void add(String path, long record) throws IOException {
+      int id = find(path);
+      if (id < 0) {
+        String parent = ZooInspectorRefreshEngine.parentOf(path);
+        if (parent == null) {
+          throw new IOException("Invalid path in node dump: " + path);
+        }
+        addEntry(path, record, parentOf(parent));
+      } else if (records[id] < 0) {
+        // added before as the ancestor of a node
+        records[id] = record;
+      } else {
+        throw new IOException("Duplicate node in node dump: " + path);
+      }
+    }
+
+    // the id of path, adding it and its ancestors if they were not added
+    private int parentOf(String path) throws IOException {
+      int id = find(path);
+      if (id >= 0) {
+        return id;
+      }
+      return addEntry(path, -1, parentOf(ZooInspectorRefreshEngine.parentOf(path)));
+    }
+
+    private int find(String path) {
+      if (path.equals("/")) {
+        return 0;
+      }
+      byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+      int hash = path.hashCode();
+      int mask = table.length - 1;
+      for (int i = mix(hash) & mask; table[i] != 0; i = (i + 1) & mask) {
+        int id = table[i];
+        if (hashes[id] == hash && matches(id, bytes)) {
+          return id;
+        }
+      }
+      return -1;
+    }
+
+    // compares the names of id and its ancestors with the segments of path
+    private boolean matches(int id, byte[] path) {
+      int end = path.length;
+      while (id != 0) {
+        int length = nameLength[id];
+        int from = end - length;
+        if (from < 1 || path[from - 1] != '/') {
+          return false;
+        }
+        int at = nameAt[id];
+        for (int i = 0; i < length; i++) {
+          if (names[at + i] != path[from + i]) {
+            return false;
+          }
+        }
+        end = from - 1;
+        id = parents[id];
+      }
+      return end == 0;
+    }
+
+    private static int mix(int hash) {
+      int h = hash * 0x9E3779B9;
+      return h ^ (h >>> 16);
+    }
+
+    private int addEntry(String path, long record, int parent) throws IOException {
+      if (count == records.length) {
+        int n = count * 2;
+        records = Arrays.copyOf(records, n);
+        parents = Arrays.copyOf(parents, n);
+        nameAt = Arrays.copyOf(nameAt, n);
+        nameLength = Arrays.copyOf(nameLength, n);
+        hashes = Arrays.copyOf(hashes, n);
+      }
+      byte[] name = path.substring(path.lastIndexOf('/') + 1).getBytes(StandardCharsets.UTF_8);
+      if ((long) namesLength + name.length > Integer.MAX_VALUE / 2
+          || count == Integer.MAX_VALUE / ENTRY) {
+        throw new IOException("Too many nodes to index");
+      }
+      if (namesLength + name.length > names.length) {
+        names = Arrays.copyOf(names, Math.max(names.length * 2, namesLength + name.length));
+      }
+      int id = count++;
+      records[id] = record;
+      parents[id] = parent;
+      nameAt[id] = namesLength;
+      nameLength[id] = name.length;
+      hashes[id] = path.hashCode();
+      System.arraycopy(name, 0, names, namesLength, name.length);
+      namesLength += name.length;
+      if (count * 2 > table.length) {
+        int[] larger = new int[table.length * 2];
+        for (int i = 1; i < id; i++) {
+          put(larger, i);
+        }
+        table = larger;
+      }
+      put(table, id);
+      return id;
+    }
+
+    private void put(int[] table, int id) {
+      int mask = table.length - 1;
+      int i = mix(hashes[id]) & mask;
+      while (table[i] != 0) {
+        i = (i + 1) & mask;
+      }
+      table[i] = id;
+    }
+
+    private void write(ByteBuffer b, long pos) throws IOException {
+      while (b.hasRemaining()) {
+        pos += out.write(b, pos);
+      }
+    }
+
+    void finish(long size, long modified) throws IOException {
+      table = null;
+      hashes = null;
+      long entriesAt = (HEADER + namesLength + 7) & ~7L;
+      if (entriesAt + (long) count * ENTRY + (long) acls * 8 > Integer.MAX_VALUE) {
+        throw new IOException("Too many nodes to index");
+      }
+      write(ByteBuffer.wrap(names, 0, namesLength), HEADER);
+
+      // group the children of every node, start[n] being the first of node n
+      int[] start = new int[count + 1];
+      for (int i = 1; i < count; i++) {
+        start[parents[i] + 1]++;
+      }
+      for (int i = 0; i < count; i++) {
+        start[i + 1] += start[i];
+      }
+      int[] kids = new int[count];
+      int[] fill = Arrays.copyOf(start, count);
+      for (int i = 1; i < count; i++) {
+        kids[fill[parents[i]]++] = i;
+      }
+
+      // number the nodes breadth first with the children sorted by name
+      int[] order = new int[count];
+      int[] firstChild = new int[count];
+      int next = 1;
+      for (int k = 0; k < count; k++) {
+        int node = order[k];
+        int from = start[node];
+        int to = start[node + 1];
+        if (to - from > 1) {
+          Integer[] sorted = new Integer[to - from];
+          for (int i = from; i < to; i++) {
+            sorted[i - from] = kids[i];
+          }
+          Arrays.sort(sorted, this::compare);
+          for (int i = from; i < to; i++) {
+            kids[i] = sorted[i - from];
+          }
+        }
+        firstChild[node] = next;
+        for (int i = from; i < to; i++) {
+          order[next++] = kids[i];
+        }
+      }
+
+      ByteBuffer b = ByteBuffer.allocate(1 << 16);
+      long pos = entriesAt;
+      for (int k = 0; k < count; k++) {
+        if (b.remaining() < ENTRY) {
+          b.flip();
+          write(b, pos - b.remaining());
+          b.clear();
+        }
+        int node = order[k];
+        b.putLong(records[node]).putInt(nameAt[node]).putInt(nameLength[node])
+            .putInt(firstChild[node]).putInt(start[node + 1] - start[node]);
+        pos += ENTRY;
+      }
+      for (int i = 0; i < acls; i++) {
+        if (b.remaining() < 8) {
+          b.flip();
+          write(b, pos - b.remaining());
+          b.clear();
+        }
+        b.putLong(aclAt[i]);
+        pos += 8;
+      }
+      b.flip();
+      write(b, pos - b.remaining());
+
+      // the header goes last, an interrupted build leaves no valid index
+      ByteBuffer header = ByteBuffer.allocate(HEADER);
+      header.put(MAGIC).putInt(VERSION).putLong(size).putLong(modified).putInt(count)
+          .putInt(acls).putLong(entriesAt);
+      header.flip();
+      write(header, 0);
+    }
+
+    // compares the names of two nodes as unsigned bytes
+    private int compare(int a, int b) {
+      int n = Math.min(nameLength[a], nameLength[b]);
+      for (int i = 0; i < n; i++) {
+        int cmp = (names[nameAt[a] + i] & 0xFF) - (names[nameAt[b] + i] & 0xFF);
+        if (cmp != 0) {
+          return cmp;
+        }
+      }
+      return nameLength[a] - nameLength[b];
+    }
+  }
+
+  /**
+   * A read-only view of the names of consecutive child entries
+   */
+  private final class ChildList extends AbstractList<String> implements RandomAccess {
+    private final int first;
+    private final int size;
+
+    ChildList(int first, int size) {
+      this.first = first;
+      this.size = size;
+    }
+
+    @Override
+    public String get(int i) {
+      if (i < 0 || i >= size) {
+        throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+      }
+      return getName(first + i);
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+  }
+}
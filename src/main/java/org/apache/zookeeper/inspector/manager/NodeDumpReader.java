@@ -0,0 +1,253 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.zookeeper.inspector.manager;
+
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Id;
+import org.apache.zookeeper.data.Stat;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads the nodes of a dump written by {@link NodeDumpWriter}, one record
+ * after the other
+ */
+final class NodeDumpReader implements Closeable {
+
+  private final ReadableByteChannel channel;
+  private ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+  private final List<List<ACL>> acls = new ArrayList<>();
+  private String previous = "";
+  private long count;
+  private boolean ended;
+
+  /**
+   * @param channel - the channel to read from, closed with this reader
+   * @throws IOException - if the channel does not start with a dump header
+   */
+  NodeDumpReader(ReadableByteChannel channel) throws IOException {
+    this.channel = channel;
+    buffer.flip();
+    require(NodeDumpWriter.MAGIC.length + 1);
+    byte[] magic = new byte[NodeDumpWriter.MAGIC.length];
+    buffer.get(magic);
+    if (!Arrays.equals(magic, NodeDumpWriter.MAGIC)) {
+      throw new IOException("Not a node dump");
+    }
+    int version = buffer.get();
+    if (version != NodeDumpWriter.VERSION) {
+      throw new IOException("Unsupported node dump version: " + version);
+    }
+  }
+
+  /**
+   * @param file - the dump file, optionally gzip compressed
+   * @return a reader of the file
+   * @throws IOException - if the file cannot be opened or is not a dump
+   */
+  static NodeDumpReader open(Path file) throws IOException {
+    FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+    try {
+      if (isCompressed(channel)) {
+        InputStream in = new GZIPInputStream(Channels.newInputStream(channel), 1 << 16);
+        return new NodeDumpReader(Channels.newChannel(in));
+      }
+      return new NodeDumpReader(channel);
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * @param file - the file to check
+   * @return true if the file starts like a dump, compressed or not
+   * @throws IOException - if the file cannot be read
+   */
+  static boolean isDump(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      if (isCompressed(channel)) {
+        return true;
+      }
+      ByteBuffer head = ByteBuffer.allocate(NodeDumpWriter.MAGIC.length);
+      while (head.hasRemaining() && channel.read(head) != -1) {
+        // read the whole magic
+      }
+      return Arrays.equals(head.array(), NodeDumpWriter.MAGIC);
+    }
+  }
+
+  // checks for the gzip magic, leaving the channel at the start
+  static boolean isCompressed(FileChannel channel) throws IOException {
+    ByteBuffer head = ByteBuffer.allocate(2);
+    channel.read(head, 0);
+    return head.position() == 2 && (head.get(0) & 0xFF) == 0x1F && (head.get(1) & 0xFF) == 0x8B;
+  }
+
+  /**
+   * @return the next node, with no children names, or null at the end
+   * @throws IOException - if the dump cannot be read or is truncated
+   */
+  NodeSnapshot next() throws IOException {
+    if (ended) {
+      return null;
+    }
+    require(1);
+    int tag = buffer.get();
+    if (tag == NodeDumpWriter.END) {
+      long expected = getVarlong();
+      if (expected != count) {
+        throw new IOException("Node dump ended after " + count + " of " + expected + " nodes");
+      }
+      ended = true;
+      return null;
+    }
+    if (tag != NodeDumpWriter.NODE) {
+      throw new IOException("Corrupt node dump after " + count + " nodes");
+    }
+    int shared = getVarint();
+    if (shared < 0 || shared > previous.length()) {
+      throw new IOException("Corrupt node dump after " + count + " nodes");
+    }
+    String path = previous.substring(0, shared) + getString();
+    previous = path;
+
+    Stat stat = new Stat();
+    stat.setCzxid(getVarlong());
+    stat.setMzxid(getVarlong());
+    stat.setCtime(getVarlong());
+    stat.setMtime(getVarlong());
+    stat.setPzxid(getVarlong());
+    stat.setEphemeralOwner(getVarlong());
+    stat.setVersion(getVarint());
+    stat.setCversion(getVarint());
+    stat.setAversion(getVarint());
+    stat.setNumChildren(getVarint());
+
+    List<ACL> acl;
+    int index = getVarint();
+    if (index == 0) {
+      int n = getVarint();
+      acl = new ArrayList<>(n);
+      for (int i = 0; i < n; i++) {
+        int perms = getVarint();
+        String scheme = getString();
+        acl.add(new ACL(perms, new Id(scheme, getString())));
+      }
+      acl = Collections.unmodifiableList(acl);
+      acls.add(acl);
+    } else if (index <= acls.size()) {
+      acl = acls.get(index - 1);
+    } else {
+      throw new IOException("Corrupt node dump after " + count + " nodes");
+    }
+
+    byte[] data = null;
+    int length = getVarint();
+    if (length > 0) {
+      data = getBytes(length - 1);
+    }
+    stat.setDataLength(data == null ? 0 : data.length);
+    count++;
+    return new NodeSnapshot(path, data, stat, acl, null);
+  }
+
+  /**
+   * @return the number of nodes read
+   */
+  long getCount() {
+    return count;
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  // make n bytes readable, failing at the end of the channel
+  private void require(int n) throws IOException {
+    if (buffer.remaining() >= n) {
+      return;
+    }
+    if (buffer.capacity() < n) {
+      ByteBuffer larger = ByteBuffer.allocate(Integer.highestOneBit(n) << 1);
+      larger.put(buffer);
+      buffer = larger;
+    } else {
+      buffer.compact();
+    }
+    while (buffer.position() < n) {
+      if (channel.read(buffer) == -1) {
+        throw new EOFException("Node dump truncated after " + count + " nodes");
+      }
+    }
+    buffer.flip();
+  }
+
+  private byte[] getBytes(int n) throws IOException {
+    if (n < 0) {
+      throw new IOException("Corrupt node dump after " + count + " nodes");
+    }
+    byte[] bytes = new byte[n];
+    int off = Math.min(n, buffer.remaining());
+    buffer.get(bytes, 0, off);
+    while (off < n) {
+      require(1);
+      int len = Math.min(n - off, buffer.remaining());
+      buffer.get(bytes, off, len);
+      off += len;
+    }
+    return bytes;
+  }
+
+  private String getString() throws IOException {
+    return new String(getBytes(getVarint()), StandardCharsets.UTF_8);
+  }
+
+  private int getVarint() throws IOException {
+    return (int) getVarlong();
+  }
+
+  private long getVarlong() throws IOException {
+    long v = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      require(1);
+      byte b = buffer.get();
+      v |= (long) (b & 0x7F) << shift;
+      if (b >= 0) {
+        return (v >>> 1) ^ -(v & 1);
+      }
+    }
+    throw new IOException("Corrupt node dump after " + count + " nodes");
+  }
+}
@@ -0,0 +1,235 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.zookeeper.inspector.manager;
+
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Stat;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes nodes to a dump file, one record after the other, so a subtree of
+ * any size can be written without holding it in memory. The format is
+ * <pre>
+ * dump   := "ZIDP" version:byte record* 0:byte count:varlong
+ * record := 1:byte shared:varint suffix:string stat acl data
+ * stat   := czxid mzxid ctime mtime pzxid ephemeralOwner:varlong
+ *           version cversion aversion numChildren:varint
+ * acl    := 0:varint count:varint (perms:varint scheme:string id:string)*
+ *         | index+1:varint
+ * data   := 0:varint | length+1:varint bytes
+ * string := length:varint utf-8 bytes
+ * </pre>
+ * The path of a record is the first {@code shared} characters of the path of
+ * the previous record followed by {@code suffix}, and an ACL list seen before
+ * is written as its index. Varints are zigzag encoded LEB128. The whole file
+ * may be gzip compressed.
+ */
+final class NodeDumpWriter implements Closeable {
+
+  static final byte[] MAGIC = {'Z', 'I', 'D', 'P'};
+  static final int VERSION = 1;
+  static final int END = 0;
+  static final int NODE = 1;
+
+  private final WritableByteChannel channel;
+  private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+  private final Map<List<ACL>, Integer> acls = new HashMap<>();
+  private String previous = "";
+  private long count;
+  private boolean finished;
+
+  /**
+   * @param channel - the channel to write to, closed with this writer
+   * @throws IOException - if the header cannot be written
+   */
+  NodeDumpWriter(WritableByteChannel channel) throws IOException {
+    this.channel = channel;
+    buffer.put(MAGIC).put((byte) VERSION);
+  }
+
+  /**
+   * @param file     - the file to create or overwrite
+   * @param compress - true to gzip the file
+   * @return a writer to the file
+   * @throws IOException - if the file cannot be created
+   */
+  static NodeDumpWriter create(Path file, boolean compress) throws IOException {
+    FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    if (!compress) {
+      return new NodeDumpWriter(channel);
+    }
+    return new NodeDumpWriter(Channels.newChannel(
+        new GZIPOutputStream(Channels.newOutputStream(channel), 1 << 16)));
+  }
+
+  /**
+   * @param node - the node to append
+   * @throws IOException - if the node cannot be written
+   */
+  void write(NodeSnapshot node) throws IOException {
+    String path = node.getPath();
+    int shared = 0;
+    int max = Math.min(path.length(), previous.length());
+    while (shared < max && path.charAt(shared) == previous.charAt(shared)) {
+      shared++;
+    }
+    previous = path;
+    ensure(1 + 5);
+    buffer.put((byte) NODE);
+    putVarint(shared);
+    putString(path.substring(shared));
+
+    Stat stat = node.getStat();
+    ensure(6 * 10 + 4 * 5);
+    putVarlong(stat.getCzxid());
+    putVarlong(stat.getMzxid());
+    putVarlong(stat.getCtime());
+    putVarlong(stat.getMtime());
+    putVarlong(stat.getPzxid());
+    putVarlong(stat.getEphemeralOwner());
+    putVarint(stat.getVersion());
+    putVarint(stat.getCversion());
+    putVarint(stat.getAversion());
+    putVarint(stat.getNumChildren());
+
+    List<ACL> acl = node.getACLs();
+    Integer index = acls.get(acl);
+    ensure(2 * 5);
+    if (index != null) {
+      putVarint(index + 1);
+    } else {
+      acls.put(acl, acls.size());
+      putVarint(0);
+      putVarint(acl.size());
+      for (ACL a : acl) {
+        ensure(5);
+        putVarint(a.getPerms());
+        putString(a.getId().getScheme());
+        putString(a.getId().getId());
+      }
+    }
+
+    byte[] data = node.getData();
+    if (data == null) {
+      ensure(5);
+      putVarint(0);
+    } else {
+      ensure(5);
+      putVarint(data.length + 1);
+      putBytes(data);
+    }
+    count++;
+  }
+
+  /**
+   * @return the number of nodes written
+   */
+  long getCount() {
+    return count;
+  }
+
+  /**
+   * Mark the dump as complete. A dump closed without finishing it is
+   * reported as truncated when read
+   *
+   * @throws IOException - if the end cannot be written
+   */
+  void finish() throws IOException {
+    ensure(1 + 10);
+    buffer.put((byte) END);
+    putVarlong(count);
+    finished = true;
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      if (finished) {
+        flush();
+      }
+    } finally {
+      channel.close();
+    }
+  }
+
+  // make room for n more bytes, n being at most the buffer capacity
+  private void ensure(int n) throws IOException {
+    if (buffer.remaining() < n) {
+      flush();
+    }
+  }
+
+  private void flush() throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  private void putBytes(byte[] bytes) throws IOException {
+    if (bytes.length <= buffer.remaining()) {
+      buffer.put(bytes);
+      return;
+    }
+    flush();
+    if (bytes.length <= buffer.capacity()) {
+      buffer.put(bytes);
+      return;
+    }
+    // larger than the buffer, write it directly
+    ByteBuffer direct = ByteBuffer.wrap(bytes);
+    while (direct.hasRemaining()) {
+      channel.write(direct);
+    }
+  }
+
+  private void putString(String s) throws IOException {
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    ensure(5);
+    putVarint(bytes.length);
+    putBytes(bytes);
+  }
+
+  private void putVarint(int value) {
+    putVarlong(value);
+  }
+
+  private void putVarlong(long value) {
+    long v = (value << 1) ^ (value >> 63);
+    while ((v & ~0x7FL) != 0) {
+      buffer.put((byte) ((v & 0x7F) | 0x80));
+      v >>>= 7;
+    }
+    buffer.put((byte) v);
+  }
+}
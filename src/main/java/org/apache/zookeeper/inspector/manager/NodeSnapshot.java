@@ -0,0 +1,77 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.zookeeper.inspector.manager;
+
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Stat;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The data, {@link Stat}, ACLs and children of a single node, read together
+ * so that all node viewers of a selection are served by one fetch
+ */
+public class NodeSnapshot {
+  private final String path;
+  private final byte[] data;
+  private final Stat stat;
+  private final List<ACL> acls;
+  private final List<String> children;
+
+  /**
+   * @param path     - the path to the node
+   * @param data     - the raw (encrypted) data of the node
+   * @param stat     - the {@link Stat} of the node
+   * @param acls     - the ACLs set on the node
+   * @param children - the names of the children of the node
+   */
+  public NodeSnapshot(String path, byte[] data, Stat stat, List<ACL> acls,
+                      List<String> children) {
+    this.path = path;
+    this.data = data;
+    this.stat = stat;
+    this.acls = acls == null ? Collections.<ACL>emptyList() : Collections.unmodifiableList(acls);
+    this.children = children == null ? Collections.<String>emptyList()
+        : Collections.unmodifiableList(children);
+  }
+
+  public String getPath() {
+    return path;
+  }
+
+  /**
+   * @return the raw data of the node, as stored in zookeeper. Callers must not
+   * modify the returned array
+   */
+  public byte[] getData() {
+    return data;
+  }
+
+  public Stat getStat() {
+    return stat;
+  }
+
+  public List<ACL> getACLs() {
+    return acls;
+  }
+
+  public List<String> getChildren() {
+    return children;
+  }
+}
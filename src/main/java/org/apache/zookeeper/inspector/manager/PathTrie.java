@@ -0,0 +1,519 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.zookeeper.inspector.manager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * A map from znode paths to values, stored as a tree of path segments. Each
+ * node only holds its own segment, interned in a {@link SegmentTable}, so the
+ * path prefixes shared by siblings are stored once, and subtree removal or
+ * enumeration only touches the subtree. Removed nodes release their segments.
+ * <p>
+ * Lookups walk the path in place and do not allocate. Reads are lock free;
+ * writes lock the trie node whose children change. A node detached from the
+ * trie is marked removed under its lock, and writes reaching it start over
+ * from the root.
+ *
+ * @param <V> the type of the values
+ */
+class PathTrie<V> {
+
+  private final Node<V> root = new Node<>("", null);
+  private final AtomicInteger size = new AtomicInteger();
+  private final AtomicLong weight = new AtomicLong();
+  private final SegmentTable segments;
+  private final ToIntFunction<V> weigher;
+  private final Consumer<V> released;
+
+  /**
+   * @param segments - the table interning the segments of the trie nodes
+   * @param weigher  - estimates the number of bytes a value and its trie node take
+   */
+  PathTrie(SegmentTable segments, ToIntFunction<V> weigher) {
+    this(segments, weigher, value -> {
+    });
+  }
+
+  /**
+   * @param segments - the table interning the segments of the trie nodes
+   * @param weigher  - estimates the number of bytes a value and its trie node take
+   * @param released - called with every value replaced or removed
+   */
+  PathTrie(SegmentTable segments, ToIntFunction<V> weigher, Consumer<V> released) {
+    this.segments = segments;
+    this.weigher = weigher;
+    this.released = released;
+  }
+
+  /**
+   * @param path - an absolute znode path
+   * @return the value stored for path, or null
+   */
+  V get(String path) {
+    Node<V> node = find(path);
+    return node == null ? null : node.value;
+  }
+
+  /**
+   * @param path  - an absolute znode path
+   * @param value - the value to store, must not be null
+   * @return the previous value stored for path, or null
+   */
+  V put(String path, V value) {
+    V old;
+    while (true) {
+      Node<V> node = root;
+      int start = 1;
+      int len = path.length();
+      while (start < len && node != null) {
+        int end = path.indexOf('/', start);
+        if (end == -1) {
+          end = len;
+        }
+        if (end > start) {
+          node = node.getOrCreateChild(path, start, end, segments);
+        }
+        start = end + 1;
+      }
+      if (node == null) {
+        // an ancestor was removed meanwhile
+        continue;
+      }
+      synchronized (node) {
+        if (node.removed) {
+          continue;
+        }
+        old = node.value;
+        node.value = value;
+      }
+      break;
+    }
+    if (old == null) {
+      size.incrementAndGet();
+    } else {
+      weight.addAndGet(-weigher.applyAsInt(old));
+      released.accept(old);
+    }
+    weight.addAndGet(weigher.applyAsInt(value));
+    return old;
+  }
+
+  /**
+   * Remove the value of path, keeping the values of its descendants.
+   *
+   * @param path - an absolute znode path
+   * @return the removed value, or null
+   */
+  V remove(String path) {
+    Node<V> node = find(path);
+    if (node == null) {
+      return null;
+    }
+    V old;
+    synchronized (node) {
+      old = node.value;
+      node.value = null;
+    }
+    if (old != null) {
+      size.decrementAndGet();
+      weight.addAndGet(-weigher.applyAsInt(old));
+      released.accept(old);
+    }
+    return old;
+  }
+
+  /**
+   * Remove path and all its descendants. Unlike a string prefix match this
+   * never touches siblings sharing a name prefix, e.g. /foobar for /foo.
+   *
+   * @param path - an absolute znode path
+   * @return the number of values removed
+   */
+  int removeSubtree(String path) {
+    Node<V> node = find(path);
+    if (node == null) {
+      return 0;
+    }
+    long[] removed = new long[2];
+    if (node == root) {
+      synchronized (root) {
+        release(root, removed);
+        root.clearChildren();
+      }
+    } else {
+      synchronized (node.parent) {
+        node.parent.removeChild(node);
+      }
+      release(node, removed);
+    }
+    size.addAndGet((int) -removed[0]);
+    weight.addAndGet(-removed[1]);
+    return (int) removed[0];
+  }
+
+  /**
+   * Visit path and all its cached descendants, parents before children.
+   *
+   * @param path    - an absolute znode path
+   * @param visitor - called with the path and value of every node holding a value
+   */
+  void forEachInSubtree(String path, BiConsumer<String, V> visitor) {
+    Node<V> node = find(path);
+    if (node != null) {
+      visit(node, node == root ? "/" : path, visitor);
+    }
+  }
+
+  /**
+   * @param path - an absolute znode path
+   * @return the value stored for the parent of path, or null
+   */
+  V getParent(String path) {
+    Node<V> node = find(path);
+    if (node == null || node.parent == null) {
+      return null;
+    }
+    return node.parent.value;
+  }
+
+  int size() {
+    return size.get();
+  }
+
+  /**
+   * @return the sum of the weights of all values
+   */
+  long weight() {
+    return weight.get();
+  }
+
+  /**
+   * Remove values of nodes without cached descendants, oldest first, until
+   * done says so or no such node is left. Removing a leaf may turn its parent
+   * into a leaf, so callers needing more room call this again.
+   *
+   * @param keep - nodes that must not be removed
+   * @param age  - the last access time of a value, lower is older
+   * @param done - checked after each removal
+   * @return the number of values removed
+   */
+  int evictLeaves(Predicate<Node<V>> keep, ToLongFunction<V> age, BooleanSupplier done) {
+    List<Node<V>> leaves = new ArrayList<>();
+    collectLeaves(root, keep, leaves);
+    long[] order = new long[leaves.size()];
+    for (int i = 0; i < order.length; i++) {
+      V value = leaves.get(i).value;
+      // age in the high bits, index in the low bits, so sorting keeps both
+      order[i] = ((value == null ? 0 : age.applyAsLong(value)) << 24) | i;
+    }
+    Arrays.sort(order);
+    int removed = 0;
+    for (long entry : order) {
+      if (done.getAsBoolean()) {
+        break;
+      }
+      Node<V> node = leaves.get((int) (entry & 0xFFFFFF));
+      V old;
+      // parent before child, the only place holding two node locks
+      synchronized (node.parent) {
+        synchronized (node) {
+          // skip nodes that got children or were removed since they were collected
+          if (node.count > 0 || node.value == null || node.removed) {
+            continue;
+          }
+          old = node.value;
+          node.value = null;
+          node.removed = true;
+          node.parent.removeChild(node);
+        }
+      }
+      size.decrementAndGet();
+      weight.addAndGet(-weigher.applyAsInt(old));
+      released.accept(old);
+      segments.release(node.segment);
+      removed++;
+    }
+    return removed;
+  }
+
+  /**
+   * @param path - an absolute znode path
+   * @return the trie node of path, or null
+   */
+  Node<V> find(String path) {
+    Node<V> node = root;
+    int start = 1;
+    int len = path.length();
+    while (start < len && node != null) {
+      int end = path.indexOf('/', start);
+      if (end == -1) {
+        end = len;
+      }
+      if (end > start) {
+        node = node.getChild(path, start, end);
+      }
+      start = end + 1;
+    }
+    return node;
+  }
+
+  // release the values and segments of a removed subtree, adding the number
+  // of values to counts[0] and their weight to counts[1]. Once marked removed
+  // a node gets no children, so its slots are final
+  private void release(Node<V> node, long[] counts) {
+    V value;
+    synchronized (node) {
+      if (node.removed) {
+        // evicted or removed meanwhile, and released then
+        return;
+      }
+      node.removed = node != root;
+      value = node.value;
+      node.value = null;
+    }
+    if (value != null) {
+      counts[0]++;
+      counts[1] += weigher.applyAsInt(value);
+      released.accept(value);
+    }
+    if (node != root) {
+      segments.release(node.segment);
+    }
+    AtomicReferenceArray<Node<V>> slots = node.slots;
+    if (slots != null) {
+      for (int i = 0; i < slots.length(); i++) {
+        Node<V> child = slots.get(i);
+        if (child != null && child != Node.TOMBSTONE) {
+          release(child, counts);
+        }
+      }
+    }
+  }
+
+  // returns true if the subtree of node holds a value
+  private boolean collectLeaves(Node<V> node, Predicate<Node<V>> keep, List<Node<V>> leaves) {
+    boolean below = false;
+    AtomicReferenceArray<Node<V>> slots = node.slots;
+    if (slots != null) {
+      for (int i = 0; i < slots.length(); i++) {
+        Node<V> child = slots.get(i);
+        if (child != null && child != Node.TOMBSTONE) {
+          below |= collectLeaves(child, keep, leaves);
+        }
+      }
+    }
+    if (node.value == null) {
+      return below;
+    }
+    if (!below && node.count == 0 && node != root && leaves.size() < 0xFFFFFF && !keep.test(node)) {
+      leaves.add(node);
+    }
+    return true;
+  }
+
+  private static <V> void visit(Node<V> node, String path, BiConsumer<String, V> visitor) {
+    V value = node.value;
+    if (value != null) {
+      visitor.accept(path, value);
+    }
+    AtomicReferenceArray<Node<V>> slots = node.slots;
+    if (slots != null) {
+      String prefix = path.equals("/") ? path : path + "/";
+      for (int i = 0; i < slots.length(); i++) {
+        Node<V> child = slots.get(i);
+        if (child != null && child != Node.TOMBSTONE) {
+          visit(child, prefix + child.segment, visitor);
+        }
+      }
+    }
+  }
+
+  /**
+   * A trie node. Children live in an open addressing hash table keyed by
+   * segment, which can be probed with a region of a path string.
+   */
+  static final class Node<V> {
+    @SuppressWarnings("rawtypes")
+    static final Node TOMBSTONE = new Node<>("", null);
+
+    final String segment;
+    final int hash;
+    final Node<V> parent;
+    volatile V value;
+    // null until the first child is added, replaced as a whole on resize
+    volatile AtomicReferenceArray<Node<V>> slots;
+    // guarded by this
+    private boolean removed;
+    private int count;
+    private int used;
+
+    Node(String segment, Node<V> parent) {
+      this.segment = segment;
+      this.hash = spread(segment.hashCode());
+      this.parent = parent;
+    }
+
+    Node<V> getChild(String path, int start, int end) {
+      AtomicReferenceArray<Node<V>> table = slots;
+      if (table == null) {
+        return null;
+      }
+      int mask = table.length() - 1;
+      int i = hash(path, start, end) & mask;
+      while (true) {
+        Node<V> child = table.get(i);
+        if (child == null) {
+          return null;
+        }
+        if (child != TOMBSTONE && child.matches(path, start, end)) {
+          return child;
+        }
+        i = (i + 1) & mask;
+      }
+    }
+
+    /**
+     * @return the child, or null if this node was removed from the trie
+     */
+    Node<V> getOrCreateChild(String path, int start, int end, SegmentTable segments) {
+      Node<V> child = getChild(path, start, end);
+      if (child != null) {
+        return child;
+      }
+      synchronized (this) {
+        if (removed) {
+          return null;
+        }
+        child = getChild(path, start, end);
+        if (child == null) {
+          child = new Node<>(segments.intern(path.substring(start, end)), this);
+          insert(child);
+        }
+        return child;
+      }
+    }
+
+    // callers hold the lock of this node
+    private void insert(Node<V> child) {
+      AtomicReferenceArray<Node<V>> table = slots;
+      if (table == null || (used + 1) * 2 > table.length()) {
+        table = rehash(Math.max(4, Integer.highestOneBit(Math.max(count + 1, 2) * 4 - 1)));
+      }
+      int mask = table.length() - 1;
+      int i = child.hash & mask;
+      while (true) {
+        Node<V> slot = table.get(i);
+        if (slot == null || slot == TOMBSTONE) {
+          if (slot == null) {
+            used++;
+          }
+          table.set(i, child);
+          count++;
+          return;
+        }
+        i = (i + 1) & mask;
+      }
+    }
+
+    // callers hold the lock of this node
+    private void removeChild(Node<V> child) {
+      AtomicReferenceArray<Node<V>> table = slots;
+      if (table == null) {
+        return;
+      }
+      int mask = table.length() - 1;
+      int i = child.hash & mask;
+      while (true) {
+        Node<V> slot = table.get(i);
+        if (slot == null) {
+          return;
+        }
+        if (slot == child) {
+          table.set(i, tombstone());
+          count--;
+          return;
+        }
+        i = (i + 1) & mask;
+      }
+    }
+
+    // callers hold the lock of this node
+    private void clearChildren() {
+      slots = null;
+      count = 0;
+      used = 0;
+    }
+
+    // callers hold the lock of this node
+    private AtomicReferenceArray<Node<V>> rehash(int capacity) {
+      AtomicReferenceArray<Node<V>> table = new AtomicReferenceArray<>(capacity);
+      AtomicReferenceArray<Node<V>> old = slots;
+      int mask = capacity - 1;
+      if (old != null) {
+        for (int j = 0; j < old.length(); j++) {
+          Node<V> child = old.get(j);
+          if (child != null && child != TOMBSTONE) {
+            int i = child.hash & mask;
+            while (table.get(i) != null) {
+              i = (i + 1) & mask;
+            }
+            table.set(i, child);
+          }
+        }
+      }
+      used = count;
+      slots = table;
+      return table;
+    }
+
+    private boolean matches(String path, int start, int end) {
+      int len = end - start;
+      return segment.length() == len && path.regionMatches(start, segment, 0, len);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> Node<V> tombstone() {
+      return (Node<V>) TOMBSTONE;
+    }
+
+    // same as spread(String.hashCode()) of the segment, without creating it
+    private static int hash(String path, int start, int end) {
+      int h = 0;
+      for (int i = start; i < end; i++) {
+        h = 31 * h + path.charAt(i);
+      }
+      return spread(h);
+    }
+
+    private static int spread(int h) {
+      return h ^ (h >>> 16);
+    }
+  }
+}
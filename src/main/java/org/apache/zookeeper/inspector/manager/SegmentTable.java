@@ -0,0 +1,147 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.zookeeper.inspector.manager;
+
+/**
+ * Interns path segments (znode names). Names repeated across the tree, like
+ * "instances" under every service, or a child's name in its parent's children
+ * and in its own trie node, are stored once.
+ * <p>
+ * Names are reference counted: each {@link #intern} is matched by a
+ * {@link #release} once its holder is dropped, and a name leaves the table
+ * with its last reference, so churning unique names such as sequential lock
+ * or queue nodes do not accumulate. All methods are synchronized.
+ */
+class SegmentTable {
+
+  private static final int MIN_CAPACITY = 512;
+
+  // open addressing table of the names and their reference counts, null
+  // marks a free slot
+  private String[] keys = new String[MIN_CAPACITY];
+  private int[] refs = new int[MIN_CAPACITY];
+  private int size;
+  // the estimated bytes of the interned strings
+  private long bytes;
+
+  /**
+   * @param name - the name to intern
+   * @return the canonical instance equal to name, with one more reference
+   */
+  synchronized String intern(String name) {
+    int i = indexOf(name);
+    if (keys[i] != null) {
+      refs[i]++;
+      return keys[i];
+    }
+    keys[i] = name;
+    refs[i] = 1;
+    size++;
+    bytes += bytesOf(name);
+    if (size * 2 > keys.length) {
+      rehash(keys.length * 2);
+    }
+    return name;
+  }
+
+  /**
+   * Drop a reference taken by {@link #intern}
+   *
+   * @param name - the interned name
+   */
+  synchronized void release(String name) {
+    int i = indexOf(name);
+    if (keys[i] == null || --refs[i] > 0) {
+      return;
+    }
+    size--;
+    bytes -= bytesOf(name);
+    delete(i);
+    if (keys.length > MIN_CAPACITY && size * 8 < keys.length) {
+      rehash(keys.length / 2);
+    }
+  }
+
+  synchronized int size() {
+    return size;
+  }
+
+  /**
+   * @return the estimated bytes of the table and the names in it
+   */
+  synchronized long estimatedBytes() {
+    return 8L * keys.length + bytes;
+  }
+
+  private int indexOf(String name) {
+    int mask = keys.length - 1;
+    int i = spread(name.hashCode()) & mask;
+    while (keys[i] != null && !keys[i].equals(name)) {
+      i = (i + 1) & mask;
+    }
+    return i;
+  }
+
+  // free slot i, moving back the names probed past it
+  private void delete(int i) {
+    int mask = keys.length - 1;
+    int j = i;
+    while (true) {
+      j = (j + 1) & mask;
+      if (keys[j] == null) {
+        break;
+      }
+      int home = spread(keys[j].hashCode()) & mask;
+      // keys[j] stays unless its home slot is cyclically outside (i, j]
+      if (j > i ? home <= i || home > j : home <= i && home > j) {
+        keys[i] = keys[j];
+        refs[i] = refs[j];
+        i = j;
+      }
+    }
+    keys[i] = null;
+    refs[i] = 0;
+  }
+
+  private void rehash(int capacity) {
+    String[] oldKeys = keys;
+    int[] oldRefs = refs;
+    keys = new String[capacity];
+    refs = new int[capacity];
+    int mask = capacity - 1;
+    for (int j = 0; j < oldKeys.length; j++) {
+      if (oldKeys[j] != null) {
+        int i = spread(oldKeys[j].hashCode()) & mask;
+        while (keys[i] != null) {
+          i = (i + 1) & mask;
+        }
+        keys[i] = oldKeys[j];
+        refs[i] = oldRefs[j];
+      }
+    }
+  }
+
+  // a String with its byte array, assuming compact strings
+  private static long bytesOf(String name) {
+    return 40 + name.length();
+  }
+
+  private static int spread(int h) {
+    return h ^ (h >>> 16);
+  }
+}
@@ -0,0 +1,507 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.zookeeper.inspector.manager;
+
+import org.apache.jute.BinaryInputArchive;
+import org.apache.jute.InputArchive;
+import org.apache.jute.Index;
+import org.apache.jute.Record;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.ZooDefs.OpCode;
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Stat;
+import org.apache.zookeeper.data.StatPersisted;
+import org.apache.zookeeper.server.EphemeralType;
+import org.apache.zookeeper.server.persistence.FileHeader;
+import org.apache.zookeeper.server.persistence.FileSnap;
+import org.apache.zookeeper.server.persistence.FileTxnLog;
+import org.apache.zookeeper.server.persistence.SnapStream;
+import org.apache.zookeeper.server.persistence.TxnLog.TxnIterator;
+import org.apache.zookeeper.server.persistence.Util;
+import org.apache.zookeeper.txn.CloseSessionTxn;
+import org.apache.zookeeper.txn.CreateContainerTxn;
+import org.apache.zookeeper.txn.CreateTTLTxn;
+import org.apache.zookeeper.txn.CreateTxn;
+import org.apache.zookeeper.txn.DeleteTxn;
+import org.apache.zookeeper.txn.MultiTxn;
+import org.apache.zookeeper.txn.SetACLTxn;
+import org.apache.zookeeper.txn.SetDataTxn;
+import org.apache.zookeeper.txn.Txn;
+import org.apache.zookeeper.txn.TxnHeader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Converts a zookeeper server snapshot, optionally brought forward by
+ * replaying its transaction logs, into a node dump in a streaming pass.
+ * <p>
+ * Replaying needs the state of every node a transaction changes, so the logs
+ * are read twice: first to collect the paths the transactions touch, then to
+ * apply them. Untouched nodes are written straight from the snapshot, the
+ * touched ones are held in memory until the replay is done, so memory grows
+ * with the number of changed nodes, not with the size of the tree. As when
+ * a server restores, transactions already reflected in a fuzzy snapshot are
+ * applied again without effect.
+ */
+final class SnapshotConverter {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SnapshotConverter.class);
+
+  private final File snapshot;
+  private final File logDir;
+  private final long targetZxid;
+  private long snapshotZxid;
+  private long lastZxid;
+  private long transactions;
+
+  /**
+   * @param snapshot   - the snapshot file, compressed or not
+   * @param logDir     - the directory of the transaction logs, null to read
+   *                   the snapshot alone
+   * @param targetZxid - the zxid of the last transaction to replay,
+   *                   {@link Long#MAX_VALUE} for all of them
+   */
+  SnapshotConverter(File snapshot, File logDir, long targetZxid) {
+    this.snapshot = snapshot;
+    this.logDir = logDir;
+    this.targetZxid = targetZxid;
+  }
+
+  /**
+   * @param file - the file to check
+   * @return true if the file is a zookeeper snapshot
+   */
+  static boolean isSnapshot(File file) {
+    try (InputStream in = SnapStream.getInputStream(file)) {
+      FileHeader header = new FileHeader();
+      header.deserialize(BinaryInputArchive.getArchive(in), "fileheader");
+      return header.getMagic() == FileSnap.SNAP_MAGIC;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * @param writer - the writer to write the nodes to, finished when done
+   * @return the number of nodes written
+   * @throws IOException - if the snapshot or a log cannot be read, or the
+   *                     target zxid is before the snapshot
+   */
+  long convert(NodeDumpWriter writer) throws IOException {
+    snapshotZxid = Util.getZxidFromName(snapshot.getName(), FileSnap.SNAPSHOT_FILE_PREFIX);
+    lastZxid = snapshotZxid;
+    boolean replay = logDir != null && snapshotZxid >= 0 && targetZxid > snapshotZxid;
+    if (logDir != null && snapshotZxid >= 0 && targetZxid < snapshotZxid) {
+      throw new IOException("Snapshot " + snapshot.getName() + " is after zxid 0x"
+          + Long.toHexString(targetZxid));
+    }
+
+    final Set<String> touched = new HashSet<>();
+    final Set<Long> closed = new HashSet<>();
+    if (replay) {
+      replay((header, type, txn) -> touch(header, type, txn, touched, closed));
+    }
+    if (!closed.isEmpty()) {
+      // the ephemeral nodes of sessions closed by logs that do not list them
+      readSnapshot((path, node) -> {
+        if (closed.contains(node.stat.getEphemeralOwner())) {
+          touched.add(path);
+          touched.add(ZooInspectorRefreshEngine.parentOf(path));
+        }
+      });
+    }
+
+    final Map<String, Node> changed = new HashMap<>();
+    final long[] written = {0};
+    readSnapshot((path, node) -> {
+      if (touched.contains(path)) {
+        changed.put(path, node);
+      } else {
+        writer.write(node.toSnapshot(path));
+        written[0]++;
+      }
+    });
+    if (replay) {
+      transactions = replay((header, type, txn) -> apply(header, type, txn, changed, closed));
+    }
+    for (Map.Entry<String, Node> entry : changed.entrySet()) {
+      writer.write(entry.getValue().toSnapshot(entry.getKey()));
+      written[0]++;
+    }
+    writer.finish();
+    LOG.info("Converted {} nodes of {} at zxid 0x{}, {} transactions replayed", written[0],
+        snapshot, Long.toHexString(lastZxid), transactions);
+    return written[0];
+  }
+
+  /**
+   * @return the snapshot file
+   */
+  File getSnapshot() {
+    return snapshot;
+  }
+
+  /**
+   * @return the zxid of the snapshot, -1 if its name does not tell
+   */
+  long getSnapshotZxid() {
+    return snapshotZxid;
+  }
+
+  /**
+   * @return the zxid of the last replayed transaction, or of the snapshot
+   */
+  long getLastZxid() {
+    return lastZxid;
+  }
+
+  /**
+   * @return the number of replayed transactions
+   */
+  long getTransactions() {
+    return transactions;
+  }
+
+  private void readSnapshot(NodeVisitor visitor) throws IOException {
+    try (InputStream in = SnapStream.getInputStream(snapshot)) {
+      InputArchive ia = BinaryInputArchive.getArchive(in);
+      FileHeader header = new FileHeader();
+      header.deserialize(ia, "fileheader");
+      if (header.getMagic() != FileSnap.SNAP_MAGIC) {
+        throw new IOException("Not a zookeeper snapshot: " + snapshot);
+      }
+      for (int sessions = ia.readInt("count"); sessions > 0; sessions--) {
+        ia.readLong("id");
+        ia.readInt("timeout");
+      }
+      Map<Long, List<ACL>> acls = new HashMap<>();
+      for (int n = ia.readInt("map"); n > 0; n--) {
+        long id = ia.readLong("long");
+        List<ACL> acl = new ArrayList<>();
+        Index i = ia.startVector("acls");
+        if (i == null) {
+          throw new IOException("Corrupt snapshot, no ACLs for: " + id);
+        }
+        for (; !i.done(); i.incr()) {
+          ACL a = new ACL();
+          a.deserialize(ia, "acl");
+          acl.add(a);
+        }
+        acls.put(id, acl);
+      }
+      // the nodes are written depth first, so a node is visited once the
+      // nodes after it leave its subtree and its children are counted
+      Deque<Map.Entry<String, Node>> open = new ArrayDeque<>();
+      // the root is written with an empty path, and "/" marks the end
+      for (String path = ia.readString("path"); !"/".equals(path); path = ia.readString("path")) {
+        path = path.isEmpty() ? "/" : path;
+        while (!open.isEmpty() && !isParent(open.peek().getKey(), path)) {
+          Map.Entry<String, Node> done = open.pop();
+          visitor.visit(done.getKey(), done.getValue());
+        }
+        if (!open.isEmpty()) {
+          open.peek().getValue().children++;
+        }
+        byte[] data = ia.readBuffer("data");
+        long id = ia.readLong("acl");
+        StatPersisted s = new StatPersisted();
+        s.deserialize(ia, "statpersisted");
+        List<ACL> acl = id == -1 ? Ids.OPEN_ACL_UNSAFE : acls.get(id);
+        if (acl == null) {
+          throw new IOException("Corrupt snapshot, unknown ACL " + id + " of: " + path);
+        }
+        Stat stat = new Stat(s.getCzxid(), s.getMzxid(), s.getCtime(), s.getMtime(), s.getVersion(),
+            s.getCversion(), s.getAversion(), s.getEphemeralOwner(), 0, 0, s.getPzxid());
+        open.push(new AbstractMap.SimpleEntry<>(path, new Node(data, acl, stat)));
+      }
+      while (!open.isEmpty()) {
+        Map.Entry<String, Node> done = open.pop();
+        visitor.visit(done.getKey(), done.getValue());
+      }
+    }
+  }
+
+  private static boolean isParent(String parent, String path) {
+    return path.startsWith(parent)
+        && (parent.length() == 1 || path.length() > parent.length() && path.charAt(parent.length()) == '/');
+  }
+
+  // calls handler with every transaction after the snapshot up to the target
+  private long replay(TxnHandler handler) throws IOException {
+    long count = 0;
+    try (TxnIterator it = new FileTxnLog(logDir).read(snapshotZxid + 1)) {
+      for (TxnHeader header = it.getHeader(); header != null && header.getZxid() <= targetZxid;
+           header = it.next() ? it.getHeader() : null) {
+        if (header.getZxid() <= snapshotZxid) {
+          continue;
+        }
+        handler.handle(header, header.getType(), it.getTxn());
+        lastZxid = header.getZxid();
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private static void touch(TxnHeader header, int type, Record txn, Set<String> touched,
+                            Set<Long> closed) throws IOException {
+    String path = null;
+    switch (type) {
+      case OpCode.create:
+      case OpCode.create2:
+      case OpCode.createContainer:
+      case OpCode.createTTL:
+      case OpCode.delete:
+      case OpCode.deleteContainer:
+        path = pathOf(txn);
+        touched.add(ZooInspectorRefreshEngine.parentOf(path));
+        break;
+      case OpCode.setData:
+      case OpCode.reconfig:
+      case OpCode.setACL:
+        path = pathOf(txn);
+        break;
+      case OpCode.multi:
+        for (Txn sub : ((MultiTxn) txn).getTxns()) {
+          touch(header, sub.getType(), subTxn(sub), touched, closed);
+        }
+        break;
+      case OpCode.closeSession:
+        if (txn instanceof CloseSessionTxn) {
+          for (String p : ((CloseSessionTxn) txn).getPaths2Delete()) {
+            touched.add(p);
+            touched.add(ZooInspectorRefreshEngine.parentOf(p));
+          }
+        } else {
+          closed.add(header.getClientId());
+        }
+        break;
+      default:
+        // sessions, checks and errors change no node
+    }
+    if (path != null) {
+      touched.add(path);
+    }
+  }
+
+  private void apply(TxnHeader header, int type, Record txn, Map<String, Node> nodes,
+                     Set<Long> closed) throws IOException {
+    long zxid = header.getZxid();
+    switch (type) {
+      case OpCode.create:
+      case OpCode.create2: {
+        CreateTxn t = (CreateTxn) txn;
+        create(nodes, t.getPath(), t.getData(), t.getAcl(),
+            t.getEphemeral() ? header.getClientId() : 0, t.getParentCVersion(), header);
+        break;
+      }
+      case OpCode.createContainer: {
+        CreateContainerTxn t = (CreateContainerTxn) txn;
+        create(nodes, t.getPath(), t.getData(), t.getAcl(),
+            EphemeralType.CONTAINER_EPHEMERAL_OWNER, t.getParentCVersion(), header);
+        break;
+      }
+      case OpCode.createTTL: {
+        CreateTTLTxn t = (CreateTTLTxn) txn;
+        create(nodes, t.getPath(), t.getData(), t.getAcl(),
+            EphemeralType.TTL.toEphemeralOwner(t.getTtl()), t.getParentCVersion(), header);
+        break;
+      }
+      case OpCode.delete:
+      case OpCode.deleteContainer:
+        delete(nodes, ((DeleteTxn) txn).getPath(), zxid);
+        break;
+      case OpCode.setData:
+      case OpCode.reconfig: {
+        SetDataTxn t = (SetDataTxn) txn;
+        Node node = nodes.get(t.getPath());
+        if (node != null) {
+          node.data = t.getData();
+          node.stat.setMtime(header.getTime());
+          node.stat.setMzxid(zxid);
+          node.stat.setVersion(t.getVersion());
+        }
+        break;
+      }
+      case OpCode.setACL: {
+        SetACLTxn t = (SetACLTxn) txn;
+        Node node = nodes.get(t.getPath());
+        if (node != null) {
+          node.acl = t.getAcl();
+          node.stat.setAversion(t.getVersion());
+        }
+        break;
+      }
+      case OpCode.multi:
+        for (Txn sub : ((MultiTxn) txn).getTxns()) {
+          apply(header, sub.getType(), subTxn(sub), nodes, closed);
+        }
+        break;
+      case OpCode.closeSession:
+        if (txn instanceof CloseSessionTxn) {
+          for (String p : ((CloseSessionTxn) txn).getPaths2Delete()) {
+            delete(nodes, p, zxid);
+          }
+        } else if (closed.contains(header.getClientId())) {
+          List<String> owned = new ArrayList<>();
+          for (Map.Entry<String, Node> entry : nodes.entrySet()) {
+            if (entry.getValue().stat.getEphemeralOwner() == header.getClientId()) {
+              owned.add(entry.getKey());
+            }
+          }
+          for (String p : owned) {
+            delete(nodes, p, zxid);
+          }
+        }
+        break;
+      default:
+        // sessions, checks and errors change no node
+    }
+  }
+
+  private static void create(Map<String, Node> nodes, String path, byte[] data, List<ACL> acl,
+                             long ephemeralOwner, int parentCVersion, TxnHeader header) {
+    Node parent = nodes.get(ZooInspectorRefreshEngine.parentOf(path));
+    if (parent == null) {
+      return;
+    }
+    // as a restoring server does, also when the node exists from a fuzzy
+    // snapshot
+    int cversion = parentCVersion == -1 ? parent.stat.getCversion() + 1 : parentCVersion;
+    if (cversion > parent.stat.getCversion()) {
+      parent.stat.setCversion(cversion);
+      parent.stat.setPzxid(header.getZxid());
+    }
+    if (!nodes.containsKey(path)) {
+      parent.children++;
+      long zxid = header.getZxid();
+      long time = header.getTime();
+      nodes.put(path, new Node(data, acl,
+          new Stat(zxid, zxid, time, time, 0, 0, 0, ephemeralOwner, 0, 0, zxid)));
+    }
+  }
+
+  private static void delete(Map<String, Node> nodes, String path, long zxid) {
+    if (nodes.remove(path) == null) {
+      return;
+    }
+    Node parent = nodes.get(ZooInspectorRefreshEngine.parentOf(path));
+    if (parent != null) {
+      parent.children--;
+      if (zxid > parent.stat.getPzxid()) {
+        parent.stat.setPzxid(zxid);
+      }
+    }
+  }
+
+  private static String pathOf(Record txn) throws IOException {
+    if (txn instanceof CreateTxn) {
+      return ((CreateTxn) txn).getPath();
+    } else if (txn instanceof CreateContainerTxn) {
+      return ((CreateContainerTxn) txn).getPath();
+    } else if (txn instanceof CreateTTLTxn) {
+      return ((CreateTTLTxn) txn).getPath();
+    } else if (txn instanceof DeleteTxn) {
+      return ((DeleteTxn) txn).getPath();
+    } else if (txn instanceof SetDataTxn) {
+      return ((SetDataTxn) txn).getPath();
+    } else if (txn instanceof SetACLTxn) {
+      return ((SetACLTxn) txn).getPath();
+    }
+    throw new IOException("Unexpected transaction: " + txn);
+  }
+
+  // the operations of a multi are serialized by type, as the log does
+  private static Record subTxn(Txn sub) throws IOException {
+    Record record;
+    switch (sub.getType()) {
+      case OpCode.create:
+      case OpCode.create2:
+        record = new CreateTxn();
+        break;
+      case OpCode.createContainer:
+        record = new CreateContainerTxn();
+        break;
+      case OpCode.createTTL:
+        record = new CreateTTLTxn();
+        break;
+      case OpCode.delete:
+      case OpCode.deleteContainer:
+        record = new DeleteTxn();
+        break;
+      case OpCode.setData:
+        record = new SetDataTxn();
+        break;
+      default:
+        // checks and errors
+        return null;
+    }
+    record.deserialize(BinaryInputArchive.getArchive(new ByteArrayInputStream(sub.getData())), "txn");
+    return record;
+  }
+
+  private interface NodeVisitor {
+    void visit(String path, Node node) throws IOException;
+  }
+
+  private interface TxnHandler {
+    void handle(TxnHeader header, int type, Record txn) throws IOException;
+  }
+
+  /**
+   * The state of a node while the logs are replayed, with the children
+   * version counting creates as the server keeps it
+   */
+  private static final class Node {
+    byte[] data;
+    List<ACL> acl;
+    final Stat stat;
+    int children;
+
+    Node(byte[] data, List<ACL> acl, Stat stat) {
+      this.data = data;
+      this.acl = acl;
+      this.stat = stat;
+    }
+
+    NodeSnapshot toSnapshot(String path) {
+      // as a client sees it: the children version counts the deletes too,
+      // and only ephemeral nodes have an owner
+      long owner = stat.getEphemeralOwner();
+      Stat s = new Stat(stat.getCzxid(), stat.getMzxid(), stat.getCtime(), stat.getMtime(),
+          stat.getVersion(), stat.getCversion() * 2 - children, stat.getAversion(),
+          EphemeralType.get(owner) == EphemeralType.NORMAL ? owner : 0,
+          data == null ? 0 : data.length, children, stat.getPzxid());
+      return new NodeSnapshot(path, data, s, acl, null);
+    }
+  }
+}
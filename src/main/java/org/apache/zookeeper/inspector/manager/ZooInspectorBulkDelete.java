@@ -0,0 +1,154 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.zookeeper.inspector.manager;
+
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.ZooKeeper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Deletes whole subtrees. The subtrees are listed through the
+ * {@link ZooInspectorRefreshEngine}, then deleted deepest level first in
+ * pipelined multi() batches, so a batch can be sent before the batches
+ * deleting the children of its nodes have completed.
+ * <p>
+ * A node deleted by someone else in the meantime counts as deleted; a node
+ * which got a new child cannot be deleted and is reported by
+ * {@link #getFailed()}.
+ */
+class ZooInspectorBulkDelete extends ZooInspectorBulkOperation<String> {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ZooInspectorBulkDelete.class);
+
+  // the deepest level below a deleted node that is listed
+  static final int MAX_DEPTH = 1024;
+
+  private final int maxOutstanding;
+
+  /**
+   * @param zooKeeper      - the {@link ZooKeeper} to delete from
+   * @param maxOutstanding - the maximum number of listing requests in flight
+   * @param window         - the maximum number of multi() requests in flight
+   * @param listener       - notified as nodes are deleted, may be null
+   */
+  ZooInspectorBulkDelete(ZooKeeper zooKeeper, int maxOutstanding, int window,
+                         BulkProgressListener listener) {
+    super(zooKeeper, window, listener);
+    this.maxOutstanding = maxOutstanding;
+  }
+
+  /**
+   * Delete the given nodes and everything below them
+   *
+   * @param paths - the paths of the nodes to delete
+   * @return true if all nodes were deleted
+   * @throws KeeperException      - if the connection was lost
+   * @throws InterruptedException
+   */
+  boolean delete(List<String> paths) throws KeeperException, InterruptedException {
+    // the nodes to delete by depth, deepest first
+    final TreeMap<Integer, List<String>> levels = new TreeMap<>(Collections.reverseOrder());
+    new ZooInspectorRefreshEngine(zooKeeper, maxOutstanding).traverse(topmost(paths), MAX_DEPTH,
+        (path, children, stat) -> {
+          if (children != null) {
+            synchronized (levels) {
+              levels.computeIfAbsent(depth(path), d -> new ArrayList<>()).add(path);
+            }
+          }
+        });
+    long n = 0;
+    for (List<String> level : levels.values()) {
+      n += level.size();
+    }
+    setTotal(n);
+    for (List<String> level : levels.values()) {
+      for (String path : level) {
+        add(path, path.getBytes(StandardCharsets.UTF_8).length + OP_OVERHEAD);
+      }
+    }
+    flush();
+    List<String> failed = getFailed();
+    if (!failed.isEmpty()) {
+      LOG.warn("Failed to delete {} of {} nodes, e.g. {}", failed.size(), n, failed.get(0));
+    }
+    return failed.isEmpty();
+  }
+
+  @Override
+  Op toOp(String path) {
+    return Op.delete(path, -1);
+  }
+
+  @Override
+  void applySingle(String path, Runnable done) {
+    zooKeeper.delete(path, -1, (rc, p, ctx) -> {
+      if (rc == Code.OK.intValue() || rc == Code.NONODE.intValue()) {
+        completed(1);
+      } else {
+        failed(p, Code.get(rc));
+      }
+      done.run();
+    }, null);
+  }
+
+  /**
+   * @return the paths which are not below another of the paths
+   */
+  static List<String> topmost(Collection<String> paths) {
+    List<String> topmost = new ArrayList<>();
+    outer:
+    for (String path : new LinkedHashSet<>(paths)) {
+      for (String other : paths) {
+        if (!other.equals(path) && isBelow(path, other)) {
+          continue outer;
+        }
+      }
+      topmost.add(path);
+    }
+    return topmost;
+  }
+
+  /**
+   * @return true if path is the ancestor or below it
+   */
+  static boolean isBelow(String path, String ancestor) {
+    return path.equals(ancestor) || ancestor.equals("/")
+        || (path.startsWith(ancestor) && path.charAt(ancestor.length()) == '/');
+  }
+
+  private static int depth(String path) {
+    int depth = 0;
+    for (int i = 0; i < path.length(); i++) {
+      if (path.charAt(i) == '/') {
+        depth++;
+      }
+    }
+    return path.length() == 1 ? 0 : depth;
+  }
+}
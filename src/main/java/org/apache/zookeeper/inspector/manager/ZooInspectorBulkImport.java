@@ -0,0 +1,386 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.zookeeper.inspector.manager;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.inspector.encryption.DataEncryptionManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Creates a subtree described by a {@link Source} in pipelined multi()
+ * batches. Sources list parents before their children, so a batch can be sent
+ * before the batches creating the parents of its nodes have completed.
+ * <p>
+ * Nodes which already exist are left as they are and counted as skipped.
+ * Nodes are created open to everyone, so that their children can be created
+ * whatever their ACLs. Once the subtree exists, the nodes read from a dump get
+ * the ACLs they were dumped with, children before their parents.
+ */
+class ZooInspectorBulkImport extends ZooInspectorBulkOperation<ZooInspectorBulkImport.Record> {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ZooInspectorBulkImport.class);
+
+  private final AtomicLong skipped = new AtomicLong();
+  // the dumped ACLs of the created nodes, in the order they were created
+  private final Map<String, List<ACL>> acls = Collections.synchronizedMap(new LinkedHashMap<>());
+
+  /**
+   * @param zooKeeper - the {@link ZooKeeper} to create the nodes in
+   * @param window    - the maximum number of multi() requests in flight
+   * @param listener  - notified as nodes are created, may be null
+   */
+  ZooInspectorBulkImport(ZooKeeper zooKeeper, int window, BulkProgressListener listener) {
+    super(zooKeeper, window, listener);
+  }
+
+  /**
+   * Create the nodes of source below parent. The root of source becomes a
+   * child of parent named {@link Source#getName()}, or parent itself if that
+   * is empty.
+   *
+   * @param parent - the path of the existing parent node
+   * @param source - the nodes to create
+   * @return true if all nodes were created or existed already
+   * @throws KeeperException      - if the connection was lost
+   * @throws InterruptedException
+   * @throws IOException          - if source cannot be read
+   */
+  boolean importNodes(String parent, Source source)
+      throws KeeperException, InterruptedException, IOException {
+    long start = System.nanoTime();
+    Record record = source.next();
+    if (record == null) {
+      return true;
+    }
+    String name = source.getName();
+    String target = name.isEmpty() ? parent : ZooInspectorRefreshEngine.childPath(parent, name);
+    try {
+      for (; record != null; record = source.next()) {
+        if (record.path.isEmpty()) {
+          if (!target.equals(parent)) {
+            create(target, record);
+          }
+          continue;
+        }
+        create(target.equals("/") ? record.path : target + record.path, record);
+      }
+    } finally {
+      // let the batches in flight complete, even if source failed, and
+      // restrict what was created
+      try {
+        flush();
+      } finally {
+        restoreAcls();
+      }
+    }
+    long done = getCompleted();
+    long ms = Math.max(1, (System.nanoTime() - start) / 1000000);
+    setTotal(done);
+    int failed = getFailed().size();
+    LOG.info("Imported {} nodes below {} in {} ms, {} nodes/s ({} existed, {} failed)",
+        done, parent, ms, done * 1000 / ms, skipped.get(), failed);
+    return failed == 0;
+  }
+
+  /**
+   * @return the number of nodes which existed already
+   */
+  long getSkipped() {
+    return skipped.get();
+  }
+
+  @Override
+  Op toOp(Record record) {
+    return Op.create(record.path, record.data, Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+  }
+
+  @Override
+  void applySingle(Record record, Runnable done) {
+    zooKeeper.create(record.path, record.data, Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT,
+        (rc, p, ctx, name) -> {
+          if (rc == Code.OK.intValue()) {
+            completed(1);
+          } else if (rc == Code.NODEEXISTS.intValue()) {
+            existed(p);
+          } else if (rc == Code.NOAUTH.intValue()) {
+            // checked before the node is found to exist, e.g. below a node
+            // whose dumped ACLs were restored by a previous import
+            zooKeeper.exists(p, false, (rc2, p2, ctx2, stat) -> {
+              if (stat != null) {
+                existed(p2);
+              } else {
+                acls.remove(p2);
+                failed(p2, Code.NOAUTH);
+              }
+              done.run();
+            }, null);
+            return;
+          } else {
+            acls.remove(p);
+            failed(p, Code.get(rc));
+          }
+          done.run();
+        }, null);
+  }
+
+  // the node is left as it is
+  private void existed(String path) {
+    acls.remove(path);
+    skipped.incrementAndGet();
+    completed(1);
+  }
+
+  private void create(String path, Record record) throws KeeperException, InterruptedException {
+    if (!record.acls.equals(Ids.OPEN_ACL_UNSAFE)) {
+      acls.put(path, record.acls);
+    }
+    add(new Record(path, record.data), path.getBytes(StandardCharsets.UTF_8).length
+            + (record.data == null ? 0 : record.data.length) + OP_OVERHEAD);
+  }
+
+  /**
+   * Set the dumped ACLs of the created nodes, children before their parents.
+   * A node whose ACL cannot be set is reported as failed
+   *
+   * @throws InterruptedException
+   */
+  private void restoreAcls() throws InterruptedException {
+    List<Map.Entry<String, List<ACL>>> nodes;
+    synchronized (acls) {
+      nodes = new ArrayList<>(acls.entrySet());
+      acls.clear();
+    }
+    final Semaphore inFlight = new Semaphore(MAX_BATCH_OPS);
+    // sources list parents before their children
+    for (int i = nodes.size() - 1; i >= 0; i--) {
+      Map.Entry<String, List<ACL>> node = nodes.get(i);
+      inFlight.acquire();
+      zooKeeper.setACL(node.getKey(), node.getValue(), -1, (rc, p, ctx, stat) -> {
+        if (rc != Code.OK.intValue()) {
+          failed(p, Code.get(rc));
+        }
+        inFlight.release();
+      }, null);
+    }
+    inFlight.acquire(MAX_BATCH_OPS);
+    inFlight.release(MAX_BATCH_OPS);
+  }
+
+  /**
+   * Open a source: a directory, a dump written by {@link NodeDumpWriter}, or
+   * a JSON or NDJSON file
+   *
+   * @param file              - the file or directory
+   * @param encryptionManager - encrypts the text data of JSON records
+   * @return the source
+   * @throws IOException - if file cannot be opened
+   */
+  static Source open(File file, DataEncryptionManager encryptionManager)
+      throws IOException {
+    if (file.isDirectory()) {
+      return new DirectorySource(file.toPath());
+    }
+    if (NodeDumpReader.isDump(file.toPath())) {
+      return new DumpSource(NodeDumpReader.open(file.toPath()));
+    }
+    return new JsonImportSource(file, encryptionManager);
+  }
+
+  /**
+   * A node to create
+   */
+  static final class Record {
+    // the path relative to the root of the source, "" for the root itself
+    // and "/a/b" below it
+    final String path;
+    final byte[] data;
+    final List<ACL> acls;
+
+    /**
+     * A node open to everyone
+     */
+    Record(String path, byte[] data) {
+      this(path, data, Ids.OPEN_ACL_UNSAFE);
+    }
+
+    /**
+     * @param acls - the ACLs of the node, open to everyone if empty
+     */
+    Record(String path, byte[] data, List<ACL> acls) {
+      this.path = path;
+      this.data = data;
+      this.acls = acls.isEmpty() ? Ids.OPEN_ACL_UNSAFE : acls;
+    }
+  }
+
+  /**
+   * A subtree to create, listing every parent before its children
+   */
+  interface Source extends Closeable {
+    /**
+     * @return the next node, or null at the end
+     * @throws IOException - if the source cannot be read or is malformed
+     */
+    Record next() throws IOException;
+
+    /**
+     * @return the name of the root of the subtree, empty to create its
+     * children directly below the parent. Known once the first record was read
+     */
+    String getName();
+  }
+
+  /**
+   * A source listing absolute paths, the first one being the root of the
+   * subtree
+   */
+  abstract static class PathSource implements Source {
+    private String root;
+
+    /**
+     * @param path - an absolute path read from the source
+     * @return the path relative to the root, or null if it is not below the
+     * root. The first path becomes the root
+     */
+    String relative(String path) {
+      if (root == null) {
+        root = path;
+        return "";
+      }
+      if (path.equals(root)) {
+        return "";
+      }
+      if (root.equals("/")) {
+        return path;
+      }
+      if (!path.startsWith(root) || path.charAt(root.length()) != '/') {
+        return null;
+      }
+      return path.substring(root.length());
+    }
+
+    String getRoot() {
+      return root;
+    }
+
+    @Override
+    public String getName() {
+      return root == null || root.equals("/") ? "" : root.substring(root.lastIndexOf('/') + 1);
+    }
+  }
+
+  /**
+   * A dump written by {@link NodeDumpWriter}. The data and ACLs are imported
+   * as they were dumped
+   */
+  static final class DumpSource extends PathSource {
+    private final NodeDumpReader reader;
+
+    DumpSource(NodeDumpReader reader) {
+      this.reader = reader;
+    }
+
+    @Override
+    public Record next() throws IOException {
+      NodeSnapshot node = reader.next();
+      if (node == null) {
+        return null;
+      }
+      String relative = relative(node.getPath());
+      if (relative == null) {
+        throw new IOException(node.getPath() + " is not below " + getRoot());
+      }
+      return new Record(relative, node.getData(), node.getACLs());
+    }
+
+    @Override
+    public void close() throws IOException {
+      reader.close();
+    }
+  }
+
+  /**
+   * A directory: subdirectories become nodes without data, files become nodes
+   * holding their contents
+   */
+  static final class DirectorySource implements Source {
+    private final Path root;
+    private final Stream<Path> walk;
+    private final Iterator<Path> paths;
+
+    DirectorySource(Path root) throws IOException {
+      this.root = root;
+      this.walk = Files.walk(root);
+      this.paths = walk.iterator();
+    }
+
+    @Override
+    public Record next() throws IOException {
+      try {
+        if (!paths.hasNext()) {
+          return null;
+        }
+        Path path = paths.next();
+        StringBuilder relative = new StringBuilder();
+        for (Path name : root.relativize(path)) {
+          if (!name.toString().isEmpty()) {
+            relative.append('/').append(name);
+          }
+        }
+        byte[] data = Files.isRegularFile(path) ? Files.readAllBytes(path) : null;
+        return new Record(relative.toString(), data);
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      }
+    }
+
+    @Override
+    public String getName() {
+      return root.getFileName() == null ? "" : root.getFileName().toString();
+    }
+
+    @Override
+    public void close() {
+      walk.close();
+    }
+  }
+}
@@ -0,0 +1,217 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.zookeeper.inspector.manager;
+
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.ZooKeeper.States;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Applies an operation to many nodes in multi() batches, of which at most
+ * {@code window} are in flight. Zookeeper applies the requests of a session in
+ * order, so a batch can depend on the batches sent before it without waiting
+ * for them.
+ * <p>
+ * A multi() fails as a whole if any of its operations fails, e.g. because a
+ * node was changed by someone else. The items of a failed batch are then
+ * applied one by one, and the ones that still fail are reported by
+ * {@link #getFailed()}.
+ *
+ * @param <T> - the type of the items
+ */
+abstract class ZooInspectorBulkOperation<T> {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ZooInspectorBulkOperation.class);
+
+  /**
+   * The default number of multi() requests in flight
+   */
+  static final int DEFAULT_WINDOW = 8;
+  // the most operations in one multi()
+  static final int MAX_BATCH_OPS = 1000;
+  // keep a batch well under the largest request the server accepts
+  private static final int MAX_BATCH_BYTES = Integer.getInteger("jute.maxbuffer", 0xfffff) / 2;
+  // the serialized size of an operation besides its path and data
+  static final int OP_OVERHEAD = 64;
+  // report progress every PROGRESS_INTERVAL completed items
+  private static final int PROGRESS_INTERVAL = 1000;
+
+  protected final ZooKeeper zooKeeper;
+  private final int window;
+  private final Semaphore inFlight;
+  private final BulkProgressListener listener;
+  private final AtomicLong completed = new AtomicLong();
+  private final List<String> failed = Collections.synchronizedList(new ArrayList<>());
+  private volatile long total = -1;
+  private List<T> batch = new ArrayList<>();
+  private int batchBytes;
+
+  /**
+   * @param zooKeeper - the {@link ZooKeeper} to apply the operation to
+   * @param window    - the maximum number of multi() requests in flight
+   * @param listener  - notified as items are completed, may be null
+   */
+  ZooInspectorBulkOperation(ZooKeeper zooKeeper, int window, BulkProgressListener listener) {
+    if (window <= 0) {
+      throw new IllegalArgumentException("window must be positive: " + window);
+    }
+    this.zooKeeper = zooKeeper;
+    this.window = window;
+    this.inFlight = new Semaphore(window);
+    this.listener = listener;
+  }
+
+  /**
+   * @return the operation applying item in a multi()
+   */
+  abstract Op toOp(T item);
+
+  /**
+   * Apply item on its own after its batch failed, calling
+   * {@link #completed(int)} or {@link #failed(String, Code)}
+   *
+   * @param item - the item
+   * @param done - to be run once item is completed or failed
+   */
+  abstract void applySingle(T item, Runnable done);
+
+  /**
+   * Queue an item, sending the batch once it is full
+   *
+   * @param item - the item
+   * @param size - the estimated serialized size of its operation
+   * @throws KeeperException      - if the connection was lost
+   * @throws InterruptedException
+   */
+  void add(T item, int size) throws KeeperException, InterruptedException {
+    if (batch.size() == MAX_BATCH_OPS || (!batch.isEmpty() && batchBytes + size > MAX_BATCH_BYTES)) {
+      send();
+    }
+    batch.add(item);
+    batchBytes += size;
+  }
+
+  /**
+   * Send the last batch and wait for all batches in flight
+   *
+   * @throws KeeperException      - if the connection was lost
+   * @throws InterruptedException
+   */
+  void flush() throws KeeperException, InterruptedException {
+    if (!batch.isEmpty()) {
+      send();
+    }
+    inFlight.acquire(window);
+    inFlight.release(window);
+  }
+
+  /**
+   * @param total - the number of items, reported to the listener
+   */
+  void setTotal(long total) {
+    this.total = total;
+    report(completed.get());
+  }
+
+  /**
+   * @return the number of items completed
+   */
+  long getCompleted() {
+    return completed.get();
+  }
+
+  /**
+   * @return the paths of the items which failed
+   */
+  List<String> getFailed() {
+    synchronized (failed) {
+      return new ArrayList<>(failed);
+    }
+  }
+
+  protected void completed(int count) {
+    long before = completed.getAndAdd(count);
+    long after = before + count;
+    if (after == total || before / PROGRESS_INTERVAL != after / PROGRESS_INTERVAL) {
+      report(after);
+    }
+  }
+
+  protected void failed(String path, Code code) {
+    failed.add(path);
+    LOG.debug("Bulk operation failed on node: {}: {}", path, code);
+  }
+
+  private void send() throws KeeperException, InterruptedException {
+    final List<T> items = batch;
+    batch = new ArrayList<>();
+    batchBytes = 0;
+    inFlight.acquire();
+    if (zooKeeper.getState() != States.CONNECTED) {
+      inFlight.release();
+      throw KeeperException.create(Code.CONNECTIONLOSS, toOp(items.get(0)).getPath());
+    }
+    List<Op> ops = new ArrayList<>(items.size());
+    for (T item : items) {
+      ops.add(toOp(item));
+    }
+    zooKeeper.multi(ops, (rc, path, ctx, results) -> {
+      if (rc == Code.OK.intValue()) {
+        completed(items.size());
+        inFlight.release();
+        return;
+      }
+      final AtomicInteger remaining = new AtomicInteger(items.size());
+      Runnable done = () -> {
+        if (remaining.decrementAndGet() == 0) {
+          inFlight.release();
+        }
+      };
+      for (T item : items) {
+        try {
+          applySingle(item, done);
+        } catch (RuntimeException e) {
+          LOG.error("Error occurred applying bulk operation to: {}", toOp(item).getPath(), e);
+          failed(toOp(item).getPath(), Code.SYSTEMERROR);
+          done.run();
+        }
+      }
+    }, null);
+  }
+
+  private void report(long count) {
+    if (listener != null) {
+      try {
+        listener.bulkProgress(count, total);
+      } catch (RuntimeException e) {
+        LOG.warn("Bulk progress listener failed", e);
+      }
+    }
+  }
+}
@@ -0,0 +1,335 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.zookeeper.inspector.manager;
+
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Compares two subtrees, of the same or of different managers, e.g. a live
+ * session and a dump exported from it earlier. The subtrees are walked in
+ * batches of {@code batch} nodes, listing the children and {@link Stat} of
+ * every node of a batch on both sides with pipelined requests. Data and ACLs
+ * are only fetched for the nodes whose stat tells they may differ, so
+ * comparing large trees of the same ensemble is mostly bound by the
+ * listing.
+ * <p>
+ * A node whose creation and modification zxids and versions are equal on
+ * both sides is taken as unchanged, which holds for two views of one
+ * ensemble. Nodes of unrelated ensembles have different zxids, so their data
+ * and ACLs are always compared.
+ * <p>
+ * A node which exists on both sides but cannot be read on one of them is
+ * skipped with its subtree, and logged.
+ */
+public class ZooInspectorDiff {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ZooInspectorDiff.class);
+
+  /**
+   * The default number of nodes compared at a time
+   */
+  public static final int DEFAULT_BATCH = 1000;
+
+  private final ZooInspectorManager left;
+  private final ZooInspectorManager right;
+  private final int batch;
+
+  /**
+   * @param left  - the manager of the left subtree
+   * @param right - the manager of the right subtree
+   * @param batch - the number of nodes compared at a time
+   */
+  public ZooInspectorDiff(ZooInspectorManager left, ZooInspectorManager right, int batch) {
+    if (batch <= 0) {
+      throw new IllegalArgumentException("batch must be positive: " + batch);
+    }
+    this.left = left;
+    this.right = right;
+    this.batch = batch;
+  }
+
+  /**
+   * Compare the subtree at leftRoot with the one at rightRoot. Nodes created
+   * or deleted while comparing may be reported either way
+   *
+   * @param leftRoot  - the path of the left subtree
+   * @param rightRoot - the path of the right subtree
+   * @param listener  - notified of every difference, from the calling thread
+   * @return the number of nodes found in both subtrees
+   * @throws KeeperException      - if a root does not exist or a node cannot
+   *                              be read
+   * @throws InterruptedException
+   */
+  public long diff(String leftRoot, String rightRoot, DiffListener listener)
+      throws KeeperException, InterruptedException {
+    CacheLoader leftLoader = loaderOf(left);
+    CacheLoader rightLoader = loaderOf(right);
+    // depth first, so only the siblings along one path are pending
+    Deque<String> pending = new ArrayDeque<>();
+    pending.push("/");
+    long compared = 0;
+    while (!pending.isEmpty()) {
+      List<String> paths = new ArrayList<>(Math.min(batch, pending.size()));
+      while (paths.size() < batch && !pending.isEmpty()) {
+        paths.add(pending.pop());
+      }
+      Map<String, Listed> leftNodes = list(leftLoader, leftRoot, paths);
+      Map<String, Listed> rightNodes = list(rightLoader, rightRoot, paths);
+      Set<String> leftUnreadable = unreadable(left, leftRoot, paths, leftNodes);
+      Set<String> rightUnreadable = unreadable(right, rightRoot, paths, rightNodes);
+      List<String> suspects = new ArrayList<>();
+      for (String path : paths) {
+        Listed l = leftNodes.get(path);
+        Listed r = rightNodes.get(path);
+        boolean leftExists = l != null || leftUnreadable.contains(path);
+        boolean rightExists = r != null || rightUnreadable.contains(path);
+        if (path.equals("/") && (!leftExists || !rightExists)) {
+          throw KeeperException.create(Code.NONODE, leftExists ? rightRoot : leftRoot);
+        }
+        if (!leftExists || !rightExists) {
+          // deleted since its parent was listed
+          if (leftExists) {
+            listener.nodeRemoved(path);
+          } else if (rightExists) {
+            listener.nodeAdded(path);
+          }
+          continue;
+        }
+        if (l == null || r == null) {
+          LOG.warn("Skipping unreadable node: {}", path);
+          continue;
+        }
+        compared++;
+        if (!sameHistory(l.stat, r.stat)) {
+          suspects.add(path);
+        }
+        compareChildren(path, l.children, r.children, pending, listener);
+      }
+      compareNodes(leftRoot, rightRoot, suspects, leftNodes, rightNodes, listener);
+    }
+    return compared;
+  }
+
+  private static boolean sameHistory(Stat l, Stat r) {
+    return l.getCzxid() == r.getCzxid() && l.getMzxid() == r.getMzxid()
+        && l.getVersion() == r.getVersion() && l.getAversion() == r.getAversion()
+        && l.getDataLength() == r.getDataLength();
+  }
+
+  // report the children on one side only, and push the common ones
+  private static void compareChildren(String path, List<String> leftChildren,
+                                      List<String> rightChildren, Deque<String> pending,
+                                      DiffListener listener) {
+    String[] l = leftChildren.toArray(new String[0]);
+    String[] r = rightChildren.toArray(new String[0]);
+    Arrays.sort(l);
+    Arrays.sort(r);
+    List<String> common = new ArrayList<>();
+    int i = 0;
+    int j = 0;
+    while (i < l.length || j < r.length) {
+      int c = i == l.length ? 1 : j == r.length ? -1 : l[i].compareTo(r[j]);
+      if (c < 0) {
+        listener.nodeRemoved(ZooInspectorRefreshEngine.childPath(path, l[i++]));
+      } else if (c > 0) {
+        listener.nodeAdded(ZooInspectorRefreshEngine.childPath(path, r[j++]));
+      } else {
+        common.add(ZooInspectorRefreshEngine.childPath(path, l[i++]));
+        j++;
+      }
+    }
+    // pushed in reverse, so they are compared in order
+    for (int k = common.size() - 1; k >= 0; k--) {
+      pending.push(common.get(k));
+    }
+  }
+
+  private void compareNodes(String leftRoot, String rightRoot, List<String> paths,
+                            Map<String, Listed> leftNodes, Map<String, Listed> rightNodes,
+                            DiffListener listener) throws KeeperException, InterruptedException {
+    if (paths.isEmpty()) {
+      return;
+    }
+    List<CompletableFuture<NodeSnapshot>> leftFetches = fetch(left, leftRoot, paths);
+    List<CompletableFuture<NodeSnapshot>> rightFetches = fetch(right, rightRoot, paths);
+    for (int i = 0; i < paths.size(); i++) {
+      String path = paths.get(i);
+      NodeSnapshot l = get(leftFetches.get(i), path);
+      NodeSnapshot r = get(rightFetches.get(i), path);
+      if (l == null || r == null) {
+        // deleted or unreadable since it was listed
+        continue;
+      }
+      boolean dataChanged = !Arrays.equals(l.getData(), r.getData());
+      boolean aclChanged = !l.getACLs().equals(r.getACLs());
+      if (dataChanged || aclChanged) {
+        listener.nodeChanged(path, leftNodes.get(path).stat, rightNodes.get(path).stat,
+            dataChanged, aclChanged);
+      }
+    }
+  }
+
+  private static NodeSnapshot get(CompletableFuture<NodeSnapshot> future, String path)
+      throws KeeperException, InterruptedException {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof KeeperException && ((KeeperException) cause).code() == Code.NOAUTH) {
+        LOG.warn("Skipping unreadable node: {}", path);
+        return null;
+      }
+      if (cause instanceof KeeperException) {
+        throw (KeeperException) cause;
+      }
+      LOG.error("Error occurred reading node: {}", path, cause);
+      throw KeeperException.create(Code.SYSTEMERROR, path);
+    }
+  }
+
+  private static Map<String, Listed> list(CacheLoader loader, String root, List<String> paths)
+      throws KeeperException {
+    List<String> absolute = new ArrayList<>(paths.size());
+    for (String path : paths) {
+      absolute.add(absolute(root, path));
+    }
+    final Map<String, String> relative = new ConcurrentHashMap<>();
+    for (int i = 0; i < paths.size(); i++) {
+      relative.put(absolute.get(i), paths.get(i));
+    }
+    final Map<String, Listed> listed = new ConcurrentHashMap<>();
+    loader.traverse(absolute, 0, (path, children, stat) -> {
+      if (children != null) {
+        listed.put(relative.get(path), new Listed(children, stat));
+      }
+    });
+    return listed;
+  }
+
+  // the paths not listed which exist but cannot be read
+  private static Set<String> unreadable(ZooInspectorManager manager, String root,
+                                        List<String> paths, Map<String, Listed> listed)
+      throws KeeperException, InterruptedException {
+    List<String> missing = new ArrayList<>();
+    List<CompletableFuture<NodeSnapshot>> fetches = new ArrayList<>();
+    for (String path : paths) {
+      if (!listed.containsKey(path)) {
+        CompletableFuture<NodeSnapshot> future = new CompletableFuture<>();
+        fetch(manager, absolute(root, path), false, future);
+        missing.add(path);
+        fetches.add(future);
+      }
+    }
+    Set<String> unreadable = new HashSet<>();
+    for (int i = 0; i < missing.size(); i++) {
+      try {
+        fetches.get(i).get();
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof KeeperException && ((KeeperException) cause).code() == Code.NOAUTH) {
+          unreadable.add(missing.get(i));
+        } else if (cause instanceof KeeperException) {
+          throw (KeeperException) cause;
+        } else {
+          LOG.error("Error occurred reading node: {}", missing.get(i), cause);
+          throw KeeperException.create(Code.SYSTEMERROR, missing.get(i));
+        }
+      }
+    }
+    return unreadable;
+  }
+
+  // all requests are sent before waiting for any
+  private static List<CompletableFuture<NodeSnapshot>> fetch(ZooInspectorManager manager,
+                                                             String root, List<String> paths) {
+    List<CompletableFuture<NodeSnapshot>> futures = new ArrayList<>(paths.size());
+    for (String path : paths) {
+      CompletableFuture<NodeSnapshot> future = new CompletableFuture<>();
+      fetch(manager, absolute(root, path), true, future);
+      futures.add(future);
+    }
+    return futures;
+  }
+
+  /**
+   * Fetch a node without waiting for it from a live session, or read it
+   * from any other manager
+   *
+   * @param manager  - the manager to fetch the node through
+   * @param path     - the path of the node
+   * @param withAcls - false if the ACLs are not needed
+   * @param result   - completed with the node, or null if it does not exist
+   */
+  static void fetch(ZooInspectorManager manager, String path, boolean withAcls,
+                    CompletableFuture<NodeSnapshot> result) {
+    if (manager instanceof ZooInspectorManagerImpl) {
+      ((ZooInspectorManagerImpl) manager).fetchNodeSnapshot(path, withAcls, result);
+    } else {
+      result.complete(manager.getNodeSnapshot(path));
+    }
+  }
+
+  private static String absolute(String root, String path) {
+    if (path.equals("/")) {
+      return root;
+    }
+    return root.equals("/") ? path : root + path;
+  }
+
+  static CacheLoader loaderOf(ZooInspectorManager manager) throws KeeperException {
+    CacheLoader loader = null;
+    if (manager instanceof ZooInspectorManagerImpl) {
+      loader = ZooInspectorManagerCache.loaderOf((ZooInspectorManagerImpl) manager);
+    } else if (manager instanceof ZooInspectorOfflineManager) {
+      loader = ((ZooInspectorOfflineManager) manager).getLoader();
+    } else {
+      throw new IllegalArgumentException("Unsupported manager: " + manager.getClass().getName());
+    }
+    if (loader == null || !loader.isAvailable()) {
+      throw KeeperException.create(Code.CONNECTIONLOSS);
+    }
+    return loader;
+  }
+
+  private static class Listed {
+    final List<String> children;
+    final Stat stat;
+
+    Listed(List<String> children, Stat stat) {
+      this.children = children == null ? Collections.<String>emptyList() : children;
+      this.stat = stat;
+    }
+  }
+}
@@ -0,0 +1,142 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.zookeeper.inspector.manager;
+
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.Code;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Writes a subtree to a {@link NodeDumpWriter} in one pass. The nodes are
+ * fetched through {@link ZooInspectorManagerImpl#fetchNodeSnapshot} with at
+ * most {@code window} nodes in flight, and written as they arrive. The
+ * children of a node are only fetched once it was written, so every parent is
+ * written before its children, and only the paths not fetched yet are held in
+ * memory.
+ */
+class ZooInspectorExport {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ZooInspectorExport.class);
+
+  // report progress every PROGRESS_INTERVAL written nodes
+  private static final int PROGRESS_INTERVAL = 1000;
+
+  private final ZooInspectorManagerImpl manager;
+  private final int window;
+  private final BulkProgressListener listener;
+
+  /**
+   * @param manager  - the manager to fetch the nodes through
+   * @param window   - the maximum number of nodes in flight
+   * @param listener - notified as nodes are written, may be null
+   */
+  ZooInspectorExport(ZooInspectorManagerImpl manager, int window, BulkProgressListener listener) {
+    if (window <= 0) {
+      throw new IllegalArgumentException("window must be positive: " + window);
+    }
+    this.manager = manager;
+    this.window = window;
+    this.listener = listener;
+  }
+
+  /**
+   * Write the node at root and everything below it. Nodes deleted while
+   * exporting are left out
+   *
+   * @param root   - the path of the subtree
+   * @param writer - the writer to write the nodes to
+   * @return the number of nodes written
+   * @throws KeeperException      - if root does not exist or a node cannot be
+   *                              read
+   * @throws InterruptedException
+   * @throws IOException          - if a node cannot be written
+   */
+  long export(String root, NodeDumpWriter writer)
+      throws KeeperException, InterruptedException, IOException {
+    // depth first, so only the siblings along one path are pending
+    Deque<String> pending = new ArrayDeque<>();
+    BlockingQueue<Fetched> fetched = new LinkedBlockingQueue<>();
+    pending.push(root);
+    int inFlight = 0;
+    long written = 0;
+    while (!pending.isEmpty() || inFlight > 0) {
+      while (inFlight < window && !pending.isEmpty()) {
+        String path = pending.pop();
+        CompletableFuture<NodeSnapshot> future = new CompletableFuture<>();
+        future.whenComplete((snapshot, error) -> fetched.add(new Fetched(path, snapshot, error)));
+        manager.fetchNodeSnapshot(path, future);
+        inFlight++;
+      }
+      Fetched next = fetched.take();
+      inFlight--;
+      if (next.error != null) {
+        Throwable cause = next.error instanceof CompletionException ? next.error.getCause() : next.error;
+        if (cause instanceof KeeperException && ((KeeperException) cause).code() == Code.NOAUTH) {
+          LOG.warn("Skipping unreadable node: {}", next.path);
+          continue;
+        }
+        if (cause instanceof KeeperException) {
+          throw (KeeperException) cause;
+        }
+        throw new IOException("Error occurred reading node: " + next.path, cause);
+      }
+      NodeSnapshot snapshot = next.snapshot;
+      if (snapshot == null) {
+        if (next.path.equals(root)) {
+          throw KeeperException.create(Code.NONODE, root);
+        }
+        // deleted since its parent was read
+        continue;
+      }
+      writer.write(snapshot);
+      written++;
+      for (String child : snapshot.getChildren()) {
+        pending.push(ZooInspectorRefreshEngine.childPath(snapshot.getPath(), child));
+      }
+      if (listener != null && written % PROGRESS_INTERVAL == 0) {
+        listener.bulkProgress(written, -1);
+      }
+    }
+    writer.finish();
+    if (listener != null) {
+      listener.bulkProgress(written, written);
+    }
+    return written;
+  }
+
+  private static class Fetched {
+    final String path;
+    final NodeSnapshot snapshot;
+    final Throwable error;
+
+    Fetched(String path, NodeSnapshot snapshot, Throwable error) {
+      this.path = path;
+      this.snapshot = snapshot;
+      this.error = error;
+    }
+  }
+}
@@ -0,0 +1,218 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.zookeeper.inspector.manager;
+
+import org.apache.zookeeper.AddWatchMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.Watcher.Event.EventType;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.apache.zookeeper.ZooKeeper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps the cache coherent from a persistent recursive watch on a subtree.
+ * Each change only re-fetches the cached nodes it affects: the node itself
+ * for a data change, its parent for a create or delete. Changes arriving
+ * while a fetch is running are coalesced into the next one.
+ * <p>
+ * Watch events are delivered on the zookeeper event thread, which also runs
+ * the fetch callbacks, so fetches are made from a separate thread.
+ * <p>
+ * The watch is gone once the session expires. The updater then stops and
+ * tells the listener with the event type {@code Expired}.
+ */
+class ZooInspectorLiveUpdater implements Watcher {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ZooInspectorLiveUpdater.class);
+
+  private final ZooKeeper zooKeeper;
+  private final ZooInspectorManagerImpl manager;
+  private final String root;
+  private final NodeListener listener;
+  private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+    Thread t = new Thread(r, "zooinspector-live-updater");
+    t.setDaemon(true);
+    return t;
+  });
+  // guarded by this
+  private Set<String> stale = new LinkedHashSet<>();
+  // guarded by this, the last event of every changed path
+  private Map<String, EventType> events = new LinkedHashMap<>();
+  // guarded by this
+  private boolean scheduled;
+  // guarded by this
+  private boolean stopped;
+  private volatile boolean disconnected;
+  private volatile boolean expired;
+
+  /**
+   * @param zooKeeper - the {@link ZooKeeper} to watch
+   * @param manager   - the manager owning the cache to keep up to date
+   * @param root      - the path of the watched subtree
+   * @param listener  - notified of every change once the cache reflects it
+   */
+  ZooInspectorLiveUpdater(ZooKeeper zooKeeper, ZooInspectorManagerImpl manager,
+                          String root, NodeListener listener) {
+    this.zooKeeper = zooKeeper;
+    this.manager = manager;
+    this.root = root;
+    this.listener = listener;
+  }
+
+  /**
+   * Add the persistent recursive watch, which needs zookeeper 3.6 or later
+   *
+   * @throws KeeperException      - if the watch cannot be added
+   * @throws InterruptedException
+   */
+  void start() throws KeeperException, InterruptedException {
+    zooKeeper.addWatch(root, this, AddWatchMode.PERSISTENT_RECURSIVE);
+  }
+
+  void stop() {
+    synchronized (this) {
+      stopped = true;
+      executor.shutdownNow();
+    }
+    if (expired) {
+      // removed with the session
+      return;
+    }
+    try {
+      zooKeeper.removeWatches(root, this, WatcherType.Any, true);
+    } catch (Exception e) {
+      LOG.warn("Error occurred removing the live watch on: {}", root, e);
+    }
+  }
+
+  @Override
+  public void process(WatchedEvent event) {
+    if (event.getType() == EventType.None) {
+      if (event.getState() == KeeperState.Disconnected) {
+        disconnected = true;
+      } else if (event.getState() == KeeperState.Expired) {
+        expired = true;
+        synchronized (this) {
+          stopped = true;
+          executor.shutdownNow();
+        }
+        try {
+          listener.processEvent(root, KeeperState.Expired.name(), null);
+        } catch (RuntimeException e) {
+          LOG.error("Error occurred notifying expiry of the live watch on: {}", root, e);
+        }
+      } else if (event.getState() == KeeperState.SyncConnected && disconnected) {
+        // changes made while disconnected were not delivered, re-fetch
+        // what the user is looking at
+        disconnected = false;
+        ZooInspectorManagerCache cache = manager.getCache();
+        if (cache != null) {
+          schedule(cache.getPinned(), root, EventType.None);
+        }
+      }
+      return;
+    }
+    String path = event.getPath();
+    ZooInspectorManagerCache cache = manager.getCache();
+    if (path == null || cache == null) {
+      return;
+    }
+    manager.invalidateSnapshot(path);
+    List<String> paths = new ArrayList<>(2);
+    String parent = ZooInspectorRefreshEngine.parentOf(path);
+    switch (event.getType()) {
+      case NodeDataChanged:
+        if (cache.contains(path)) {
+          paths.add(path);
+        }
+        break;
+      case NodeDeleted:
+        cache.removePrefix(path);
+        // fall through, the parent lost a child
+      case NodeCreated:
+        if (parent != null) {
+          manager.invalidateSnapshot(parent);
+          if (cache.contains(parent)) {
+            paths.add(parent);
+          }
+        }
+        break;
+      default:
+        // NodeChildrenChanged is not sent for recursive watches
+        if (cache.contains(path)) {
+          paths.add(path);
+        }
+    }
+    schedule(paths, path, event.getType());
+  }
+
+  private synchronized void schedule(Iterable<String> paths, String path, EventType type) {
+    if (stopped) {
+      return;
+    }
+    for (String p : paths) {
+      stale.add(p);
+    }
+    if (path != null) {
+      events.put(path, type);
+    }
+    if (!scheduled) {
+      scheduled = true;
+      executor.execute(this::update);
+    }
+  }
+
+  private void update() {
+    List<String> paths;
+    Map<String, EventType> changes;
+    synchronized (this) {
+      paths = new ArrayList<>(stale);
+      changes = events;
+      stale = new LinkedHashSet<>();
+      events = new LinkedHashMap<>();
+      scheduled = false;
+    }
+    ZooInspectorManagerCache cache = manager.getCache();
+    if (cache != null && !paths.isEmpty()) {
+      try {
+        cache.refresh(paths, 0);
+      } catch (KeeperException e) {
+        LOG.warn("Error occurred updating {} changed nodes", paths.size(), e);
+      }
+    }
+    for (Map.Entry<String, EventType> change : changes.entrySet()) {
+      try {
+        listener.processEvent(change.getKey(), change.getValue().name(), null);
+      } catch (RuntimeException e) {
+        LOG.error("Error occurred notifying change of node: {}", change.getKey(), e);
+      }
+    }
+  }
+}
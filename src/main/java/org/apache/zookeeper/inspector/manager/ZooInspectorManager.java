@@ -120,4 +120,27 @@ public interface ZooInspectorManager extends ZooInspectorNodeManager,
   void saveDefaultConnectionFile(Properties props) throws IOException;
 
   void updateDefaultConnectionFile(Properties props) throws IOException;
+
+  /**
+   * Keep the cache up to date from change notifications on the subtree of
+   * root instead of re-fetching on refresh. Needs zookeeper 3.6 or later.
+   * If the session expires, live mode stops and listener is called once with
+   * root and the event type {@code Expired}.
+   *
+   * @param root     - the path of the subtree to follow
+   * @param listener - notified of every change once the cache reflects it
+   * @return true if live mode was enabled
+   */
+  boolean enableLiveMode(String root, NodeListener listener);
+
+  /**
+   * Stop following changes enabled by {@link #enableLiveMode}
+   */
+  void disableLiveMode();
+
+  /**
+   * @return true if nodes cannot be created, changed or deleted, e.g. when
+   * browsing a snapshot file
+   */
+  boolean isReadOnly();
 }
@@ -7,20 +7,166 @@ import org.slf4j.LoggerFactory;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
 
+/**
+ * The children and {@link Stat} of the nodes seen so far, bounded by a number
+ * of nodes and optionally an estimated number of bytes. Once a bound is
+ * exceeded the least recently used leaves are evicted down to 90% of it.
+ * Pinned paths (the expanded nodes of the tree), their ancestors and their
+ * children are never evicted.
+ * <p>
+ * A lookup never blocks on the loader: a node that is not cached reads as
+ * empty and is loaded in the background, and the {@link CacheListener}s are
+ * told once it is cached. A node found missing is not loaded again by lookups
+ * for {@link #MISSING_TTL_MS}, so showing a deleted node does not fetch it on
+ * every repaint.
+ */
 public class ZooInspectorManagerCache {
 
   private static final Logger LOG = LoggerFactory.getLogger(ZooInspectorManagerCache.class);
 
-  final Map<String, Item> cache;
-  ZooInspectorManagerImpl manager;
+  /**
+   * The default maximum number of cached nodes
+   */
+  public static final int DEFAULT_MAX_NODES = 1000000;
+  /**
+   * The number of children of a node shown and fetched at a time. A refresh
+   * does not descend into nodes with more children than this
+   */
+  public static final int PAGE_SIZE = 1000;
+  /**
+   * The milliseconds a node found missing is not loaded again on a lookup
+   */
+  public static final long MISSING_TTL_MS = 5000;
+  // the most missing nodes remembered, beyond which they are forgotten
+  private static final int MAX_MISSING = 10000;
+  // loads the nodes looked up but not cached, off the calling thread
+  private static final ExecutorService LOADER = Executors.newSingleThreadExecutor(r -> {
+    Thread t = new Thread(r, "zooinspector-cache-loader");
+    t.setDaemon(true);
+    return t;
+  });
+
+  final SegmentTable segments;
+  final PathTrie<Item> cache;
+  private final CacheLoader loader;
+
+  private volatile int maxNodes = DEFAULT_MAX_NODES;
+  // 0 for no byte bound
+  private volatile long maxBytes;
+  // advanced on every put, stamped on items when they are read
+  private final AtomicLong clock = new AtomicLong();
+  private final AtomicBoolean evicting = new AtomicBoolean();
+  private final Set<String> pinned = ConcurrentHashMap.newKeySet();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final AtomicLong evictions = new AtomicLong();
+  private final List<CacheListener> listeners = new CopyOnWriteArrayList<>();
+  // the paths looked up and waiting to be loaded
+  private final Set<String> loading = ConcurrentHashMap.newKeySet();
+  // the time each node was last found missing, by path
+  private final Map<String, Long> missing = new ConcurrentHashMap<>();
 
   public ZooInspectorManagerCache(ZooInspectorManagerImpl manager) {
-    this.manager = manager;
-    this.cache = new ConcurrentHashMap<>();
+    this(loaderOf(manager));
+  }
+
+  /**
+   * @param loader - where nodes missing from the cache are loaded from
+   */
+  ZooInspectorManagerCache(CacheLoader loader) {
+    this.loader = loader;
+    this.segments = new SegmentTable();
+    this.cache = new PathTrie<>(segments, Item::estimatedSize, item -> item.release(segments));
+    // the children of the root are always shown
+    this.pinned.add("/");
+  }
+
+  // loads from the zookeeper session of manager
+  static CacheLoader loaderOf(final ZooInspectorManagerImpl manager) {
+    return new CacheLoader() {
+      @Override
+      public boolean isAvailable() {
+        return manager.connected;
+      }
+
+      @Override
+      public void traverse(List<String> paths, int depth,
+                           ZooInspectorRefreshEngine.ChildrenHandler handler) throws KeeperException {
+        manager.traverse(paths, depth, handler);
+      }
+
+      @Override
+      public void invalidate(String path) {
+        manager.invalidateSnapshot(path);
+      }
+    };
+  }
+
+  /**
+   * @param maxNodes - the maximum number of cached nodes
+   * @param maxBytes - the maximum estimated size of the cache in bytes, 0 for
+   *                 no limit
+   */
+  public void setBounds(int maxNodes, long maxBytes) {
+    if (maxNodes <= 0 || maxBytes < 0) {
+      throw new IllegalArgumentException("Invalid cache bounds: " + maxNodes + " nodes, "
+          + maxBytes + " bytes");
+    }
+    this.maxNodes = maxNodes;
+    this.maxBytes = maxBytes;
+    evictIfNeeded();
+  }
+
+  /**
+   * @param listener - notified whenever the cached children of a node change
+   */
+  public void addCacheListener(CacheListener listener) {
+    listeners.add(listener);
+  }
+
+  public void removeCacheListener(CacheListener listener) {
+    listeners.remove(listener);
+  }
+
+  /**
+   * Keep path, its ancestors and its children from being evicted, e.g.
+   * while it is expanded in the tree
+   *
+   * @param path
+   */
+  public void pin(String path) {
+    pinned.add(path);
   }
 
   /**
+   * @return a copy of the pinned paths
+   */
+  public List<String> getPinned() {
+    return new ArrayList<>(pinned);
+  }
+
+  /**
+   * Release path and any pinned descendant of it
+   *
+   * @param path
+   */
+  public void unpin(String path) {
+    String prefix = path.equals("/") ? path : path + "/";
+    pinned.removeIf(p -> p.equals(path) || p.startsWith(prefix));
+  }
+
+  /**
+   * Refresh paths and their descendants down to depth. Nodes are put into the
+   * cache as their results arrive, so large subtrees fill in incrementally.
+   *
    * @param paths to update
    * @param depth to go
    * @throws KeeperException
@@ -34,96 +180,338 @@ public class ZooInspectorManagerCache {
       return;
     }
 
-    Map<String, Item> childItems = manager.getChildren(paths);
-
-    List<String> childPaths = new ArrayList<>();
-
-    // for (String path : paths) {
-    for (int i = 0; i < paths.size(); i++) {
-      String path = paths.get(i);
-      // Item item = manager.getChildrenAndStat(path);
-      Item item = childItems.get(path);
-      if (item == null || item.childs == null) {
-        cache.remove(path);
-      } else  // if item != null && item.childs != null
-      {
-        cache.put(path, item);
-        if (depth > 0) {
-          for (String child : item.childs) {
-            String childPath = path.equals("/") ? path + child : path + "/" + child;
-            childPaths.add(childPath);
+    loader.traverse(paths, depth, this::update);
+  }
+
+  private void update(String path, List<String> childs, Stat stat) {
+    loader.invalidate(path);
+    if (childs == null) {
+      // the node is gone, and so are its descendants
+      cache.removeSubtree(path);
+      if (missing.size() >= MAX_MISSING) {
+        missing.clear();
+      }
+      missing.put(path, System.currentTimeMillis());
+    } else {
+      missing.remove(path);
+      Item item = new Item(childs, stat, segments);
+      item.lastAccess = clock.incrementAndGet();
+      Item old = cache.put(path, item);
+      // equal sorted names give equal arrays
+      if (!listeners.isEmpty() && (old == null || !Arrays.equals(old.childs, item.childs))) {
+        List<String> before = old == null ? Collections.<String>emptyList() : new ChildList(old.childs);
+        List<String> after = new ChildList(item.childs);
+        for (CacheListener listener : listeners) {
+          try {
+            listener.childrenChanged(path, before, after);
+          } catch (RuntimeException e) {
+            LOG.error("Error occurred notifying cache change of node: {}", path, e);
           }
         }
       }
+      evictIfNeeded();
     }
+  }
 
-    if (childPaths.size() > 0) {
-      refresh(childPaths, depth - 1);
+  /**
+   * @param nodePath
+   * @return the cached item of nodePath, or null if it is not cached, in which
+   * case it is loaded in the background
+   */
+  private Item lookup(String nodePath) {
+    Item item = cache.get(nodePath);
+    if (item != null) {
+      hits.increment();
+      item.lastAccess = clock.get();
+    } else {
+      misses.increment();
+      loadLater(nodePath);
     }
+    return item;
   }
 
-  public String getNodeChild(String nodePath, int childIndex) {
-    if (!cache.containsKey(nodePath)) {
-      // if (!manager.watchers.containsKey(nodePath)) {
-      LOG.error("CACHE MISS! getNodeChild(). path: {}", nodePath);
+  private void loadLater(String nodePath) {
+    Long since = missing.get(nodePath);
+    if (since != null) {
+      if (System.currentTimeMillis() - since < MISSING_TTL_MS) {
+        return;
+      }
+      missing.remove(nodePath);
+    }
+    if (loader.isAvailable() && loading.add(nodePath)) {
+      LOG.debug("Cache miss, loading path: {}", nodePath);
+      LOADER.execute(this::loadPending);
+    }
+  }
+
+  // load the paths looked up so far in one batch, later tasks find them done
+  private void loadPending() {
+    List<String> paths = new ArrayList<>(loading);
+    if (paths.isEmpty()) {
+      return;
+    }
+    try {
+      loader.traverse(paths, 0, this::update);
+    } catch (KeeperException e) {
+      LOG.warn("Error occurred loading {} paths", paths.size(), e);
+    } finally {
+      loading.removeAll(paths);
+    }
+  }
+
+  private boolean overBound(double fraction) {
+    long bytes = maxBytes;
+    return cache.size() > maxNodes * fraction || (bytes > 0 && estimatedBytes() > bytes * fraction);
+  }
+
+  private void evictIfNeeded() {
+    if (!overBound(1) || !evicting.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      Set<PathTrie.Node<Item>> kept = Collections.newSetFromMap(new IdentityHashMap<>());
+      Set<PathTrie.Node<Item>> expanded = Collections.newSetFromMap(new IdentityHashMap<>());
+      for (String path : pinned) {
+        PathTrie.Node<Item> node = cache.find(path);
+        if (node != null) {
+          expanded.add(node);
+          for (; node != null && kept.add(node); node = node.parent) {
+            // ancestors up to the root, or up to an already kept one
+          }
+        }
+      }
+      int removed;
+      do {
+        removed = cache.evictLeaves(node -> kept.contains(node) || expanded.contains(node.parent),
+            item -> item.lastAccess, () -> !overBound(0.9));
+        evictions.addAndGet(removed);
+      } while (removed > 0 && overBound(0.9));
+      LOG.debug("Evicted down to {} nodes, {} bytes", cache.size(), estimatedBytes());
+    } finally {
+      evicting.set(false);
+    }
+  }
 
+  public String getNodeChild(String nodePath, int childIndex) {
+    Item item = lookup(nodePath);
+    if (item == null) {
       return null;
     }
 
-    List<String> childs = getChildren(nodePath);
-    if (childs == null || childIndex >= childs.size()) {
+    String[] childs = item.childs;
+    if (childIndex < 0 || childIndex >= childs.length) {
       return null;
     }
-    return childs.get(childIndex);
+    return childs[childIndex];
   }
 
   public int getNumChildren(String nodePath) {
-    if (!cache.containsKey(nodePath)) {
-      // if (!manager.watchers.containsKey(nodePath)) {
-      LOG.error("CACHE MISS! getNumChildren(). path: {}", nodePath);
+    Item item = lookup(nodePath);
+    if (item == null) {
       return 0;
     }
-    Item item = cache.get(nodePath);
-    if (item == null || item.childs == null) {
-      return 0;
-    }
-    return item.childs.size();
+    return item.childs.length;
   }
 
+  /**
+   * @param nodePath
+   * @return the sorted, unmodifiable children of the node, empty until it is
+   * cached
+   */
   public List<String> getChildren(String nodePath) {
-    if (!cache.containsKey(nodePath)) {
-      // if (!manager.watchers.containsKey(nodePath)) {
-      LOG.error("CACHE MISS! getChildren(). path: " + nodePath);
+    Item item = lookup(nodePath);
+    if (item == null) {
       return Collections.emptyList();
     }
-    // sort it
-    List<String> childs = cache.get(nodePath).childs;
-    Collections.sort(childs);
-    return childs;
+    return new ChildList(item.childs);
   }
 
   /**
-   * remove all cached items start with prefix
+   * @param parentPath
+   * @param child      - the name of the child
+   * @return the index of child within the sorted children of parentPath, or
+   * -1 if it is not a cached child
+   */
+  public int getNodeIndex(String parentPath, String child) {
+    Item item = lookup(parentPath);
+    if (item == null) {
+      return -1;
+    }
+    String[] childs = item.childs;
+    int low = 0;
+    int high = childs.length - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int cmp = childs[mid].compareTo(child);
+      if (cmp < 0) {
+        low = mid + 1;
+      } else if (cmp > 0) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @param nodePath
+   * @return true if nodePath is cached, without loading it if not
+   */
+  public boolean contains(String nodePath) {
+    return cache.get(nodePath) != null;
+  }
+
+  /**
+   * @param nodePath
+   * @return the {@link Stat} the node had when last refreshed, or null if it
+   * is not cached
+   */
+  Stat getNodeStat(String nodePath) {
+    Item item = cache.get(nodePath);
+    return item == null ? null : item.toStat();
+  }
+
+  /**
+   * remove prefix and all its cached descendants
    *
-   * @param prefix
+   * @param prefix - the path of the subtree to remove
    */
   public void removePrefix(String prefix) {
-    Iterator<Map.Entry<String, Item>> iter = cache.entrySet().iterator();
-    while (iter.hasNext()) {
-      String path = iter.next().getKey();
-      if (path.startsWith(prefix)) {
-        iter.remove();
+    cache.removeSubtree(prefix);
+  }
+
+  /**
+   * @param nodePath
+   * @param visitor  - called with every cached node in the subtree of nodePath,
+   *                 parents before children
+   */
+  public void forEachInSubtree(String nodePath, BiConsumer<String, List<String>> visitor) {
+    cache.forEachInSubtree(nodePath, (path, item) -> visitor.accept(path, new ChildList(item.childs)));
+  }
+
+  /**
+   * @return the number of cached nodes
+   */
+  public int size() {
+    return cache.size();
+  }
+
+  /**
+   * @return the estimated size of the cached nodes and their names in bytes
+   */
+  public long estimatedBytes() {
+    return cache.weight() + segments.estimatedBytes();
+  }
+
+  public long getHits() {
+    return hits.sum();
+  }
+
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  /**
+   * The children and {@link Stat} of a node, packed to keep a full ensemble
+   * snapshot in a modest heap: children are the names interned in the
+   * {@link SegmentTable}, sorted, and the stat is flattened into primitive fields. Apart from
+   * the access stamp, items are never modified once created, so readers on any
+   * thread can index into them without copying or locking.
+   * <p>
+   * A cached znode costs one trie node and one item: 150 bytes with
+   * compressed oops on JDK 17, measured on a tree of 202k nodes (2k parents
+   * of 100 leaves each), against 341 bytes with a {@link Stat} object and a
+   * name list per node. Its name is counted once, by the segment table.
+   */
+  static final class Item {
+    private static final String[] NO_CHILDREN = new String[0];
+
+    final String[] childs;
+    final long czxid;
+    final long mzxid;
+    final long ctime;
+    final long mtime;
+    final long ephemeralOwner;
+    final long pzxid;
+    final int version;
+    final int cversion;
+    final int aversion;
+    final int dataLength;
+    final int numChildren;
+    // clock value of the last read, racy updates are fine for eviction order
+    long lastAccess;
+
+    Item(List<String> childs, Stat stat, SegmentTable segments) {
+      if (childs.isEmpty()) {
+        this.childs = NO_CHILDREN;
+      } else {
+        String[] names = childs.toArray(new String[0]);
+        Arrays.sort(names);
+        for (int i = 0; i < names.length; i++) {
+          names[i] = segments.intern(names[i]);
+        }
+        this.childs = names;
+      }
+      this.czxid = stat.getCzxid();
+      this.mzxid = stat.getMzxid();
+      this.ctime = stat.getCtime();
+      this.mtime = stat.getMtime();
+      this.ephemeralOwner = stat.getEphemeralOwner();
+      this.pzxid = stat.getPzxid();
+      this.version = stat.getVersion();
+      this.cversion = stat.getCversion();
+      this.aversion = stat.getAversion();
+      this.dataLength = stat.getDataLength();
+      this.numChildren = stat.getNumChildren();
+    }
+
+    /**
+     * @return the estimated bytes of this item, its children array and its
+     * trie node with its share of the parent's child table
+     */
+    int estimatedSize() {
+      return 150 + 4 * childs.length;
+    }
+
+    /**
+     * Drop the references to the interned children names, once the item is
+     * no longer cached
+     */
+    void release(SegmentTable segments) {
+      for (String child : childs) {
+        segments.release(child);
       }
     }
+
+    Stat toStat() {
+      return new Stat(czxid, mzxid, ctime, mtime, version, cversion, aversion,
+          ephemeralOwner, dataLength, numChildren, pzxid);
+    }
   }
 
-  static class Item {
-    List<String> childs;
-    Stat zkStat;
+  /**
+   * A read-only view of the children names of an {@link Item}
+   */
+  private static final class ChildList extends AbstractList<String> implements RandomAccess {
+    private final String[] childs;
 
-    public Item(List<String> childs, Stat zkStat) {
+    ChildList(String[] childs) {
       this.childs = childs;
-      this.zkStat = zkStat;
+    }
+
+    @Override
+    public String get(int index) {
+      return childs[index];
+    }
+
+    @Override
+    public int size() {
+      return childs.length;
     }
   }
 }
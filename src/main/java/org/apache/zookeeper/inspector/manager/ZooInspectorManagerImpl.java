@@ -18,7 +18,6 @@
 package org.apache.zookeeper.inspector.manager;
 
 import org.apache.zookeeper.*;
-import org.apache.zookeeper.KeeperException.NoNodeException;
 import org.apache.zookeeper.Watcher.Event.EventType;
 import org.apache.zookeeper.Watcher.Event.KeeperState;
 import org.apache.zookeeper.ZooDefs.Ids;
@@ -28,7 +27,7 @@ import org.apache.zookeeper.data.ACL;
 import org.apache.zookeeper.data.Stat;
 import org.apache.zookeeper.inspector.encryption.BasicDataEncryptionManager;
 import org.apache.zookeeper.inspector.encryption.DataEncryptionManager;
-import org.apache.zookeeper.inspector.manager.ZooInspectorManagerCache.Item;
+import org.apache.zookeeper.retry.RetryMetrics;
 import org.apache.zookeeper.retry.ZooKeeperRetry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -36,7 +35,12 @@ import org.slf4j.LoggerFactory;
 import java.io.*;
 import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.concurrent.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A default implementation of {@link ZooInspectorManager} for connecting to zookeeper
@@ -58,6 +62,26 @@ public class ZooInspectorManagerImpl implements ZooInspectorManager {
    * The key used for the data encryption manager in the connection properties file
    */
   public static final String DATA_ENCRYPTION_MANAGER = "encryptionManager";
+  /**
+   * The optional key used for the maximum number of outstanding refresh
+   * requests in the connection properties file
+   */
+  public static final String REFRESH_WINDOW = "refreshWindow";
+  /**
+   * The optional key used for the maximum number of cached nodes in the
+   * connection properties file
+   */
+  public static final String CACHE_MAX_NODES = "cacheMaxNodes";
+  /**
+   * The optional key used for the maximum estimated size of the node cache in
+   * bytes in the connection properties file
+   */
+  public static final String CACHE_MAX_BYTES = "cacheMaxBytes";
+  /**
+   * The optional key used for the maximum number of multi() requests in
+   * flight of bulk deletes and imports in the connection properties file
+   */
+  public static final String BULK_WINDOW = "bulkWindow";
   private static final String A_VERSION = "ACL Version";
   private static final String C_TIME = "Creation Time";
   private static final String C_VERSION = "Children Version";
@@ -74,11 +98,21 @@ public class ZooInspectorManagerImpl implements ZooInspectorManager {
   private static final String ACL_ID = "Id";
   private static final String SESSION_STATE = "Session State";
   private static final String SESSION_ID = "Session ID";
+  private static final String CACHE_NODES = "Cached Nodes";
+  private static final String CACHE_BYTES = "Cache Size (estimated bytes)";
+  private static final String CACHE_HITS = "Cache Hits";
+  private static final String CACHE_MISSES = "Cache Misses";
+  private static final String CACHE_EVICTIONS = "Cache Evictions";
+  private static final String RETRIES = "Retries";
+  private static final String RETRY_BACKOFF = "Retry Backoff (ms)";
+  private static final String RETRY_GIVEN_UP = "Calls Given Up";
   private static final String homeDir = System.getProperty("user.home");
   private static final File defaultNodeViewersFile =
       new File(homeDir + "/.zooinspector/defaultNodeVeiwers.cfg");
   private static final File defaultConnectionFile =
       new File(homeDir + "/.zooinspector/defaultConnectionSettings.cfg");
+  // how long a node snapshot is shared between the node viewers
+  private static final long SNAPSHOT_TTL_MS = 5000;
 
   //  private static final File defaultNodeViewersFile =
 //      new File("./config/defaultNodeVeiwers.cfg");
@@ -93,12 +127,18 @@ public class ZooInspectorManagerImpl implements ZooInspectorManager {
   // - treeExpansion event fired
   // - selectPth event fired
   ZooInspectorManagerCache cache;
-  // experiments show that multi-thread sync-read is faster than single-thread async-read
-  // let's try it
-  ExecutorService service = Executors.newFixedThreadPool(40);
+  // pipelines getChildren requests of a refresh through the async api
+  ZooInspectorRefreshEngine refreshEngine;
+  // snapshots of recently selected nodes, shared by the node viewers
+  private final Map<String, SnapshotEntry> snapshots = new ConcurrentHashMap<>();
+  // follows changes while live mode is on
+  private ZooInspectorLiveUpdater liveUpdater;
   private DataEncryptionManager encryptionManager;
   private String connectString;
   private int sessionTimeout;
+  private int cacheMaxNodes = ZooInspectorManagerCache.DEFAULT_MAX_NODES;
+  private long cacheMaxBytes;
+  private int bulkWindow = ZooInspectorBulkOperation.DEFAULT_WINDOW;
   private ZooKeeper zooKeeper;
   private Properties lastConnectionProps;
   private String defaultEncryptionManager;
@@ -130,20 +170,25 @@ public class ZooInspectorManagerImpl implements ZooInspectorManager {
         if (connectString == null || sessionTimeout == null) {
           throw new IllegalArgumentException("Both connect string and session timeout are required.");
         }
-        if (encryptionManager == null) {
-          this.encryptionManager = new BasicDataEncryptionManager();
-        } else {
-          Class<?> clazz = Class.forName(encryptionManager);
-
-          if (Arrays.asList(clazz.getInterfaces()).contains(DataEncryptionManager.class)) {
-            this.encryptionManager =
-                (DataEncryptionManager) Class.forName(encryptionManager).newInstance();
-          } else {
-            throw new IllegalArgumentException("Data encryption manager must implement DataEncryptionManager interface");
-          }
-        }
+        this.encryptionManager = createEncryptionManager(encryptionManager);
         this.connectString = connectString;
         this.sessionTimeout = Integer.valueOf(sessionTimeout);
+        // parsed before the session is created, so a bad value cannot leave
+        // a session open
+        int refreshWindow = positiveProperty(connectionProps, REFRESH_WINDOW,
+            ZooInspectorRefreshEngine.DEFAULT_MAX_OUTSTANDING);
+        String maxNodes = connectionProps.getProperty(CACHE_MAX_NODES);
+        int cacheNodes = maxNodes == null ? this.cacheMaxNodes : Integer.parseInt(maxNodes.trim());
+        String maxBytes = connectionProps.getProperty(CACHE_MAX_BYTES);
+        long cacheBytes = maxBytes == null ? this.cacheMaxBytes : Long.parseLong(maxBytes.trim());
+        if (cacheNodes <= 0 || cacheBytes < 0) {
+          throw new IllegalArgumentException("Invalid cache bounds: " + cacheNodes
+              + " nodes, " + cacheBytes + " bytes");
+        }
+        this.cacheMaxNodes = cacheNodes;
+        this.cacheMaxBytes = cacheBytes;
+        this.bulkWindow = positiveProperty(connectionProps, BULK_WINDOW,
+            ZooInspectorBulkOperation.DEFAULT_WINDOW);
 
 //        long start = System.currentTimeMillis();
 //        System.out.println("[START] connecting...");
@@ -163,8 +208,15 @@ public class ZooInspectorManagerImpl implements ZooInspectorManager {
 //        System.out.println("[START] connected took: " + (System.currentTimeMillis() - start));
 
         connected = ((ZooKeeperRetry) this.zooKeeper).testConnection();
+
+        this.refreshEngine = new ZooInspectorRefreshEngine(this.zooKeeper, refreshWindow);
+        this.refreshEngine.setMaxFanout(ZooInspectorManagerCache.PAGE_SIZE);
+        this.refreshEngine.setProgressListener((level, completed, scheduled) ->
+            LOG.debug("Refreshed {}/{} nodes of level {}", completed, scheduled, level));
       }
     } catch (Exception e) {
+      // close the session if it was created
+      connected = false;
       e.printStackTrace();
     }
     // connected = false;
@@ -172,6 +224,7 @@ public class ZooInspectorManagerImpl implements ZooInspectorManager {
     // do initial cache refresh on all childs of "/"
     if (connected == true) {
       cache = new ZooInspectorManagerCache(this);
+      cache.setBounds(cacheMaxNodes, cacheMaxBytes);
       try {
         cache.refresh(Arrays.asList("/"), 1);
       } catch (KeeperException e) {
@@ -186,6 +239,44 @@ public class ZooInspectorManagerImpl implements ZooInspectorManager {
     return connected;
   }
 
+  /**
+   * @param props        - the connection properties
+   * @param key          - the name of the property
+   * @param defaultValue - the value if the property is not set
+   * @return the value of the property
+   * @throws IllegalArgumentException - if the value is not a positive integer
+   */
+  private static int positiveProperty(Properties props, String key, int defaultValue) {
+    String value = props.getProperty(key);
+    if (value == null) {
+      return defaultValue;
+    }
+    int n = Integer.parseInt(value.trim());
+    if (n <= 0) {
+      throw new IllegalArgumentException(key + " must be positive: " + n);
+    }
+    return n;
+  }
+
+  /**
+   * @param className - the class name of the {@link DataEncryptionManager}, or
+   *                  null for the {@link BasicDataEncryptionManager}
+   * @return a new instance of the class
+   * @throws Exception - if the class cannot be instantiated or is not a
+   *                   {@link DataEncryptionManager}
+   */
+  static DataEncryptionManager createEncryptionManager(String className) throws Exception {
+    if (className == null) {
+      return new BasicDataEncryptionManager();
+    }
+    Class<?> clazz = Class.forName(className);
+
+    if (Arrays.asList(clazz.getInterfaces()).contains(DataEncryptionManager.class)) {
+      return (DataEncryptionManager) clazz.newInstance();
+    }
+    throw new IllegalArgumentException("Data encryption manager must implement DataEncryptionManager interface");
+  }
+
   /*
    * (non-Javadoc)
    *
@@ -195,6 +286,7 @@ public class ZooInspectorManagerImpl implements ZooInspectorManager {
   public boolean disconnect() {
     try {
       if (this.zooKeeper != null) {
+        disableLiveMode();
         this.zooKeeper.close();
         this.zooKeeper = null;
         connected = false;
@@ -231,89 +323,187 @@ public class ZooInspectorManagerImpl implements ZooInspectorManager {
 
   }
 
-  Item getChildrenAndStat(String nodePath) throws KeeperException {
-    // System.out.println("getChildrenAndStat(), path: " + nodePath);
-    if (zooKeeper.getState() != States.CONNECTED) {
-      throw KeeperException.create(KeeperException.Code.CONNECTIONLOSS, nodePath);
+  void traverse(List<String> paths, int depth, ZooInspectorRefreshEngine.ChildrenHandler handler)
+      throws KeeperException {
+    refreshEngine.traverse(paths, depth, handler);
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.apache.zookeeper.inspector.manager.ZooInspectorReadOnlyManager#getData
+   * (java.lang.String)
+   */
+  @Override
+  public String getData(String nodePath) {
+    if (connected) {
+      try {
+        if (nodePath.length() == 0) {
+          nodePath = "/";
+        }
+        NodeSnapshot snapshot = getNodeSnapshot(nodePath);
+        if (snapshot != null) {
+          return this.encryptionManager.decryptData(snapshot.getData());
+        }
+      } catch (Exception e) {
+        LOG.error("Error occurred getting data for node: {}", nodePath, e);
+      }
     }
+    return null;
+  }
 
+  /*
+   * (non-Javadoc)
+   *
+   * @seeorg.apache.zookeeper.inspector.manager.ZooInspectorReadOnlyManager#
+   * getNodeSnapshot(java.lang.String)
+   */
+  @Override
+  public NodeSnapshot getNodeSnapshot(String nodePath) {
+    if (!connected) {
+      return null;
+    }
+    final long now = System.currentTimeMillis();
+    final boolean[] created = {false};
+    // viewers of the same selection ask concurrently, let them share one fetch
+    SnapshotEntry entry = snapshots.compute(nodePath, (path, e) -> {
+      if (e != null && e.expires >= now) {
+        return e;
+      }
+      created[0] = true;
+      return new SnapshotEntry(now + SNAPSHOT_TTL_MS);
+    });
+    if (created[0]) {
+      snapshots.values().removeIf(e -> e.expires < now);
+      fetchNodeSnapshot(nodePath, entry.future);
+    }
     try {
-      Stat stat = new Stat();
-      List<String> childs = zooKeeper.getChildren(nodePath, false, stat);
-      return new Item(childs, stat);
-    } catch (NoNodeException e) {
-      // OK to return null
-    } catch (KeeperException e) {
-      throw e;
-    } catch (Exception e) {
-      LOG.error("Error occurred retrieving children of node: {}", nodePath, e);
+      return entry.future.get(sessionTimeout, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException | TimeoutException e) {
+      snapshots.remove(nodePath, entry);
+      LOG.error("Error occurred retrieving node: {}", nodePath, e);
     }
     return null;
   }
 
-  Map<String, Item> getChildren(List<String> paths) {
-    int n = paths.size();
-    if (n > 0) {
-      // final List<Item> ret = new ArrayList<Item>();
-      final Map<String, Item> ret = new ConcurrentHashMap<String, ZooInspectorManagerCache.Item>();
-      final CountDownLatch cntDown = new CountDownLatch(n);
-
-      for (final String path : paths) {
-        service.submit(new Callable<String>() {
-
-          @Override
-          public String call() throws Exception {
-            Stat stat = null;
-            List<String> childs = null;
-            try {
-              stat = new Stat();
-              childs = zooKeeper.getChildren(path, false, stat);
-            } catch (Exception e) {
-              // System.out.println("exception: " + e);
-            } finally {
-              // ret.add(new Item(childs, stat));
-              ret.put(path, new Item(childs, stat));
-              cntDown.countDown();
-            }
-            return null;
-          }
-        });
+  /**
+   * Send the getData, getACL and getChildren requests of a node back to back,
+   * so the whole snapshot costs a single round trip. The future completes with
+   * null if the node does not exist.
+   */
+  void fetchNodeSnapshot(final String nodePath, final CompletableFuture<NodeSnapshot> result) {
+    fetchNodeSnapshot(nodePath, true, result);
+  }
+
+  /**
+   * As {@link #fetchNodeSnapshot(String, CompletableFuture)}, leaving out the
+   * getACL request unless withAcls is set
+   */
+  void fetchNodeSnapshot(final String nodePath, boolean withAcls,
+                         final CompletableFuture<NodeSnapshot> result) {
+    final Stat stat = new Stat();
+    final byte[][] data = new byte[1][];
+    final List<List<ACL>> acls = new ArrayList<>(Collections.singletonList(null));
+    final List<List<String>> children = new ArrayList<>(Collections.singletonList(null));
+    final AtomicInteger pending = new AtomicInteger(withAcls ? 3 : 2);
+
+    final Runnable complete = () -> {
+      if (pending.decrementAndGet() == 0) {
+        result.complete(new NodeSnapshot(nodePath, data[0], stat, acls.get(0), children.get(0)));
       }
+    };
 
-      try {
-        cntDown.await();
-      } catch (InterruptedException e) {
-        // TODO Auto-generated catch block
-        e.printStackTrace();
+    zooKeeper.getData(nodePath, false, (rc, path, ctx, bytes, s) -> {
+      if (fail(rc, path, result)) {
+        return;
       }
-      return ret;
+      data[0] = bytes;
+      copyStat(s, stat);
+      complete.run();
+    }, null);
+    if (withAcls) {
+      zooKeeper.getACL(nodePath, new Stat(), (rc, path, ctx, acl, s) -> {
+        if (fail(rc, path, result)) {
+          return;
+        }
+        acls.set(0, acl);
+        complete.run();
+      }, null);
+    }
+    zooKeeper.getChildren(nodePath, false, (rc, path, ctx, names, s) -> {
+      if (fail(rc, path, result)) {
+        return;
+      }
+      children.set(0, names);
+      complete.run();
+    }, null);
+  }
+
+  private static boolean fail(int rc, String path, CompletableFuture<NodeSnapshot> result) {
+    KeeperException.Code code = KeeperException.Code.get(rc);
+    if (code == KeeperException.Code.OK) {
+      return false;
+    }
+    if (code == KeeperException.Code.NONODE) {
+      result.complete(null);
+    } else {
+      result.completeExceptionally(KeeperException.create(code, path));
     }
+    return true;
+  }
+
+  private static void copyStat(Stat from, Stat to) {
+    to.setCzxid(from.getCzxid());
+    to.setMzxid(from.getMzxid());
+    to.setCtime(from.getCtime());
+    to.setMtime(from.getMtime());
+    to.setVersion(from.getVersion());
+    to.setCversion(from.getCversion());
+    to.setAversion(from.getAversion());
+    to.setEphemeralOwner(from.getEphemeralOwner());
+    to.setDataLength(from.getDataLength());
+    to.setNumChildren(from.getNumChildren());
+    to.setPzxid(from.getPzxid());
+  }
 
-    return Collections.emptyMap();
+  void invalidateSnapshot(String nodePath) {
+    snapshots.remove(nodePath);
   }
 
   /*
    * (non-Javadoc)
    *
-   * @see org.apache.zookeeper.inspector.manager.ZooInspectorReadOnlyManager#getData
-   * (java.lang.String)
+   * @see org.apache.zookeeper.inspector.manager.ZooInspectorReadOnlyManager#exportNodes
+   * (java.lang.String, java.io.File, boolean,
+   * org.apache.zookeeper.inspector.manager.BulkProgressListener)
    */
   @Override
-  public String getData(String nodePath) {
+  public boolean exportNodes(String nodePath, File target, boolean compress,
+                             BulkProgressListener listener) {
     if (connected) {
-      try {
-        if (nodePath.length() == 0) {
-          nodePath = "/";
-        }
-        Stat s = zooKeeper.exists(nodePath, false);
-        if (s != null) {
-          return this.encryptionManager.decryptData(zooKeeper.getData(nodePath, false, s));
-        }
+      String path = nodePath.isEmpty() ? "/" : nodePath;
+      boolean exported = false;
+      try (NodeDumpWriter writer = NodeDumpWriter.create(target.toPath(), compress)) {
+        // every node costs a getData, getACL and getChildren request
+        int window = Math.max(1, refreshEngine.getMaxOutstanding() / 3);
+        long start = System.currentTimeMillis();
+        long count = new ZooInspectorExport(this, window, listener).export(path, writer);
+        LOG.info("Exported {} nodes below {} in {} ms", count, path,
+            System.currentTimeMillis() - start);
+        exported = true;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
       } catch (Exception e) {
-        LOG.error("Error occurred getting data for node: {}", nodePath, e);
+        LOG.error("Error occurred exporting node: {} to: {}", path, target, e);
       }
+      if (!exported && !target.delete()) {
+        LOG.warn("Unable to delete incomplete export: {}", target);
+      }
+      return exported;
     }
-    return null;
+    return false;
   }
 
   /*
@@ -365,14 +555,12 @@ public class ZooInspectorManagerImpl implements ZooInspectorManager {
           || (!nodePath.equals("/") && nodePath.charAt(nodePath.length() - 1) == '/')) {
         throw new IllegalArgumentException("Invalid node path: " + nodePath);
       }
-      String parentPath = nodePath.substring(0, index);
-      String child = nodePath.substring(index + 1);
-      if (parentPath != null && parentPath.length() > 0) {
-        List<String> children = this.getChildren(parentPath);
-        if (children != null) {
-          return children.indexOf(child);
-        }
+      if (nodePath.equals("/")) {
+        return -1;
       }
+      String parentPath = index == 0 ? "/" : nodePath.substring(0, index);
+      String child = nodePath.substring(index + 1);
+      return cache.getNodeIndex(parentPath, child);
     }
     return -1;
   }
@@ -391,53 +579,11 @@ public class ZooInspectorManagerImpl implements ZooInspectorManager {
         if (nodePath.length() == 0) {
           nodePath = "/";
         }
-        Stat s = zooKeeper.exists(nodePath, false);
-        if (s != null) {
-          List<ACL> acls = zooKeeper.getACL(nodePath, s);
-          for (ACL acl : acls) {
-            Map<String, String> aclMap = new LinkedHashMap<String, String>();
-            aclMap.put(ACL_SCHEME, acl.getId().getScheme());
-            aclMap.put(ACL_ID, acl.getId().getId());
-            StringBuilder sb = new StringBuilder();
-            int perms = acl.getPerms();
-            boolean addedPerm = false;
-            if ((perms & Perms.READ) == Perms.READ) {
-              sb.append("Read");
-              addedPerm = true;
-            }
-            if (addedPerm) {
-              sb.append(", ");
-            }
-            if ((perms & Perms.WRITE) == Perms.WRITE) {
-              sb.append("Write");
-              addedPerm = true;
-            }
-            if (addedPerm) {
-              sb.append(", ");
-            }
-            if ((perms & Perms.CREATE) == Perms.CREATE) {
-              sb.append("Create");
-              addedPerm = true;
-            }
-            if (addedPerm) {
-              sb.append(", ");
-            }
-            if ((perms & Perms.DELETE) == Perms.DELETE) {
-              sb.append("Delete");
-              addedPerm = true;
-            }
-            if (addedPerm) {
-              sb.append(", ");
-            }
-            if ((perms & Perms.ADMIN) == Perms.ADMIN) {
-              sb.append("Admin");
-              addedPerm = true;
-            }
-            aclMap.put(ACL_PERMS, sb.toString());
-            returnACLs.add(aclMap);
-          }
+        NodeSnapshot snapshot = getNodeSnapshot(nodePath);
+        if (snapshot != null) {
+          returnACLs = describeACLs(snapshot.getACLs());
         }
-      } catch (InterruptedException | KeeperException e) {
+      } catch (Exception e) {
         LOG.error("Error occurred retrieving ACLs of node: {}", nodePath, e);
       }
     }
@@ -458,22 +604,9 @@ public class ZooInspectorManagerImpl implements ZooInspectorManager {
         if (nodePath.length() == 0) {
           nodePath = "/";
         }
-        Stat s = zooKeeper.exists(nodePath, false);
-        if (s != null) {
-          SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS z");
-          nodeMeta.put(A_VERSION, String.valueOf(s.getAversion()));
-          // nodeMeta.put(C_TIME, String.valueOf(s.getCtime()));
-          nodeMeta.put(C_TIME, format.format(new Date(s.getCtime())));
-          nodeMeta.put(C_VERSION, String.valueOf(s.getCversion()));
-          nodeMeta.put(CZXID, "0x" + Long.toHexString(s.getCzxid()));
-          nodeMeta.put(DATA_LENGTH, String.valueOf(s.getDataLength()));
-          nodeMeta.put(EPHEMERAL_OWNER, "0x" + Long.toHexString(s.getEphemeralOwner()));
-          // nodeMeta.put(M_TIME, String.valueOf(s.getMtime()));
-          nodeMeta.put(M_TIME, format.format(new Date(s.getMtime())));
-          nodeMeta.put(MZXID, "0x" + Long.toHexString(s.getMzxid()));
-          nodeMeta.put(NUM_CHILDREN, String.valueOf(s.getNumChildren()));
-          nodeMeta.put(PZXID, "0x" + Long.toHexString(s.getPzxid()));
-          nodeMeta.put(VERSION, String.valueOf(s.getVersion()));
+        NodeSnapshot snapshot = getNodeSnapshot(nodePath);
+        if (snapshot != null) {
+          nodeMeta = describeStat(snapshot.getStat());
         }
       } catch (Exception e) {
         LOG.error("Error occurred retrieving meta data for node: {}", nodePath, e);
@@ -482,6 +615,80 @@ public class ZooInspectorManagerImpl implements ZooInspectorManager {
     return nodeMeta;
   }
 
+  /**
+   * @param acls - the ACLs of a node
+   * @return the ACLs as shown by the ACL node viewer
+   */
+  static List<Map<String, String>> describeACLs(List<ACL> acls) {
+    List<Map<String, String>> returnACLs = new ArrayList<Map<String, String>>();
+    for (ACL acl : acls) {
+      Map<String, String> aclMap = new LinkedHashMap<String, String>();
+      aclMap.put(ACL_SCHEME, acl.getId().getScheme());
+      aclMap.put(ACL_ID, acl.getId().getId());
+      StringBuilder sb = new StringBuilder();
+      int perms = acl.getPerms();
+      boolean addedPerm = false;
+      if ((perms & Perms.READ) == Perms.READ) {
+        sb.append("Read");
+        addedPerm = true;
+      }
+      if (addedPerm) {
+        sb.append(", ");
+      }
+      if ((perms & Perms.WRITE) == Perms.WRITE) {
+        sb.append("Write");
+        addedPerm = true;
+      }
+      if (addedPerm) {
+        sb.append(", ");
+      }
+      if ((perms & Perms.CREATE) == Perms.CREATE) {
+        sb.append("Create");
+        addedPerm = true;
+      }
+      if (addedPerm) {
+        sb.append(", ");
+      }
+      if ((perms & Perms.DELETE) == Perms.DELETE) {
+        sb.append("Delete");
+        addedPerm = true;
+      }
+      if (addedPerm) {
+        sb.append(", ");
+      }
+      if ((perms & Perms.ADMIN) == Perms.ADMIN) {
+        sb.append("Admin");
+        addedPerm = true;
+      }
+      aclMap.put(ACL_PERMS, sb.toString());
+      returnACLs.add(aclMap);
+    }
+    return returnACLs;
+  }
+
+  /**
+   * @param s - the {@link Stat} of a node
+   * @return the stat as shown by the meta data node viewer
+   */
+  static Map<String, String> describeStat(Stat s) {
+    Map<String, String> nodeMeta = new LinkedHashMap<String, String>();
+    SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS z");
+    nodeMeta.put(A_VERSION, String.valueOf(s.getAversion()));
+    // nodeMeta.put(C_TIME, String.valueOf(s.getCtime()));
+    nodeMeta.put(C_TIME, format.format(new Date(s.getCtime())));
+    nodeMeta.put(C_VERSION, String.valueOf(s.getCversion()));
+    nodeMeta.put(CZXID, "0x" + Long.toHexString(s.getCzxid()));
+    nodeMeta.put(DATA_LENGTH, String.valueOf(s.getDataLength()));
+    nodeMeta.put(EPHEMERAL_OWNER, "0x" + Long.toHexString(s.getEphemeralOwner()));
+    // nodeMeta.put(M_TIME, String.valueOf(s.getMtime()));
+    nodeMeta.put(M_TIME, format.format(new Date(s.getMtime())));
+    nodeMeta.put(MZXID, "0x" + Long.toHexString(s.getMzxid()));
+    nodeMeta.put(NUM_CHILDREN, String.valueOf(s.getNumChildren()));
+    nodeMeta.put(PZXID, "0x" + Long.toHexString(s.getPzxid()));
+    nodeMeta.put(VERSION, String.valueOf(s.getVersion()));
+    return nodeMeta;
+  }
+
   /*
    * (non-Javadoc)
    *
@@ -536,7 +743,12 @@ public class ZooInspectorManagerImpl implements ZooInspectorManager {
   public boolean isAllowsChildren(String nodePath) {
     if (connected) {
       try {
-        Stat s = zooKeeper.exists(nodePath, false);
+        // the cached stat is good enough, ephemeral owners never change
+        Stat s = cache.getNodeStat(nodePath);
+        if (s == null) {
+          NodeSnapshot snapshot = getNodeSnapshot(nodePath);
+          s = snapshot == null ? null : snapshot.getStat();
+        }
         if (s != null) {
           return s.getEphemeralOwner() == 0;
         }
@@ -563,6 +775,21 @@ public class ZooInspectorManagerImpl implements ZooInspectorManager {
         sessionMeta.put(SESSION_STATE, String.valueOf(zooKeeper.getState().toString()));
         sessionMeta.put(CONNECT_STRING, this.connectString);
         sessionMeta.put(SESSION_TIMEOUT, String.valueOf(this.sessionTimeout));
+        if (zooKeeper instanceof ZooKeeperRetry) {
+          RetryMetrics metrics = ((ZooKeeperRetry) zooKeeper).getRetryMetrics();
+          sessionMeta.put(RETRIES, String.valueOf(metrics.getRetries()));
+          sessionMeta.put(RETRY_BACKOFF, String.valueOf(metrics.getBackoffMs()));
+          sessionMeta.put(RETRY_GIVEN_UP,
+              String.valueOf(metrics.getGivenUp() + metrics.getBudgetExhausted()));
+        }
+      }
+      ZooInspectorManagerCache cache = this.cache;
+      if (cache != null) {
+        sessionMeta.put(CACHE_NODES, String.valueOf(cache.size()));
+        sessionMeta.put(CACHE_BYTES, String.valueOf(cache.estimatedBytes()));
+        sessionMeta.put(CACHE_HITS, String.valueOf(cache.getHits()));
+        sessionMeta.put(CACHE_MISSES, String.valueOf(cache.getMisses()));
+        sessionMeta.put(CACHE_EVICTIONS, String.valueOf(cache.getEvictions()));
       }
     } catch (Exception e) {
       LOG.error("Error occurred retrieving session meta data.", e);
@@ -579,12 +806,18 @@ public class ZooInspectorManagerImpl implements ZooInspectorManager {
   @Override
   public boolean createNode(String parent, String nodeName) {
     if (zooKeeper.getState() == States.CONNECTED) {
+      String parentPath = parent.isEmpty() ? "/" : parent;
+      // the nodes whose snapshots may be out of date, a cached NONODE of a
+      // created node included
+      List<String> changed = new ArrayList<>();
+      changed.add(parentPath);
       try {
         String[] nodeElements = nodeName.split("/");
         for (String nodeElement : nodeElements) {
           String node = parent + "/" + nodeElement;
           Stat s = zooKeeper.exists(node, false);
           if (s == null) {
+            changed.add(node);
             zooKeeper.create(node,
                 this.encryptionManager.encryptData(null),
                 Ids.OPEN_ACL_UNSAFE,
@@ -595,6 +828,10 @@ public class ZooInspectorManagerImpl implements ZooInspectorManager {
         return true;
       } catch (Exception e) {
         LOG.error("Error occurred creating node: {}/{}", parent, nodeName, e);
+      } finally {
+        for (String path : changed) {
+          invalidateSnapshot(path);
+        }
       }
     }
     return false;
@@ -608,22 +845,66 @@ public class ZooInspectorManagerImpl implements ZooInspectorManager {
    */
   @Override
   public boolean deleteNode(String nodePath) {
+    return deleteNodes(Collections.singletonList(nodePath));
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.apache.zookeeper.inspector.manager.ZooInspectorNodeTreeManager#deleteNodes
+   * (java.util.List)
+   */
+  @Override
+  public boolean deleteNodes(List<String> nodePaths) {
     if (zooKeeper.getState() == States.CONNECTED) {
       try {
-        // Stat s = zooKeeper.exists(nodePath, false);
-        // if (s != null) {
-        List<String> children = zooKeeper.getChildren(nodePath, false);
-        if (children != null) {
-          for (String child : children) {
-            String node = nodePath + "/" + child;
-            deleteNode(node);
+        ZooInspectorBulkDelete bulkDelete = new ZooInspectorBulkDelete(zooKeeper,
+            refreshEngine.getMaxOutstanding(), bulkWindow,
+            (completed, total) -> LOG.debug("Deleted {}/{} nodes", completed, total));
+        try {
+          return bulkDelete.delete(nodePaths);
+        } finally {
+          for (String nodePath : nodePaths) {
+            snapshots.keySet().removeIf(p -> ZooInspectorBulkDelete.isBelow(p, nodePath));
+            String parent = ZooInspectorRefreshEngine.parentOf(nodePath);
+            if (parent != null) {
+              invalidateSnapshot(parent);
+            }
           }
         }
-        zooKeeper.delete(nodePath, -1);
-        // }
-        return true;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
       } catch (Exception e) {
-        LOG.error("Error occurred deleting node: {}", nodePath, e);
+        LOG.error("Error occurred deleting nodes: {}", nodePaths, e);
+      }
+    }
+    return false;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.apache.zookeeper.inspector.manager.ZooInspectorNodeTreeManager#importNodes
+   * (java.lang.String, java.io.File,
+   * org.apache.zookeeper.inspector.manager.BulkProgressListener)
+   */
+  @Override
+  public boolean importNodes(String parent, File source, BulkProgressListener listener) {
+    if (zooKeeper.getState() == States.CONNECTED) {
+      String parentPath = parent.isEmpty() ? "/" : parent;
+      try (ZooInspectorBulkImport.Source nodes =
+               ZooInspectorBulkImport.open(source, this.encryptionManager)) {
+        ZooInspectorBulkImport bulkImport =
+            new ZooInspectorBulkImport(zooKeeper, bulkWindow, listener);
+        try {
+          return bulkImport.importNodes(parentPath, nodes);
+        } finally {
+          invalidateSnapshot(parentPath);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (Exception e) {
+        LOG.error("Error occurred importing nodes below: {} from: {}", parentPath, source, e);
       }
     }
     return false;
@@ -640,6 +921,7 @@ public class ZooInspectorManagerImpl implements ZooInspectorManager {
     if (connected) {
       try {
         zooKeeper.setData(nodePath, this.encryptionManager.encryptData(data), -1);
+        invalidateSnapshot(nodePath);
       } catch (Exception e) {
         LOG.error("Error occurred setting data for node: {}", nodePath, e);
       }
@@ -743,6 +1025,7 @@ public class ZooInspectorManagerImpl implements ZooInspectorManager {
       result.add("org.apache.zookeeper.inspector.gui.nodeviewer.NodeViewerData");
       result.add("org.apache.zookeeper.inspector.gui.nodeviewer.NodeViewerMetaData");
       result.add("org.apache.zookeeper.inspector.gui.nodeviewer.NodeViewerACL");
+      result.add("org.apache.zookeeper.inspector.gui.nodeviewer.NodeViewerHex");
     }
     return result;
   }
@@ -911,6 +1194,37 @@ public class ZooInspectorManagerImpl implements ZooInspectorManager {
     this.lastConnectionProps = connectionProps;
   }
 
+  @Override
+  public synchronized boolean enableLiveMode(String root, NodeListener listener) {
+    if (!connected) {
+      return false;
+    }
+    disableLiveMode();
+    ZooInspectorLiveUpdater updater = new ZooInspectorLiveUpdater(zooKeeper, this, root, listener);
+    try {
+      updater.start();
+    } catch (Exception e) {
+      LOG.error("Error occurred enabling live mode on: {}", root, e);
+      updater.stop();
+      return false;
+    }
+    liveUpdater = updater;
+    return true;
+  }
+
+  @Override
+  public synchronized void disableLiveMode() {
+    if (liveUpdater != null) {
+      liveUpdater.stop();
+      liveUpdater = null;
+    }
+  }
+
+  @Override
+  public boolean isReadOnly() {
+    return false;
+  }
+
   @Override
   public ZooInspectorManagerCache getCache() {
     return cache;
@@ -958,6 +1272,9 @@ public class ZooInspectorManagerImpl implements ZooInspectorManager {
 
     @Override
     public void process(WatchedEvent event) {
+      if (event.getPath() != null) {
+        invalidateSnapshot(event.getPath());
+      }
       if (!closed) {
         try {
           if (event.getType() != EventType.NodeDeleted) {
@@ -989,4 +1306,12 @@ public class ZooInspectorManagerImpl implements ZooInspectorManager {
     }
   }
 
+  private static class SnapshotEntry {
+    final long expires;
+    final CompletableFuture<NodeSnapshot> future = new CompletableFuture<>();
+
+    SnapshotEntry(long expires) {
+      this.expires = expires;
+    }
+  }
 }
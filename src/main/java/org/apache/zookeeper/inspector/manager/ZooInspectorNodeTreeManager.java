@@ -17,6 +17,9 @@
  */
 package org.apache.zookeeper.inspector.manager;
 
+import java.io.File;
+import java.util.List;
+
 /**
  * A Manager for all interactions between the application and the node tree in a
  * Zookeeper instance
@@ -37,4 +40,23 @@ public interface ZooInspectorNodeTreeManager extends
    */
   boolean deleteNode(String nodePath);
 
+  /**
+   * Delete nodes and everything below them in bulk
+   *
+   * @param nodePaths - the paths to the nodes to delete
+   * @return true if all nodes were successfully deleted
+   */
+  boolean deleteNodes(List<String> nodePaths);
+
+  /**
+   * Create the nodes described by a directory, or a JSON or NDJSON file, in
+   * bulk
+   *
+   * @param parent   - the path of the node to create the imported subtree below
+   * @param source   - the directory or file describing the subtree
+   * @param listener - notified as nodes are created, may be null
+   * @return true if all nodes were successfully created or existed already
+   */
+  boolean importNodes(String parent, File source, BulkProgressListener listener);
+
 }
\ No newline at end of file
@@ -0,0 +1,540 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.zookeeper.inspector.manager;
+
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.ZooKeeper.States;
+import org.apache.zookeeper.data.Stat;
+import org.apache.zookeeper.inspector.encryption.DataEncryptionManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * A read-only {@link ZooInspectorManager} browsing a dump file instead of a
+ * zookeeper session. Nodes are served from a {@link NodeDumpIndex}, so opening
+ * a dump costs one pass to index it the first time and nothing after, and a
+ * node is read from the mapped file only when the tree or a node viewer asks
+ * for it.
+ * <p>
+ * A zookeeper server snapshot opens the same way, converted to a temporary
+ * dump by a {@link SnapshotConverter} after replaying the transaction logs
+ * up to the chosen zxid.
+ * <p>
+ * The node viewer configuration is shared with another manager, typically
+ * the one of the live session the dump was opened from.
+ */
+public class ZooInspectorOfflineManager implements ZooInspectorManager {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ZooInspectorOfflineManager.class);
+
+  /**
+   * The connection property holding the path of the dump file
+   */
+  public static final String DUMP_FILE = "dumpFile";
+  /**
+   * The connection property holding the directory of the transaction logs to
+   * replay on a snapshot, the directory of the snapshot if empty
+   */
+  public static final String TXN_LOG_DIR = "txnLogDir";
+  /**
+   * The connection property holding the zxid of the last transaction to
+   * replay on a snapshot, all of them if empty
+   */
+  public static final String REPLAY_ZXID = "replayZxid";
+  private static final String SNAPSHOT_ZXID = "Snapshot Zxid";
+  private static final String REPLAYED_ZXID = "Replayed To Zxid";
+  private static final String REPLAYED = "Replayed Transactions";
+  private static final String NODES = "Indexed Nodes";
+  private static final String CACHE_NODES = "Cached Nodes";
+  private static final String CACHE_HITS = "Cache Hits";
+  private static final String CACHE_MISSES = "Cache Misses";
+
+  private final ZooInspectorManager settings;
+  private volatile NodeDumpIndex index;
+  private volatile ZooInspectorManagerCache cache;
+  private volatile SnapshotConverter converter;
+  private DataEncryptionManager encryptionManager;
+  private Properties lastConnectionProps;
+
+  /**
+   * @param settings - the manager to load and save the node viewer
+   *                 configuration with
+   */
+  public ZooInspectorOfflineManager(ZooInspectorManager settings) {
+    this.settings = settings;
+  }
+
+  /**
+   * @param file - the file to check
+   * @return true if the file is a zookeeper snapshot rather than a dump
+   */
+  public static boolean isSnapshot(File file) {
+    return SnapshotConverter.isSnapshot(file);
+  }
+
+  @Override
+  public boolean connect(Properties connectionProps) {
+    disconnect();
+    String file = connectionProps.getProperty(DUMP_FILE);
+    if (file == null || file.trim().isEmpty()) {
+      LOG.error("No dump file to open");
+      return false;
+    }
+    try {
+      this.encryptionManager = ZooInspectorManagerImpl.createEncryptionManager(
+          connectionProps.getProperty(ZooInspectorManagerImpl.DATA_ENCRYPTION_MANAGER));
+      long start = System.currentTimeMillis();
+      File dumpFile = new File(file.trim());
+      NodeDumpIndex index;
+      // checked first, as snapshots may be gzip compressed like dumps
+      if (SnapshotConverter.isSnapshot(dumpFile)) {
+        index = openSnapshot(dumpFile, connectionProps);
+      } else {
+        index = NodeDumpIndex.open(dumpFile.toPath());
+      }
+      LOG.info("Opened {} nodes of {} in {} ms", index.getNodeCount(), file,
+          System.currentTimeMillis() - start);
+      this.index = index;
+      ZooInspectorManagerCache cache = new ZooInspectorManagerCache(new IndexLoader(index));
+      String maxNodes = connectionProps.getProperty(ZooInspectorManagerImpl.CACHE_MAX_NODES);
+      if (maxNodes != null) {
+        cache.setBounds(Integer.parseInt(maxNodes.trim()), 0);
+      }
+      cache.refresh(Collections.singletonList("/"), 1);
+      this.cache = cache;
+      return true;
+    } catch (Exception e) {
+      LOG.error("Error occurred opening dump file: {}", file, e);
+      disconnect();
+    }
+    return false;
+  }
+
+  private NodeDumpIndex openSnapshot(File snapshot, Properties connectionProps)
+      throws IOException {
+    String logDir = connectionProps.getProperty(TXN_LOG_DIR, "").trim();
+    String zxid = connectionProps.getProperty(REPLAY_ZXID, "").trim();
+    SnapshotConverter converter = new SnapshotConverter(snapshot,
+        logDir.isEmpty() ? snapshot.getAbsoluteFile().getParentFile() : new File(logDir),
+        zxid.isEmpty() ? Long.MAX_VALUE : Long.decode(zxid));
+    Path dump = Files.createTempFile("zooinspector-", ".dump");
+    try {
+      try (NodeDumpWriter writer = NodeDumpWriter.create(dump, false)) {
+        converter.convert(writer);
+      }
+      NodeDumpIndex index = NodeDumpIndex.openTemporary(dump);
+      this.converter = converter;
+      return index;
+    } catch (IOException | RuntimeException e) {
+      Files.deleteIfExists(dump);
+      throw e;
+    }
+  }
+
+  @Override
+  public boolean disconnect() {
+    NodeDumpIndex index = this.index;
+    if (index == null) {
+      return false;
+    }
+    this.index = null;
+    this.converter = null;
+    this.cache = null;
+    try {
+      index.close();
+    } catch (IOException e) {
+      LOG.warn("Error occurred closing dump file: {}", index.getPath(), e);
+    }
+    return true;
+  }
+
+  @Override
+  public String getData(String nodePath) {
+    NodeSnapshot snapshot = getNodeSnapshot(nodePath);
+    if (snapshot != null) {
+      try {
+        return this.encryptionManager.decryptData(snapshot.getData());
+      } catch (Exception e) {
+        LOG.error("Error occurred getting data for node: {}", nodePath, e);
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public NodeSnapshot getNodeSnapshot(String nodePath) {
+    NodeDumpIndex index = this.index;
+    if (index != null) {
+      String path = nodePath.isEmpty() ? "/" : nodePath;
+      int node = index.find(path);
+      if (node >= 0) {
+        try {
+          return index.read(node, path);
+        } catch (IOException e) {
+          LOG.error("Error occurred reading node: {}", path, e);
+        }
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public boolean exportNodes(String nodePath, File target, boolean compress,
+                             BulkProgressListener listener) {
+    NodeDumpIndex index = this.index;
+    if (index == null) {
+      return false;
+    }
+    String path = nodePath.isEmpty() ? "/" : nodePath;
+    int root = index.find(path);
+    boolean exported = false;
+    try (NodeDumpWriter writer = NodeDumpWriter.create(target.toPath(), compress)) {
+      if (root < 0) {
+        throw KeeperException.create(KeeperException.Code.NONODE, path);
+      }
+      // depth first like a live export, parents before children
+      Deque<Object[]> stack = new ArrayDeque<>();
+      stack.push(new Object[]{root, path});
+      while (!stack.isEmpty()) {
+        Object[] next = stack.pop();
+        int node = (Integer) next[0];
+        String p = (String) next[1];
+        writer.write(index.read(node, p));
+        if (listener != null) {
+          listener.bulkProgress(writer.getCount(), -1);
+        }
+        int first = index.getFirstChild(node);
+        List<String> children = index.getChildren(node);
+        for (int i = children.size() - 1; i >= 0; i--) {
+          stack.push(new Object[]{first + i, ZooInspectorRefreshEngine.childPath(p, children.get(i))});
+        }
+      }
+      writer.finish();
+      exported = true;
+    } catch (Exception e) {
+      LOG.error("Error occurred exporting node: {} to: {}", path, target, e);
+    }
+    if (!exported && !target.delete()) {
+      LOG.warn("Unable to delete incomplete export: {}", target);
+    }
+    return exported;
+  }
+
+  @Override
+  public Map<String, String> getNodeMeta(String nodePath) {
+    NodeSnapshot snapshot = getNodeSnapshot(nodePath);
+    if (snapshot == null) {
+      return new LinkedHashMap<String, String>();
+    }
+    return ZooInspectorManagerImpl.describeStat(snapshot.getStat());
+  }
+
+  @Override
+  public List<Map<String, String>> getACLs(String nodePath) {
+    NodeSnapshot snapshot = getNodeSnapshot(nodePath);
+    if (snapshot == null) {
+      return new ArrayList<Map<String, String>>();
+    }
+    return ZooInspectorManagerImpl.describeACLs(snapshot.getACLs());
+  }
+
+  @Override
+  public Map<String, String> getSessionMeta() {
+    Map<String, String> sessionMeta = new LinkedHashMap<String, String>();
+    NodeDumpIndex index = this.index;
+    SnapshotConverter converter = this.converter;
+    if (index != null) {
+      sessionMeta.put(DUMP_FILE, converter != null ? converter.getSnapshot().getPath()
+          : index.getPath().toString());
+      sessionMeta.put(NODES, String.valueOf(index.getNodeCount()));
+    }
+    if (converter != null) {
+      sessionMeta.put(SNAPSHOT_ZXID, "0x" + Long.toHexString(converter.getSnapshotZxid()));
+      sessionMeta.put(REPLAYED_ZXID, "0x" + Long.toHexString(converter.getLastZxid()));
+      sessionMeta.put(REPLAYED, String.valueOf(converter.getTransactions()));
+    }
+    ZooInspectorManagerCache cache = this.cache;
+    if (cache != null) {
+      sessionMeta.put(CACHE_NODES, String.valueOf(cache.size()));
+      sessionMeta.put(CACHE_HITS, String.valueOf(cache.getHits()));
+      sessionMeta.put(CACHE_MISSES, String.valueOf(cache.getMisses()));
+    }
+    return sessionMeta;
+  }
+
+  @Override
+  public boolean hasChildren(String nodePath) {
+    return getNumChildren(nodePath) > 0;
+  }
+
+  @Override
+  public int getNodeIndex(String nodePath) {
+    ZooInspectorManagerCache cache = this.cache;
+    if (cache != null) {
+      String parent = ZooInspectorRefreshEngine.parentOf(nodePath);
+      if (parent == null) {
+        return -1;
+      }
+      return cache.getNodeIndex(parent, nodePath.substring(nodePath.lastIndexOf('/') + 1));
+    }
+    return -1;
+  }
+
+  @Override
+  public int getNumChildren(String nodePath) {
+    ZooInspectorManagerCache cache = this.cache;
+    if (cache != null) {
+      return cache.getNumChildren(nodePath);
+    }
+    return -1;
+  }
+
+  @Override
+  public String getNodeChild(String nodePath, int childIndex) {
+    ZooInspectorManagerCache cache = this.cache;
+    if (cache != null) {
+      return cache.getNodeChild(nodePath, childIndex);
+    }
+    return null;
+  }
+
+  @Override
+  public boolean isAllowsChildren(String nodePath) {
+    ZooInspectorManagerCache cache = this.cache;
+    if (cache != null) {
+      Stat s = cache.getNodeStat(nodePath);
+      if (s == null) {
+        NodeSnapshot snapshot = getNodeSnapshot(nodePath);
+        s = snapshot == null ? null : snapshot.getStat();
+      }
+      return s != null && s.getEphemeralOwner() == 0;
+    }
+    return false;
+  }
+
+  @Override
+  public List<String> getChildren(String nodePath) {
+    ZooInspectorManagerCache cache = this.cache;
+    if (cache != null) {
+      return cache.getChildren(nodePath);
+    }
+    return null;
+  }
+
+  @Override
+  public ZooInspectorManagerCache getCache() {
+    return cache;
+  }
+
+  /**
+   * @return {@link States#CONNECTED} while a dump is open, null otherwise
+   */
+  @Override
+  public States getZookeeperStates() {
+    return index == null ? null : States.CONNECTED;
+  }
+
+  @Override
+  public void setData(String nodePath, String data) {
+    LOG.warn("Unable to set data of node: {}, the dump is read only", nodePath);
+  }
+
+  @Override
+  public boolean createNode(String parent, String nodeName) {
+    LOG.warn("Unable to create node: {}/{}, the dump is read only", parent, nodeName);
+    return false;
+  }
+
+  @Override
+  public boolean deleteNode(String nodePath) {
+    return deleteNodes(Collections.singletonList(nodePath));
+  }
+
+  @Override
+  public boolean deleteNodes(List<String> nodePaths) {
+    LOG.warn("Unable to delete nodes: {}, the dump is read only", nodePaths);
+    return false;
+  }
+
+  @Override
+  public boolean importNodes(String parent, File source, BulkProgressListener listener) {
+    LOG.warn("Unable to import nodes below: {}, the dump is read only", parent);
+    return false;
+  }
+
+  @Override
+  public Pair<Map<String, List<String>>, Map<String, String>> getConnectionPropertiesTemplate() {
+    Map<String, List<String>> liveTemplate = settings.getConnectionPropertiesTemplate().getKey();
+    Properties last = lastConnectionProps;
+    Map<String, List<String>> template = new LinkedHashMap<String, List<String>>();
+    template.put(DUMP_FILE, Arrays.asList(last == null ? "" : last.getProperty(DUMP_FILE, "")));
+    template.put(TXN_LOG_DIR, Arrays.asList(last == null ? "" : last.getProperty(TXN_LOG_DIR, "")));
+    template.put(REPLAY_ZXID, Arrays.asList(last == null ? "" : last.getProperty(REPLAY_ZXID, "")));
+    template.put(ZooInspectorManagerImpl.DATA_ENCRYPTION_MANAGER,
+        liveTemplate.get(ZooInspectorManagerImpl.DATA_ENCRYPTION_MANAGER));
+    Map<String, String> labels = new LinkedHashMap<String, String>();
+    labels.put(DUMP_FILE, "Dump File");
+    labels.put(TXN_LOG_DIR, "Transaction Log Directory");
+    labels.put(REPLAY_ZXID, "Replay To Zxid");
+    labels.put(ZooInspectorManagerImpl.DATA_ENCRYPTION_MANAGER, "Data Encryption Manager");
+    return new Pair<Map<String, List<String>>, Map<String, String>>(template, labels);
+  }
+
+  @Override
+  public void addWatchers(Collection<String> selectedNodes, NodeListener nodeListener) {
+    // a dump never changes
+  }
+
+  @Override
+  public void removeWatchers(Collection<String> selectedNodes) {
+    // a dump never changes
+  }
+
+  @Override
+  public List<String> loadNodeViewersFile(File selectedFile) throws IOException {
+    return settings.loadNodeViewersFile(selectedFile);
+  }
+
+  @Override
+  public void saveNodeViewersFile(File selectedFile, List<String> nodeViewersClassNames)
+      throws IOException {
+    settings.saveNodeViewersFile(selectedFile, nodeViewersClassNames);
+  }
+
+  @Override
+  public List<String> getDefaultNodeViewerConfiguration() throws IOException {
+    return settings.getDefaultNodeViewerConfiguration();
+  }
+
+  @Override
+  public void setDefaultNodeViewerConfiguration(List<String> nodeViewersClassNames)
+      throws IOException {
+    settings.setDefaultNodeViewerConfiguration(nodeViewersClassNames);
+  }
+
+  @Override
+  public Properties getLastConnectionProps() {
+    return lastConnectionProps;
+  }
+
+  @Override
+  public void setLastConnectionProps(Properties connectionProps) {
+    this.lastConnectionProps = connectionProps;
+  }
+
+  @Override
+  public void saveDefaultConnectionFile(Properties props) {
+    // the default connection is the one of the live session
+  }
+
+  @Override
+  public void updateDefaultConnectionFile(Properties props) {
+    // the default connection is the one of the live session
+  }
+
+  @Override
+  public boolean enableLiveMode(String root, NodeListener listener) {
+    return false;
+  }
+
+  @Override
+  public void disableLiveMode() {
+    // never enabled
+  }
+
+  @Override
+  public boolean isReadOnly() {
+    return true;
+  }
+
+  /**
+   * @return a loader reading from the open dump, null if none is open
+   */
+  CacheLoader getLoader() {
+    NodeDumpIndex index = this.index;
+    return index == null ? null : new IndexLoader(index);
+  }
+
+  /**
+   * Loads the cache from the index, with the same fan-out limit as a refresh
+   * of a live session
+   */
+  private static final class IndexLoader implements CacheLoader {
+    private final NodeDumpIndex index;
+
+    IndexLoader(NodeDumpIndex index) {
+      this.index = index;
+    }
+
+    @Override
+    public boolean isAvailable() {
+      return true;
+    }
+
+    @Override
+    public void traverse(List<String> paths, int depth,
+                         ZooInspectorRefreshEngine.ChildrenHandler handler) throws KeeperException {
+      List<String> level = paths;
+      for (int d = 0; d <= depth && !level.isEmpty(); d++) {
+        List<String> next = new ArrayList<>();
+        for (String path : level) {
+          int node = index.find(path);
+          if (node < 0) {
+            handler.handle(path, null, null);
+            continue;
+          }
+          Stat stat;
+          try {
+            stat = index.getStat(node);
+          } catch (IOException e) {
+            LOG.error("Error occurred reading node: {}", path, e);
+            throw KeeperException.create(KeeperException.Code.MARSHALLINGERROR, path);
+          }
+          List<String> children = index.getChildren(node);
+          handler.handle(path, children, stat);
+          if (d < depth && children.size() <= ZooInspectorManagerCache.PAGE_SIZE) {
+            for (String child : children) {
+              next.add(ZooInspectorRefreshEngine.childPath(path, child));
+            }
+          }
+        }
+        level = next;
+      }
+    }
+
+    @Override
+    public void invalidate(String path) {
+      // nodes are read from the index, nothing to invalidate
+    }
+  }
+}
@@ -0,0 +1,366 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.zookeeper.inspector.manager;
+
+import org.apache.zookeeper.KeeperException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * Selects the nodes of the {@link ZooInspectorManagerCache} matching a path
+ * pattern, e.g. {@code /services/*}{@code /instances/host-17*}.
+ * <p>
+ * A glob is matched a segment at a time, where {@code *} and {@code ?} match
+ * within a segment and a {@code **} segment matches any number of segments.
+ * Literal segments are looked up in the sorted children of the cache without
+ * reading the others, and only the nodes the pattern can still reach are
+ * fetched, one pipelined batch per level. A pattern starting with
+ * {@code regex:} is a regular expression matched against the whole path of
+ * the cached nodes below its literal prefix, without fetching anything.
+ */
+public class ZooInspectorPathFilter {
+
+  /**
+   * The prefix of a pattern matched as a regular expression
+   */
+  public static final String REGEX_PREFIX = "regex:";
+
+  private final String pattern;
+  // the compiled segments of a glob, null for a regular expression. a
+  // literal segment is a String, a wildcard segment a Pattern and a ** segment
+  // is ANY_DEPTH
+  private final Object[] segments;
+  private final Pattern regex;
+  private final String regexRoot;
+
+  private static final Object ANY_DEPTH = new Object();
+
+  private ZooInspectorPathFilter(String pattern, Object[] segments, Pattern regex, String regexRoot) {
+    this.pattern = pattern;
+    this.segments = segments;
+    this.regex = regex;
+    this.regexRoot = regexRoot;
+  }
+
+  /**
+   * @param pattern - an absolute glob, or a regular expression after
+   *                {@link #REGEX_PREFIX}
+   * @return the compiled filter
+   * @throws IllegalArgumentException                - if the glob is not an
+   *                                                 absolute path
+   * @throws java.util.regex.PatternSyntaxException - if the regular expression
+   *                                                 is not valid
+   */
+  public static ZooInspectorPathFilter compile(String pattern) {
+    if (pattern.startsWith(REGEX_PREFIX)) {
+      String regex = pattern.substring(REGEX_PREFIX.length());
+      return new ZooInspectorPathFilter(pattern, null, Pattern.compile(regex), literalRoot(regex));
+    }
+    if (!pattern.startsWith("/")) {
+      throw new IllegalArgumentException("Path pattern must start with /: " + pattern);
+    }
+    List<Object> segments = new ArrayList<>();
+    for (String segment : pattern.split("/")) {
+      if (segment.isEmpty()) {
+        continue;
+      }
+      if (segment.equals("**")) {
+        // consecutive ** match the same as one
+        if (segments.isEmpty() || segments.get(segments.size() - 1) != ANY_DEPTH) {
+          segments.add(ANY_DEPTH);
+        }
+      } else if (segment.indexOf('*') >= 0 || segment.indexOf('?') >= 0) {
+        segments.add(globToRegex(segment));
+      } else {
+        segments.add(segment);
+      }
+    }
+    return new ZooInspectorPathFilter(pattern, segments.toArray(), null, null);
+  }
+
+  private static Pattern globToRegex(String glob) {
+    StringBuilder sb = new StringBuilder();
+    int literal = 0;
+    for (int i = 0; i < glob.length(); i++) {
+      char c = glob.charAt(i);
+      if (c == '*' || c == '?') {
+        if (literal < i) {
+          sb.append(Pattern.quote(glob.substring(literal, i)));
+        }
+        sb.append(c == '*' ? ".*" : ".");
+        literal = i + 1;
+      }
+    }
+    if (literal < glob.length()) {
+      sb.append(Pattern.quote(glob.substring(literal)));
+    }
+    return Pattern.compile(sb.toString(), Pattern.DOTALL);
+  }
+
+  // the deepest node all matches of regex are in, from the literal characters
+  // it starts with
+  private static String literalRoot(String regex) {
+    if (hasTopLevelAlternation(regex)) {
+      // the alternatives need not share the characters the first starts with
+      return "/";
+    }
+    int start = regex.startsWith("^") ? 1 : 0;
+    int end = start;
+    while (end < regex.length() && "\\^$.|?*+()[]{}".indexOf(regex.charAt(end)) < 0) {
+      end++;
+    }
+    // a quantified character may be missing
+    if (end < regex.length() && "?*{".indexOf(regex.charAt(end)) >= 0) {
+      end--;
+    }
+    String prefix = regex.substring(start, Math.max(start, end));
+    int slash = prefix.lastIndexOf('/');
+    if (!prefix.startsWith("/") || slash <= 0) {
+      return "/";
+    }
+    return prefix.substring(0, slash);
+  }
+
+  // whether regex has a '|' outside all groups and character classes
+  private static boolean hasTopLevelAlternation(String regex) {
+    int groups = 0;
+    int classes = 0;
+    for (int i = 0; i < regex.length(); i++) {
+      char c = regex.charAt(i);
+      if (c == '\\') {
+        if (regex.startsWith("Q", i + 1)) {
+          int quoteEnd = regex.indexOf("\\E", i + 2);
+          i = quoteEnd < 0 ? regex.length() : quoteEnd + 1;
+        } else {
+          i++;
+        }
+      } else if (c == '[') {
+        classes++;
+      } else if (c == ']' && classes > 0) {
+        classes--;
+      } else if (classes == 0) {
+        if (c == '(') {
+          groups++;
+        } else if (c == ')' && groups > 0) {
+          groups--;
+        } else if (c == '|' && groups == 0) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the pattern the filter was compiled from
+   */
+  public String getPattern() {
+    return pattern;
+  }
+
+  /**
+   * Find the nodes matching the pattern
+   *
+   * @param cache - the cache to match the nodes of
+   * @param limit - the maximum number of matches
+   * @return the matching nodes
+   * @throws KeeperException - if the nodes cannot be fetched
+   */
+  public Matches evaluate(ZooInspectorManagerCache cache, int limit) throws KeeperException {
+    Matches matches = new Matches(limit);
+    if (regex != null) {
+      if (regex.matcher(regexRoot).matches()) {
+        matches.add(regexRoot);
+      }
+      cache.forEachInSubtree(regexRoot, (path, children) -> {
+        String prefix = path.equals("/") ? path : path + "/";
+        for (int i = 0; i < children.size() && !matches.truncated; i++) {
+          String child = prefix + children.get(i);
+          if (regex.matcher(child).matches()) {
+            matches.add(child);
+          }
+        }
+      });
+      return matches;
+    }
+    // the states of the glob, a path and the index of the next segment to
+    // match below it, expanded a level at a time
+    List<String> paths = Collections.singletonList("/");
+    List<Integer> indices = Collections.singletonList(0);
+    while (!paths.isEmpty() && !matches.truncated) {
+      Set<String> missing = new LinkedHashSet<>();
+      for (int k = 0; k < paths.size(); k++) {
+        String path = paths.get(k);
+        if (indices.get(k) < segments.length && !cache.contains(path)) {
+          missing.add(path);
+        }
+      }
+      cache.refresh(new ArrayList<>(missing), 0);
+      List<String> nextPaths = new ArrayList<>();
+      List<Integer> nextIndices = new ArrayList<>();
+      Set<String> seen = new HashSet<>();
+      Deque<Integer> pending = new ArrayDeque<>();
+      for (int k = 0; k < paths.size() && !matches.truncated; k++) {
+        pending.push(indices.get(k));
+        String path = paths.get(k);
+        String prefix = path.equals("/") ? path : path + "/";
+        while (!pending.isEmpty()) {
+          int index = pending.pop();
+          if (index == segments.length) {
+            matches.add(path);
+            continue;
+          }
+          Object segment = segments[index];
+          if (segment == ANY_DEPTH) {
+            // matching no segment, or one more with the same state
+            pending.push(index + 1);
+            for (String child : cache.getChildren(path)) {
+              addState(prefix + child, index, nextPaths, nextIndices, seen);
+            }
+          } else if (segment instanceof String) {
+            if (cache.getNodeIndex(path, (String) segment) >= 0) {
+              addState(prefix + segment, index + 1, nextPaths, nextIndices, seen);
+            }
+          } else {
+            Pattern p = (Pattern) segment;
+            for (String child : cache.getChildren(path)) {
+              if (p.matcher(child).matches()) {
+                addState(prefix + child, index + 1, nextPaths, nextIndices, seen);
+              }
+            }
+          }
+        }
+      }
+      paths = nextPaths;
+      indices = nextIndices;
+    }
+    return matches;
+  }
+
+  private static void addState(String path, int index, List<String> paths,
+                               List<Integer> indices, Set<String> seen) {
+    // with ** a node can be reached through different states
+    if (seen.add(index + ":" + path)) {
+      paths.add(path);
+      indices.add(index);
+    }
+  }
+
+  /**
+   * The nodes matching a {@link ZooInspectorPathFilter}, and the children of
+   * their ancestors leading to them
+   */
+  public static final class Matches {
+    private final int limit;
+    private final Set<String> matched = new LinkedHashSet<>();
+    // the names of the children leading to a match, by parent path
+    private final Map<String, Set<String>> visible = new HashMap<>();
+    private boolean truncated;
+
+    private Matches(int limit) {
+      this.limit = limit;
+    }
+
+    private void add(String path) {
+      if (matched.contains(path)) {
+        return;
+      }
+      if (matched.size() >= limit) {
+        truncated = true;
+        return;
+      }
+      matched.add(path);
+      for (String p = path, parent = ZooInspectorRefreshEngine.parentOf(p); parent != null;
+           p = parent, parent = ZooInspectorRefreshEngine.parentOf(p)) {
+        Set<String> names = visible.computeIfAbsent(parent, k -> new TreeSet<>());
+        if (!names.add(p.substring(p.lastIndexOf('/') + 1))) {
+          break;
+        }
+      }
+    }
+
+    /**
+     * @return the paths of the matching nodes, in the order they were found
+     */
+    public Set<String> getPaths() {
+      return Collections.unmodifiableSet(matched);
+    }
+
+    /**
+     * @return the number of matching nodes
+     */
+    public int size() {
+      return matched.size();
+    }
+
+    /**
+     * @return true if there were more matches than the limit
+     */
+    public boolean isTruncated() {
+      return truncated;
+    }
+
+    /**
+     * @param nodePath - the path of a node
+     * @return true if the node or one of its ancestors matches, in which case
+     * all its children are shown
+     */
+    public boolean isMatched(String nodePath) {
+      for (String p = nodePath; p != null; p = ZooInspectorRefreshEngine.parentOf(p)) {
+        if (matched.contains(p)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * @param nodePath - the path of a node
+     * @param children - the sorted children of the node
+     * @return the sorted children leading to a match, or all of them below a
+     * match
+     */
+    public List<String> filterChildren(String nodePath, List<String> children) {
+      if (isMatched(nodePath)) {
+        return children;
+      }
+      Set<String> names = visible.get(nodePath);
+      if (names == null) {
+        return Collections.emptyList();
+      }
+      List<String> result = new ArrayList<>(names.size());
+      for (String name : names) {
+        if (Collections.binarySearch(children, name) >= 0) {
+          result.add(name);
+        }
+      }
+      return result;
+    }
+  }
+}
@@ -19,6 +19,7 @@ package org.apache.zookeeper.inspector.manager;
 
 import org.apache.zookeeper.ZooKeeper.States;
 
+import java.io.File;
 import java.util.List;
 import java.util.Map;
 
@@ -34,6 +35,26 @@ public interface ZooInspectorReadOnlyManager {
    */
   String getData(String nodePath);
 
+  /**
+   * @param nodePath - the path to the node
+   * @return the data, stat, ACLs and children of the node read in a single
+   * round trip, or null if the node does not exist. Recently read snapshots
+   * are shared between callers
+   */
+  NodeSnapshot getNodeSnapshot(String nodePath);
+
+  /**
+   * Write a node and everything below it to a dump file in one streaming pass
+   *
+   * @param nodePath - the path to the node to export
+   * @param target   - the file to write, replaced if it exists
+   * @param compress - true to gzip the file
+   * @param listener - notified as nodes are written, may be null
+   * @return true if the whole subtree was exported
+   */
+  boolean exportNodes(String nodePath, File target, boolean compress,
+                      BulkProgressListener listener);
+
   /**
    * @param nodePath - the path to the node to delete
    * @return the metaData for the node
@@ -0,0 +1,261 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.zookeeper.inspector.manager;
+
+import org.apache.zookeeper.AsyncCallback.Children2Callback;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.ZooKeeper.States;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Fetches the children and {@link Stat} of many nodes through the asynchronous
+ * zookeeper API. At most {@code maxOutstanding} requests are in flight at any
+ * time; the submitting thread blocks once the window is full until responses
+ * come back, so large levels are streamed to the ensemble instead of being
+ * queued in the client all at once.
+ * <p>
+ * {@link #traverse(List, int, ChildrenHandler)} walks a whole subtree without level
+ * barriers: the children of a node are scheduled as soon as its result
+ * arrives, so a refresh costs roughly sum(RTT) / window instead of
+ * depth * slowest RTT. Nodes with more than {@code maxFanout} children are
+ * fetched but not descended into.
+ */
+public class ZooInspectorRefreshEngine {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ZooInspectorRefreshEngine.class);
+
+  /**
+   * The default number of outstanding getChildren requests
+   */
+  public static final int DEFAULT_MAX_OUTSTANDING = 1000;
+  // report progress every PROGRESS_INTERVAL completed nodes of a level
+  private static final int PROGRESS_INTERVAL = 1000;
+
+  private final ZooKeeper zooKeeper;
+  private final int maxOutstanding;
+  private volatile int maxFanout = Integer.MAX_VALUE;
+  private volatile RefreshProgressListener progressListener;
+
+  /**
+   * @param zooKeeper      - the {@link ZooKeeper} to read from
+   * @param maxOutstanding - the maximum number of requests in flight
+   */
+  public ZooInspectorRefreshEngine(ZooKeeper zooKeeper, int maxOutstanding) {
+    if (maxOutstanding <= 0) {
+      throw new IllegalArgumentException("maxOutstanding must be positive: " + maxOutstanding);
+    }
+    this.zooKeeper = zooKeeper;
+    this.maxOutstanding = maxOutstanding;
+  }
+
+  /**
+   * @param progressListener - the listener notified as levels are fetched, may be null
+   */
+  public void setProgressListener(RefreshProgressListener progressListener) {
+    this.progressListener = progressListener;
+  }
+
+  public int getMaxOutstanding() {
+    return maxOutstanding;
+  }
+
+  /**
+   * @param maxFanout - traversals do not descend into nodes with more
+   *                  children than this, e.g. queue or lock directories.
+   *                  Their children are fetched when they are looked at
+   */
+  public void setMaxFanout(int maxFanout) {
+    this.maxFanout = maxFanout;
+  }
+
+  /**
+   * Walk the tree below paths down to depth. The children of a node are
+   * scheduled as soon as that node's result arrives, interleaved with the
+   * requests of shallower levels still in flight.
+   *
+   * @param paths    - the paths to start from (level 0)
+   * @param depth    - the number of levels below paths to fetch
+   * @param handler - called with every fetched node, from the zookeeper event
+   *                thread. A node that no longer exists (or cannot be read)
+   *                is passed with null children
+   * @throws KeeperException - if the connection was lost while fetching. Nodes
+   *                         fetched before the failure have already been passed
+   *                         to the handler
+   */
+  public void traverse(List<String> paths, final int depth,
+                       final ChildrenHandler handler) throws KeeperException {
+    if (paths.isEmpty() || depth < 0) {
+      return;
+    }
+    if (zooKeeper.getState() != States.CONNECTED) {
+      throw KeeperException.create(Code.CONNECTIONLOSS, paths.get(0));
+    }
+
+    final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    final Semaphore window = new Semaphore(maxOutstanding);
+    // nodes scheduled but not completed yet, across all levels
+    final AtomicInteger remaining = new AtomicInteger();
+    final AtomicIntegerArray scheduled = new AtomicIntegerArray(depth + 1);
+    final AtomicIntegerArray completed = new AtomicIntegerArray(depth + 1);
+    final AtomicReference<KeeperException> failure = new AtomicReference<>();
+
+    Children2Callback cb = (rc, path, ctx, children, stat) -> {
+      Pending pending = (Pending) ctx;
+      int level = pending.level;
+      try {
+        Code code = Code.get(rc);
+        if (code == Code.OK) {
+          // schedule the next level before accounting for this node so that
+          // remaining never drops to zero while there is work left
+          if (level < depth && failure.get() == null && stat.getNumChildren() <= maxFanout) {
+            for (String child : children) {
+              remaining.incrementAndGet();
+              scheduled.incrementAndGet(level + 1);
+              queue.add(new Pending(childPath(path, child), level + 1));
+            }
+          }
+          handle(handler, path, children, stat);
+        } else if (isConnectionError(code)) {
+          failure.compareAndSet(null, KeeperException.create(code, path));
+        } else {
+          handle(handler, path, null, null);
+        }
+        int done = completed.incrementAndGet(level);
+        int known = scheduled.get(level);
+        if (done % PROGRESS_INTERVAL == 0 || done == known) {
+          reportProgress(level, done, known);
+        }
+      } finally {
+        window.release();
+        if (remaining.decrementAndGet() == 0) {
+          queue.add(Pending.DONE);
+        }
+      }
+    };
+
+    for (String path : paths) {
+      remaining.incrementAndGet();
+      scheduled.incrementAndGet(0);
+      queue.add(new Pending(path, 0));
+    }
+
+    try {
+      while (true) {
+        Pending next = queue.take();
+        if (next == Pending.DONE) {
+          break;
+        }
+        if (failure.get() != null) {
+          // drain without sending, the connection is gone
+          if (remaining.decrementAndGet() == 0) {
+            break;
+          }
+          continue;
+        }
+        window.acquire();
+        zooKeeper.getChildren(next.path, false, cb, next);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw KeeperException.create(Code.OPERATIONTIMEOUT, paths.get(0));
+    }
+
+    if (failure.get() != null) {
+      throw failure.get();
+    }
+  }
+
+  private static void handle(ChildrenHandler handler, String path, List<String> children, Stat stat) {
+    try {
+      handler.handle(path, children, stat);
+    } catch (RuntimeException e) {
+      LOG.error("Error occurred processing children of node: {}", path, e);
+    }
+  }
+
+  static String childPath(String parent, String child) {
+    return parent.equals("/") ? parent + child : parent + "/" + child;
+  }
+
+  /**
+   * @return the path of the parent, or null for the root
+   */
+  static String parentOf(String path) {
+    int i = path.lastIndexOf('/');
+    if (i < 0 || path.length() == 1) {
+      return null;
+    }
+    return i == 0 ? "/" : path.substring(0, i);
+  }
+
+  private void reportProgress(int level, int completed, int scheduled) {
+    RefreshProgressListener listener = progressListener;
+    if (listener != null) {
+      try {
+        listener.refreshProgress(level, completed, scheduled);
+      } catch (RuntimeException e) {
+        LOG.warn("Refresh progress listener failed", e);
+      }
+    }
+  }
+
+  static boolean isConnectionError(Code code) {
+    return code == Code.CONNECTIONLOSS
+        || code == Code.SESSIONEXPIRED
+        || code == Code.SESSIONMOVED
+        || code == Code.OPERATIONTIMEOUT;
+  }
+
+  /**
+   * Receives the result of a getChildren request
+   */
+  public interface ChildrenHandler {
+    /**
+     * @param path     - the path of the node
+     * @param children - the names of the children, or null if the node does
+     *                 not exist or cannot be read
+     * @param stat     - the {@link Stat} of the node, or null with null children
+     */
+    void handle(String path, List<String> children, Stat stat);
+  }
+
+  private static class Pending {
+    // marks the end of a traversal in the queue
+    static final Pending DONE = new Pending(null, -1);
+
+    final String path;
+    final int level;
+
+    Pending(String path, int level) {
+      this.path = path;
+      this.level = level;
+    }
+  }
+}
@@ -0,0 +1,338 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.zookeeper.inspector.manager;
+
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.Code;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Searches the data of a subtree for a literal or a regular expression. Nodes
+ * are fetched as {@link ZooInspectorExport} does, without their ACLs, with at
+ * most {@code window} nodes in flight, and their data is scanned by a pool of
+ * threads while the next nodes are fetched. Only the data and children of a
+ * fetched node are kept until it is scanned. A node in flight may be as large
+ * as {@code jute.maxbuffer}, so that much is reserved for each of them, and a
+ * node is only fetched while the reserved bytes and the data waiting to be
+ * scanned stay within {@code maxBytes}. One node is always fetched when
+ * nothing else is held.
+ * <p>
+ * Literals are searched in the raw bytes, encoded as UTF-8, so data is only
+ * decoded around a match. Regular expressions, and literals ignoring the case
+ * of non ASCII letters, are matched against the data decoded as UTF-8.
+ */
+public class ZooInspectorSearch {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ZooInspectorSearch.class);
+
+  /**
+   * The default number of nodes in flight
+   */
+  public static final int DEFAULT_WINDOW = 1000;
+  /**
+   * The default number of bytes in flight or fetched but not scanned yet
+   */
+  public static final long DEFAULT_MAX_BYTES = 64L << 20;
+  // the largest response of a fetch, reserved for each node in flight
+  private static final long MAX_NODE_BYTES = Integer.getInteger("jute.maxbuffer", 0xfffff);
+  // the number of characters shown before and after a match
+  private static final int EXCERPT_BEFORE = 20;
+  private static final int EXCERPT_AFTER = 60;
+
+  private final ZooInspectorManager manager;
+  private final int window;
+  private final long maxBytes;
+
+  /**
+   * @param manager  - the manager to fetch the nodes through
+   * @param window   - the maximum number of nodes in flight
+   * @param maxBytes - the maximum number of bytes in flight or waiting to be
+   *                 scanned
+   */
+  public ZooInspectorSearch(ZooInspectorManager manager, int window, long maxBytes) {
+    if (window <= 0) {
+      throw new IllegalArgumentException("window must be positive: " + window);
+    }
+    if (maxBytes <= 0) {
+      throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+    }
+    this.manager = manager;
+    this.window = window;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * @param text      - the text to find
+   * @param matchCase - false to ignore case
+   * @return a matcher finding text
+   */
+  public static DataMatcher literal(String text, boolean matchCase) {
+    if (text.isEmpty()) {
+      throw new IllegalArgumentException("Nothing to search for");
+    }
+    if (!matchCase && !isAscii(text)) {
+      return regex(Pattern.quote(text), false);
+    }
+    return new LiteralMatcher(text.getBytes(StandardCharsets.UTF_8), matchCase);
+  }
+
+  /**
+   * @param regex     - the regular expression to find
+   * @param matchCase - false to ignore case
+   * @return a matcher finding regex
+   * @throws java.util.regex.PatternSyntaxException - if regex is not valid
+   */
+  public static DataMatcher regex(String regex, boolean matchCase) {
+    final Pattern pattern = Pattern.compile(regex,
+        matchCase ? 0 : Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+    return data -> {
+      String text = new String(data, StandardCharsets.UTF_8);
+      Matcher m = pattern.matcher(text);
+      if (!m.find()) {
+        return null;
+      }
+      int start = Math.max(0, m.start() - EXCERPT_BEFORE);
+      int end = Math.min(text.length(), Math.max(m.end(), m.start() + EXCERPT_AFTER));
+      return excerpt(text.substring(start, end));
+    };
+  }
+
+  /**
+   * Search the data of root and everything below it. Nodes deleted or
+   * unreadable while searching are skipped
+   *
+   * @param root     - the path of the subtree
+   * @param matcher  - the matcher to scan the data with
+   * @param listener - notified of every matching node, from the calling
+   *                 thread
+   * @return the number of nodes searched
+   * @throws KeeperException      - if root does not exist or the connection
+   *                              was lost
+   * @throws InterruptedException - if the search was interrupted
+   */
+  public long search(String root, final DataMatcher matcher, SearchListener listener)
+      throws KeeperException, InterruptedException {
+    int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    final AtomicInteger count = new AtomicInteger();
+    ExecutorService scanners = Executors.newFixedThreadPool(threads, r -> {
+      Thread t = new Thread(r, "zooinspector-search-" + count.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    });
+    // depth first, so only the siblings along one path are pending
+    Deque<String> pending = new ArrayDeque<>();
+    final BlockingQueue<Object> done = new LinkedBlockingQueue<>();
+    pending.push(root);
+    int inFlight = 0;
+    int scanning = 0;
+    long waiting = 0;
+    long searched = 0;
+    try {
+      while (!pending.isEmpty() || inFlight > 0 || scanning > 0) {
+        while (inFlight < window && !pending.isEmpty()
+            && (waiting + (inFlight + 1) * MAX_NODE_BYTES <= maxBytes
+            || inFlight == 0 && scanning == 0)) {
+          final String path = pending.pop();
+          CompletableFuture<NodeSnapshot> future = new CompletableFuture<>();
+          future.whenComplete((snapshot, error) -> done.add(new Fetched(path, snapshot, error)));
+          ZooInspectorDiff.fetch(manager, path, false, future);
+          inFlight++;
+        }
+        Object next = done.take();
+        if (next instanceof Scanned) {
+          Scanned scanned = (Scanned) next;
+          scanning--;
+          waiting -= scanned.bytes;
+          if (scanned.excerpt != null) {
+            listener.nodeFound(scanned.path, scanned.excerpt);
+          }
+          continue;
+        }
+        Fetched fetched = (Fetched) next;
+        inFlight--;
+        if (fetched.error != null) {
+          Throwable cause = fetched.error instanceof CompletionException
+              ? fetched.error.getCause() : fetched.error;
+          if (cause instanceof KeeperException && ((KeeperException) cause).code() == Code.NOAUTH) {
+            LOG.warn("Skipping unreadable node: {}", fetched.path);
+            continue;
+          }
+          if (cause instanceof KeeperException) {
+            throw (KeeperException) cause;
+          }
+          LOG.error("Error occurred reading node: {}", fetched.path, cause);
+          throw KeeperException.create(Code.SYSTEMERROR, fetched.path);
+        }
+        if (fetched.snapshot == null) {
+          if (fetched.path.equals(root)) {
+            throw KeeperException.create(Code.NONODE, root);
+          }
+          // deleted since its parent was read
+          continue;
+        }
+        searched++;
+        List<String> children = fetched.snapshot.getChildren();
+        for (int i = children.size() - 1; i >= 0; i--) {
+          pending.push(ZooInspectorRefreshEngine.childPath(fetched.path, children.get(i)));
+        }
+        final byte[] data = fetched.snapshot.getData();
+        if (data == null || data.length == 0) {
+          continue;
+        }
+        final String path = fetched.path;
+        scanning++;
+        waiting += data.length;
+        scanners.execute(() -> {
+          String excerpt = null;
+          try {
+            excerpt = matcher.find(data);
+          } catch (RuntimeException e) {
+            LOG.error("Error occurred searching node: {}", path, e);
+          }
+          done.add(new Scanned(path, excerpt, data.length));
+        });
+      }
+    } finally {
+      scanners.shutdownNow();
+    }
+    return searched;
+  }
+
+  private static boolean isAscii(String text) {
+    for (int i = 0; i < text.length(); i++) {
+      if (text.charAt(i) >= 0x80) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static String excerpt(String text) {
+    StringBuilder sb = new StringBuilder(text.length());
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      sb.append(Character.isISOControl(c) ? ' ' : c);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Scans the data of a node
+   */
+  public interface DataMatcher {
+    /**
+     * Called concurrently from the scanning threads
+     *
+     * @param data - the raw data of a node
+     * @return the text around the first match, or null if data does not match
+     */
+    String find(byte[] data);
+  }
+
+  /**
+   * A Horspool search of the UTF-8 bytes of a literal. Ignoring case folds
+   * ASCII letters only, which never occur inside a multi-byte sequence, so
+   * the literal must be ASCII then
+   */
+  private static final class LiteralMatcher implements DataMatcher {
+    private final byte[] needle;
+    private final boolean matchCase;
+    private final int[] shift = new int[256];
+
+    LiteralMatcher(byte[] needle, boolean matchCase) {
+      this.matchCase = matchCase;
+      this.needle = needle.clone();
+      int last = needle.length - 1;
+      for (int i = 0; i < shift.length; i++) {
+        shift[i] = needle.length;
+      }
+      for (int i = 0; i < last; i++) {
+        if (matchCase) {
+          shift[needle[i] & 0xff] = last - i;
+        } else {
+          this.needle[i] = fold(needle[i]);
+          shift[this.needle[i] & 0xff] = last - i;
+          shift[Character.toUpperCase((char) this.needle[i]) & 0xff] = last - i;
+        }
+      }
+      if (!matchCase) {
+        this.needle[last] = fold(needle[last]);
+      }
+    }
+
+    @Override
+    public String find(byte[] data) {
+      int last = needle.length - 1;
+      for (int at = 0; at + last < data.length; at += shift[data[at + last] & 0xff]) {
+        int i = last;
+        while (i >= 0 && (matchCase ? data[at + i] : fold(data[at + i])) == needle[i]) {
+          i--;
+        }
+        if (i < 0) {
+          int start = Math.max(0, at - EXCERPT_BEFORE);
+          int end = Math.min(data.length, at + Math.max(needle.length, EXCERPT_AFTER));
+          return excerpt(new String(data, start, end - start, StandardCharsets.UTF_8));
+        }
+      }
+      return null;
+    }
+
+    private static byte fold(byte b) {
+      return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+    }
+  }
+
+  private static class Fetched {
+    final String path;
+    final NodeSnapshot snapshot;
+    final Throwable error;
+
+    Fetched(String path, NodeSnapshot snapshot, Throwable error) {
+      this.path = path;
+      this.snapshot = snapshot;
+      this.error = error;
+    }
+  }
+
+  private static class Scanned {
+    final String path;
+    final String excerpt;
+    final int bytes;
+
+    Scanned(String path, String excerpt, int bytes) {
+      this.path = path;
+      this.excerpt = excerpt;
+      this.bytes = bytes;
+    }
+  }
+}
@@ -0,0 +1,599 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.zookeeper.inspector.manager;
+
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * An inverted index of the names and data tokens of the nodes of a subtree,
+ * persisted under ~/.zooinspector/index so lookups answer from memory
+ * without reading the source again.
+ * <p>
+ * A token is a run of letters and digits, lower cased, with any non ASCII
+ * byte taken as a letter so UTF-8 text is kept whole. A node matches a query
+ * if its name or data has all the tokens of the query, a token ending with
+ * '*' matching any token it is a prefix of.
+ * <p>
+ * The index is brought up to date by {@link #update}, which lists the
+ * children and {@link Stat} of every node of the subtree and only fetches the
+ * data of the nodes whose modification zxid changed, or by
+ * {@link #updateChanged} for the nodes reported through
+ * {@link #processEvent}, e.g. by live mode. A reindexed node gets a new id,
+ * and the postings of its old one are dropped when the index is saved.
+ */
+public class ZooInspectorSearchIndex implements NodeListener {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ZooInspectorSearchIndex.class);
+
+  private static final File INDEX_DIR =
+      new File(System.getProperty("user.home"), ".zooinspector/index");
+  private static final int MAGIC = 0x5a495358;
+  // version 1 indexed a '*' following a token as part of it, version 2
+  // lowered the case of tokens in the default locale
+  private static final int VERSION = 3;
+  // longer tokens are rarely looked up, e.g. encoded blobs
+  private static final int MAX_TOKEN_LENGTH = 64;
+  private static final int[] EMPTY = new int[0];
+
+  private final File file;
+  private final String source;
+  private final String root;
+  private final PathTrie<Integer> ids = new PathTrie<>(new SegmentTable(), id -> 0);
+  private final List<String> paths = new ArrayList<>();
+  private long[] mzxids = new long[1024];
+  private final BitSet alive = new BitSet();
+  private final TreeMap<String, Postings> terms = new TreeMap<>();
+  // the nodes changed since the last update, reported by watch events
+  private final Set<String> changed = new LinkedHashSet<>();
+  private boolean complete;
+
+  private ZooInspectorSearchIndex(File file, String source, String root) {
+    this.file = file;
+    this.source = source;
+    this.root = root;
+  }
+
+  /**
+   * Load the index of a subtree saved before, or create an empty one
+   *
+   * @param source - the connect string or file the nodes are read from
+   * @param root   - the path of the indexed subtree
+   * @return the index
+   */
+  public static ZooInspectorSearchIndex open(String source, String root) {
+    String key = source + "\n" + root;
+    File file = new File(INDEX_DIR, String.format("%08x.idx", key.hashCode()));
+    ZooInspectorSearchIndex index = new ZooInspectorSearchIndex(file, source, root);
+    if (file.isFile()) {
+      try {
+        index.load();
+      } catch (IOException e) {
+        LOG.warn("Error occurred loading search index: {}, rebuilding it", file, e);
+        index = new ZooInspectorSearchIndex(file, source, root);
+      }
+    }
+    return index;
+  }
+
+  /**
+   * @return the path of the indexed subtree
+   */
+  public String getRoot() {
+    return root;
+  }
+
+  /**
+   * @return the number of indexed nodes
+   */
+  public synchronized int size() {
+    return alive.cardinality();
+  }
+
+  /**
+   * @return true if a full {@link #update} completed since the index was
+   * created
+   */
+  public synchronized boolean isComplete() {
+    return complete;
+  }
+
+  /**
+   * @param query - the tokens to look up
+   * @param limit - the maximum number of paths to return
+   * @return the sorted paths of the nodes having all tokens of query
+   */
+  public synchronized List<String> lookup(String query, int limit) {
+    List<String> tokens = tokenize(query.getBytes(StandardCharsets.UTF_8), true);
+    if (tokens.isEmpty()) {
+      return Collections.emptyList();
+    }
+    BitSet result = null;
+    for (String token : tokens) {
+      BitSet matching = new BitSet();
+      if (token.endsWith("*")) {
+        String prefix = token.substring(0, token.length() - 1);
+        for (Postings p : terms.tailMap(prefix).values()) {
+          if (!p.term.startsWith(prefix)) {
+            break;
+          }
+          p.addTo(matching);
+        }
+      } else {
+        Postings p = terms.get(token);
+        if (p != null) {
+          p.addTo(matching);
+        }
+      }
+      if (result == null) {
+        result = matching;
+        result.and(alive);
+      } else {
+        result.and(matching);
+      }
+      if (result.isEmpty()) {
+        return Collections.emptyList();
+      }
+    }
+    List<String> found = new ArrayList<>();
+    for (int id = result.nextSetBit(0); id >= 0; id = result.nextSetBit(id + 1)) {
+      found.add(paths.get(id));
+    }
+    Collections.sort(found);
+    return found.size() > limit ? new ArrayList<>(found.subList(0, limit)) : found;
+  }
+
+  /**
+   * Marks the nodes changed by watch events, to be fetched again by
+   * {@link #updateChanged}
+   */
+  @Override
+  public synchronized void processEvent(String nodePath, String eventType,
+                                        Map<String, String> eventInfo) {
+    if ("None".equals(eventType) || "Expired".equals(eventType)) {
+      // events may have been missed while disconnected, or are no longer
+      // followed
+      complete = false;
+    } else if (nodePath != null && isInSubtree(nodePath)) {
+      changed.add(nodePath);
+    }
+  }
+
+  /**
+   * Require the next update to compare every node, e.g. on a refresh
+   */
+  public synchronized void markStale() {
+    complete = false;
+  }
+
+  /**
+   * @return true if nodes were reported changed since the last update
+   */
+  public synchronized boolean hasChanges() {
+    return !changed.isEmpty();
+  }
+
+  /**
+   * Fetch the data of the nodes reported changed, and drop those deleted.
+   * The index is saved if anything changed
+   *
+   * @param manager - the manager to read the nodes through
+   * @return the number of nodes fetched
+   * @throws KeeperException      - if the connection was lost
+   * @throws InterruptedException
+   */
+  public long updateChanged(ZooInspectorManager manager)
+      throws KeeperException, InterruptedException {
+    List<String> nodes;
+    synchronized (this) {
+      nodes = new ArrayList<>(changed);
+      changed.clear();
+    }
+    if (nodes.isEmpty()) {
+      return 0;
+    }
+    List<CompletableFuture<NodeSnapshot>> futures = fetch(manager, nodes);
+    for (int i = 0; i < nodes.size(); i++) {
+      NodeSnapshot snapshot = get(futures.get(i), nodes.get(i));
+      synchronized (this) {
+        if (snapshot == null) {
+          removeSubtree(nodes.get(i));
+        } else {
+          index(nodes.get(i), snapshot.getData(), snapshot.getStat().getMzxid());
+        }
+      }
+    }
+    save();
+    return nodes.size();
+  }
+
+  /**
+   * Bring the whole index up to date, fetching only the data of the nodes
+   * created or modified since they were indexed, and save it
+   *
+   * @param manager  - the manager to read the nodes through
+   * @param batch    - the number of nodes listed at a time
+   * @param listener - notified as nodes are listed, may be null
+   * @return the number of nodes fetched
+   * @throws KeeperException      - if the root does not exist or the
+   *                              connection was lost
+   * @throws InterruptedException
+   */
+  public long update(ZooInspectorManager manager, int batch, BulkProgressListener listener)
+      throws KeeperException, InterruptedException {
+    CacheLoader loader = ZooInspectorDiff.loaderOf(manager);
+    synchronized (this) {
+      changed.clear();
+    }
+    BitSet seen = new BitSet();
+    Deque<String> pending = new ArrayDeque<>();
+    pending.push(root);
+    long listed = 0;
+    long fetched = 0;
+    while (!pending.isEmpty()) {
+      List<String> level = new ArrayList<>(Math.min(batch, pending.size()));
+      while (level.size() < batch && !pending.isEmpty()) {
+        level.add(pending.pop());
+      }
+      final Map<String, Stat> stats = new HashMap<>();
+      final Map<String, List<String>> children = new HashMap<>();
+      loader.traverse(level, 0, (path, names, stat) -> {
+        if (names != null) {
+          synchronized (stats) {
+            stats.put(path, stat);
+            children.put(path, names);
+          }
+        }
+      });
+      if (!stats.containsKey(root) && level.contains(root)) {
+        throw KeeperException.create(Code.NONODE, root);
+      }
+      List<String> modified = new ArrayList<>();
+      synchronized (this) {
+        for (String path : level) {
+          Stat stat = stats.get(path);
+          if (stat == null) {
+            // deleted since its parent was listed
+            continue;
+          }
+          Integer id = ids.get(path);
+          if (id == null || mzxids[id] != stat.getMzxid()) {
+            modified.add(path);
+          } else {
+            seen.set(id);
+          }
+          for (String child : children.get(path)) {
+            pending.push(ZooInspectorRefreshEngine.childPath(path, child));
+          }
+        }
+      }
+      List<CompletableFuture<NodeSnapshot>> futures = fetch(manager, modified);
+      for (int i = 0; i < modified.size(); i++) {
+        NodeSnapshot snapshot = get(futures.get(i), modified.get(i));
+        if (snapshot != null) {
+          synchronized (this) {
+            seen.set(index(modified.get(i), snapshot.getData(), snapshot.getStat().getMzxid()));
+          }
+        }
+      }
+      listed += level.size();
+      fetched += modified.size();
+      if (listener != null) {
+        listener.bulkProgress(listed, -1);
+      }
+    }
+    synchronized (this) {
+      // the nodes not seen were deleted
+      BitSet gone = (BitSet) alive.clone();
+      gone.andNot(seen);
+      for (int id = gone.nextSetBit(0); id >= 0; id = gone.nextSetBit(id + 1)) {
+        ids.remove(paths.get(id));
+        alive.clear(id);
+      }
+      complete = true;
+    }
+    save();
+    if (listener != null) {
+      listener.bulkProgress(listed, listed);
+    }
+    LOG.info("Updated search index of {} on {}: {} nodes, {} fetched", root, source,
+        listed, fetched);
+    return fetched;
+  }
+
+  private boolean isInSubtree(String path) {
+    return root.equals("/") || path.equals(root) || path.startsWith(root + "/");
+  }
+
+  // returns the new id of the node
+  private int index(String path, byte[] data, long mzxid) {
+    Integer old = ids.get(path);
+    if (old != null) {
+      alive.clear(old);
+    }
+    int id = paths.size();
+    paths.add(path);
+    if (id == mzxids.length) {
+      mzxids = Arrays.copyOf(mzxids, id * 2);
+    }
+    mzxids[id] = mzxid;
+    alive.set(id);
+    ids.put(path, id);
+    Set<String> tokens = new HashSet<>();
+    String name = path.substring(path.lastIndexOf('/') + 1);
+    tokens.addAll(tokenize(name.getBytes(StandardCharsets.UTF_8), false));
+    if (data != null) {
+      tokens.addAll(tokenize(data, false));
+    }
+    for (String token : tokens) {
+      Postings p = terms.get(token);
+      if (p == null) {
+        p = new Postings(token);
+        terms.put(token, p);
+      }
+      p.add(id);
+    }
+    return id;
+  }
+
+  private void removeSubtree(String path) {
+    ids.forEachInSubtree(path, (p, id) -> alive.clear(id));
+    ids.removeSubtree(path);
+  }
+
+  private static List<CompletableFuture<NodeSnapshot>> fetch(ZooInspectorManager manager,
+                                                             List<String> nodes) {
+    List<CompletableFuture<NodeSnapshot>> futures = new ArrayList<>(nodes.size());
+    for (String path : nodes) {
+      CompletableFuture<NodeSnapshot> future = new CompletableFuture<>();
+      ZooInspectorDiff.fetch(manager, path, false, future);
+      futures.add(future);
+    }
+    return futures;
+  }
+
+  private static NodeSnapshot get(CompletableFuture<NodeSnapshot> future, String path)
+      throws KeeperException, InterruptedException {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof KeeperException && ((KeeperException) cause).code() == Code.NOAUTH) {
+        LOG.warn("Skipping unreadable node: {}", path);
+        return null;
+      }
+      if (cause instanceof KeeperException) {
+        throw (KeeperException) cause;
+      }
+      LOG.error("Error occurred reading node: {}", path, cause);
+      throw KeeperException.create(Code.SYSTEMERROR, path);
+    }
+  }
+
+  /**
+   * @param bytes - UTF-8 text, or binary data
+   * @param query - whether bytes is a query, whose tokens may end with a '*'
+   *              wildcard
+   * @return the tokens of bytes, a trailing '*' kept on each one if query
+   */
+  static List<String> tokenize(byte[] bytes, boolean query) {
+    List<String> tokens = new ArrayList<>();
+    int start = -1;
+    for (int i = 0; i <= bytes.length; i++) {
+      int b = i < bytes.length ? bytes[i] & 0xff : -1;
+      boolean word = b >= '0' && b <= '9' || b >= 'a' && b <= 'z' || b >= 'A' && b <= 'Z'
+          || b >= 0x80;
+      if (word && start < 0) {
+        start = i;
+      } else if (!word && start >= 0) {
+        int end = query && b == '*' ? i + 1 : i;
+        if (end - start <= MAX_TOKEN_LENGTH) {
+          tokens.add(new String(bytes, start, end - start, StandardCharsets.UTF_8)
+              .toLowerCase(Locale.ROOT));
+        }
+        start = -1;
+      }
+    }
+    return tokens;
+  }
+
+  /**
+   * Drop the reindexed and deleted nodes, then write the index to a temporary
+   * file renamed over the previous one
+   */
+  private synchronized void save() {
+    compact();
+    File tmp = new File(file.getPath() + ".tmp");
+    try {
+      if (!INDEX_DIR.isDirectory() && !INDEX_DIR.mkdirs()) {
+        throw new IOException("Unable to create directory: " + INDEX_DIR);
+      }
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+          new GZIPOutputStream(Files.newOutputStream(tmp.toPath()), 1 << 16)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(source);
+        out.writeUTF(root);
+        out.writeBoolean(complete);
+        out.writeInt(paths.size());
+        for (int id = 0; id < paths.size(); id++) {
+          writeString(out, paths.get(id));
+          out.writeLong(mzxids[id]);
+        }
+        out.writeInt(terms.size());
+        for (Postings p : terms.values()) {
+          out.writeUTF(p.term);
+          out.writeInt(p.size);
+          for (int i = 0; i < p.size; i++) {
+            out.writeInt(p.ids[i]);
+          }
+        }
+      }
+      Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      LOG.error("Error occurred saving search index: {}", file, e);
+      tmp.delete();
+    }
+  }
+
+  // renumber the alive nodes from 0
+  private void compact() {
+    int nodes = alive.cardinality();
+    if (nodes == paths.size()) {
+      return;
+    }
+    int[] renumbered = new int[paths.size()];
+    List<String> kept = new ArrayList<>(nodes);
+    long[] keptMzxids = new long[Math.max(1024, nodes * 2)];
+    for (int id = alive.nextSetBit(0); id >= 0; id = alive.nextSetBit(id + 1)) {
+      renumbered[id] = kept.size();
+      keptMzxids[kept.size()] = mzxids[id];
+      ids.put(paths.get(id), kept.size());
+      kept.add(paths.get(id));
+    }
+    for (Postings p : terms.values()) {
+      p.retain(alive, renumbered);
+    }
+    terms.values().removeIf(p -> p.size == 0);
+    paths.clear();
+    paths.addAll(kept);
+    mzxids = keptMzxids;
+    alive.clear();
+    alive.set(0, nodes);
+  }
+
+  private void load() throws IOException {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+        new GZIPInputStream(Files.newInputStream(file.toPath()), 1 << 16)))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        throw new IOException("Not a search index");
+      }
+      if (!source.equals(in.readUTF()) || !root.equals(in.readUTF())) {
+        throw new IOException("Search index of another subtree");
+      }
+      complete = in.readBoolean();
+      int nodes = in.readInt();
+      mzxids = new long[Math.max(1024, nodes * 2)];
+      for (int id = 0; id < nodes; id++) {
+        String path = readString(in);
+        paths.add(path);
+        mzxids[id] = in.readLong();
+        ids.put(path, id);
+      }
+      alive.set(0, nodes);
+      for (int n = in.readInt(); n > 0; n--) {
+        Postings p = new Postings(in.readUTF());
+        int size = in.readInt();
+        p.ids = new int[size];
+        for (int i = 0; i < size; i++) {
+          int id = in.readInt();
+          if (id < 0 || id >= nodes) {
+            throw new IOException("Corrupt search index");
+          }
+          p.ids[i] = id;
+        }
+        p.size = size;
+        terms.put(p.term, p);
+      }
+    }
+  }
+
+  // paths may be longer than writeUTF allows
+  private static void writeString(DataOutputStream out, String s) throws IOException {
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * The ids of the nodes having a term, in the order they were indexed
+   */
+  private static final class Postings {
+    final String term;
+    int[] ids = EMPTY;
+    int size;
+
+    Postings(String term) {
+      this.term = term;
+    }
+
+    void add(int id) {
+      if (size == ids.length) {
+        ids = Arrays.copyOf(ids, Math.max(4, size * 2));
+      }
+      ids[size++] = id;
+    }
+
+    void addTo(BitSet set) {
+      for (int i = 0; i < size; i++) {
+        set.set(ids[i]);
+      }
+    }
+
+    // keep the alive ids, renumbered
+    void retain(BitSet alive, int[] renumbered) {
+      int n = 0;
+      for (int i = 0; i < size; i++) {
+        if (alive.get(ids[i])) {
+          ids[n++] = renumbered[ids[i]];
+        }
+      }
+      size = n;
+      if (n < ids.length / 4) {
+        ids = Arrays.copyOf(ids, n);
+      }
+    }
+  }
+}
@@ -0,0 +1,77 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.zookeeper.retry;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A {@link RetryPolicy} doubling the delay after every retry up to a maximum.
+ * Half of every delay is random, so clients which lost the connection at the
+ * same time do not all come back at the same time. A call is given up after a
+ * number of retries, or when the next retry would start after its deadline.
+ */
+public class ExponentialBackoffRetry implements RetryPolicy {
+
+  private final long baseDelayMs;
+  private final long maxDelayMs;
+  private final int maxRetries;
+  private final long deadlineMs;
+
+  /**
+   * @param baseDelayMs - the delay before the first retry
+   * @param maxDelayMs  - the maximum delay before a retry
+   * @param maxRetries  - the maximum number of retries of a call, -1 for no
+   *                    limit
+   * @param deadlineMs  - the time after which a call is given up, -1 for no
+   *                    deadline
+   */
+  public ExponentialBackoffRetry(long baseDelayMs, long maxDelayMs,
+                                 int maxRetries, long deadlineMs) {
+    if (baseDelayMs <= 0 || maxDelayMs < baseDelayMs) {
+      throw new IllegalArgumentException("Invalid delays: " + baseDelayMs + ", " + maxDelayMs);
+    }
+    this.baseDelayMs = baseDelayMs;
+    this.maxDelayMs = maxDelayMs;
+    this.maxRetries = maxRetries;
+    this.deadlineMs = deadlineMs;
+  }
+
+  @Override
+  public long getDelayMs(int retry, long elapsedMs) {
+    if (maxRetries != -1 && retry > maxRetries) {
+      return -1;
+    }
+    long delay = baseDelayMs << Math.min(retry - 1, 30);
+    if (delay <= 0 || delay > maxDelayMs) {
+      delay = maxDelayMs;
+    }
+    delay = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    if (deadlineMs != -1 && elapsedMs + delay > deadlineMs) {
+      return -1;
+    }
+    return delay;
+  }
+
+  public int getMaxRetries() {
+    return maxRetries;
+  }
+
+  public long getDeadlineMs() {
+    return deadlineMs;
+  }
+}
@@ -0,0 +1,61 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.zookeeper.retry;
+
+/**
+ * A token bucket limiting the retries of all calls made through one client.
+ * Every retry takes a token, and tokens come back at a fixed rate, so a long
+ * outage turns into failed calls instead of every caller retrying at once.
+ */
+public class RetryBudget {
+
+  private final int capacity;
+  private final double tokensPerMs;
+  // guarded by this
+  private double tokens;
+  // guarded by this
+  private long lastRefill;
+
+  /**
+   * @param capacity         - the number of retries that can be made at once
+   * @param retriesPerSecond - the rate at which retries become available again
+   */
+  public RetryBudget(int capacity, double retriesPerSecond) {
+    if (capacity <= 0 || retriesPerSecond <= 0) {
+      throw new IllegalArgumentException("Invalid retry budget: " + capacity + ", " + retriesPerSecond);
+    }
+    this.capacity = capacity;
+    this.tokensPerMs = retriesPerSecond / 1000;
+    this.tokens = capacity;
+    this.lastRefill = System.nanoTime();
+  }
+
+  /**
+   * @return true if a retry can be made, taking it from the budget
+   */
+  public synchronized boolean tryAcquire() {
+    long now = System.nanoTime();
+    tokens = Math.min(capacity, tokens + (now - lastRefill) / 1000000.0 * tokensPerMs);
+    lastRefill = now;
+    if (tokens < 1) {
+      return false;
+    }
+    tokens--;
+    return true;
+  }
+}
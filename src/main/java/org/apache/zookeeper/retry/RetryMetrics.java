@@ -0,0 +1,92 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.zookeeper.retry;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the retries made by a {@link ZooKeeperRetry}
+ */
+public class RetryMetrics {
+
+  private final LongAdder retries = new LongAdder();
+  private final LongAdder backoffMs = new LongAdder();
+  private final LongAdder recovered = new LongAdder();
+  private final LongAdder givenUp = new LongAdder();
+  private final LongAdder budgetExhausted = new LongAdder();
+
+  void retried(long delayMs) {
+    retries.increment();
+    backoffMs.add(delayMs);
+  }
+
+  void recovered() {
+    recovered.increment();
+  }
+
+  void givenUp() {
+    givenUp.increment();
+  }
+
+  void budgetExhausted() {
+    budgetExhausted.increment();
+  }
+
+  /**
+   * @return the number of retries made
+   */
+  public long getRetries() {
+    return retries.sum();
+  }
+
+  /**
+   * @return the total time spent waiting before retries in milliseconds
+   */
+  public long getBackoffMs() {
+    return backoffMs.sum();
+  }
+
+  /**
+   * @return the number of calls which succeeded after a retry
+   */
+  public long getRecovered() {
+    return recovered.sum();
+  }
+
+  /**
+   * @return the number of calls given up by the {@link RetryPolicy}
+   */
+  public long getGivenUp() {
+    return givenUp.sum();
+  }
+
+  /**
+   * @return the number of calls given up because the {@link RetryBudget} was
+   * exhausted
+   */
+  public long getBudgetExhausted() {
+    return budgetExhausted.sum();
+  }
+
+  @Override
+  public String toString() {
+    return "retries=" + getRetries() + ", backoffMs=" + getBackoffMs()
+        + ", recovered=" + getRecovered() + ", givenUp=" + getGivenUp()
+        + ", budgetExhausted=" + getBudgetExhausted();
+  }
+}
@@ -0,0 +1,32 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.zookeeper.retry;
+
+/**
+ * Decides whether and when a call to zookeeper which lost the connection is
+ * retried
+ */
+public interface RetryPolicy {
+  /**
+   * @param retry     - the number of the retry about to be made, starting at 1
+   * @param elapsedMs - the time since the call was first made in milliseconds
+   * @return the time to wait before the retry in milliseconds, or -1 to give
+   * up the call
+   */
+  long getDelayMs(int retry, long elapsedMs);
+}
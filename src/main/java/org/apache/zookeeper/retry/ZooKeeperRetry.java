@@ -17,8 +17,13 @@
  */
 package org.apache.zookeeper.retry;
 
+import org.apache.zookeeper.AsyncCallback.ChildrenCallback;
+import org.apache.zookeeper.AsyncCallback.StatCallback;
+import org.apache.zookeeper.AsyncCallback.StringCallback;
+import org.apache.zookeeper.AsyncCallback.VoidCallback;
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.Code;
 import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.ZooKeeper;
 import org.apache.zookeeper.data.ACL;
@@ -28,18 +33,63 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A Class which extends {@link ZooKeeper} and will automatically retry calls to
- * zookeeper if a {@link KeeperException.ConnectionLossException} occurs
+ * zookeeper if a {@link KeeperException.ConnectionLossException} occurs.
+ * <p>
+ * When and how often a call is retried is decided by a {@link RetryPolicy}, by
+ * default an {@link ExponentialBackoffRetry} with a deadline of the session
+ * timeout, after which the session is likely expired anyway. All calls share a
+ * {@link RetryBudget}, so an outage does not turn into a retry storm. A call
+ * which is given up returns the value it returned when it ran out of retries
+ * before: null, or an empty list of children.
+ * <p>
+ * The async variants, returning a {@link CompletableFuture}, are built on the
+ * callback API and retry the same way, but schedule their retries instead of
+ * sleeping, so many calls can be outstanding without a thread each. Errors
+ * other than a connection loss, and a connection loss once the call is given
+ * up, complete the future with the {@link KeeperException}.
  */
 public class ZooKeeperRetry extends ZooKeeper {
 
   private static final Logger LOG = LoggerFactory.getLogger(ZooKeeperRetry.class);
+  // only issues the retried async calls, which do not block
+  private static final ScheduledExecutorService SCHEDULER =
+      Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "zookeeper-retry-scheduler");
+        t.setDaemon(true);
+        return t;
+      });
+  /**
+   * The default delay before the first retry of a call in milliseconds
+   */
+  public static final long DEFAULT_BASE_DELAY_MS = 100;
+  /**
+   * The default maximum delay before a retry in milliseconds
+   */
+  public static final long DEFAULT_MAX_DELAY_MS = 5000;
+  /**
+   * The default number of retries that can be made at once by all calls
+   */
+  public static final int DEFAULT_BUDGET = 100;
+  /**
+   * The default number of retries per second which become available again
+   */
+  public static final double DEFAULT_BUDGET_RATE = 10;
   private final Watcher watcher;
-  private boolean closed = false;
-  private int limit = -1;
+  private final int sessionTimeout;
+  private final RetryMetrics metrics = new RetryMetrics();
+  private volatile boolean closed = false;
+  private volatile RetryPolicy retryPolicy;
+  private volatile RetryBudget retryBudget =
+      new RetryBudget(DEFAULT_BUDGET, DEFAULT_BUDGET_RATE);
 
   /**
    * @param connectString
@@ -51,6 +101,8 @@ public class ZooKeeperRetry extends ZooKeeper {
                         Watcher watcher) throws IOException {
     super(connectString, sessionTimeout, watcher);
     this.watcher = watcher;
+    this.sessionTimeout = sessionTimeout;
+    this.retryPolicy = defaultPolicy(-1);
   }
 
   /**
@@ -66,6 +118,8 @@ public class ZooKeeperRetry extends ZooKeeper {
       throws IOException {
     super(connectString, sessionTimeout, watcher, sessionId, sessionPasswd);
     this.watcher = watcher;
+    this.sessionTimeout = sessionTimeout;
+    this.retryPolicy = defaultPolicy(-1);
   }
 
   @Override
@@ -77,187 +131,340 @@ public class ZooKeeperRetry extends ZooKeeper {
   @Override
   public String create(String path, byte[] data, List<ACL> acl,
                        CreateMode createMode) throws KeeperException, InterruptedException {
-    int count = 0;
-    do {
+    return retry(path, retrying -> {
+      if (retrying && exists(path, false) != null) {
+        // the lost call created the node
+        return path;
+      }
       try {
         return super.create(path, data, acl, createMode);
-      } catch (KeeperException.ConnectionLossException e) {
-        LOG.warn("ZooKeeper connection lost. Trying to reconnect.");
-        if (exists(path, false) != null) {
-          return path;
-        }
       } catch (KeeperException.NodeExistsException e) {
         return path;
       }
-    } while (!closed && (limit == -1 || count++ < limit));
-    return null;
+    }, null);
   }
 
   @Override
   public void delete(String path, int version) throws InterruptedException,
       KeeperException {
-    int count = 0;
-    do {
+    retry(path, retrying -> {
+      if (retrying && exists(path, false) == null) {
+        // the lost call deleted the node
+        return null;
+      }
       try {
         super.delete(path, version);
-      } catch (KeeperException.ConnectionLossException e) {
-        LOG.warn("ZooKeeper connection lost. Trying to reconnect.");
-        if (exists(path, false) == null) {
-          return;
-        }
       } catch (KeeperException.NoNodeException e) {
-        break;
+        // already deleted
       }
-    } while (!closed && (limit == -1 || count++ < limit));
+      return null;
+    }, null);
   }
 
   @Override
   public Stat exists(String path, boolean watch) throws KeeperException,
       InterruptedException {
-    int count = 0;
-    do {
-      try {
-        return super.exists(path, watch ? watcher : null);
-      } catch (KeeperException.ConnectionLossException e) {
-        LOG.warn("ZooKeeper connection lost. Trying to reconnect.");
-      }
-    } while (!closed && (limit == -1 || count++ < limit));
-    return null;
+    return retry(path, retrying -> super.exists(path, watch ? watcher : null), null);
   }
 
   @Override
   public Stat exists(String path, Watcher watcher) throws KeeperException,
       InterruptedException {
-    int count = 0;
-    do {
-      try {
-        return super.exists(path, watcher);
-      } catch (KeeperException.ConnectionLossException e) {
-        LOG.warn("ZooKeeper connection lost. Trying to reconnect.");
-      }
-    } while (!closed && (limit == -1 || count++ < limit));
-    return null;
+    return retry(path, retrying -> super.exists(path, watcher), null);
   }
 
   @Override
   public List<ACL> getACL(String path, Stat stat) throws KeeperException,
       InterruptedException {
-    int count = 0;
-    do {
-      try {
-        return super.getACL(path, stat);
-      } catch (KeeperException.ConnectionLossException e) {
-        LOG.warn("ZooKeeper connection lost. Trying to reconnect.");
-      }
-    } while (!closed && (limit == -1 || count++ < limit));
-    return null;
+    return retry(path, retrying -> super.getACL(path, stat), null);
   }
 
   @Override
   public List<String> getChildren(String path, boolean watch)
       throws KeeperException, InterruptedException {
-    int count = 0;
-    do {
-      try {
-        return super.getChildren(path, watch ? watcher : null);
-      } catch (KeeperException.ConnectionLossException e) {
-        LOG.warn("ZooKeeper connection lost. Trying to reconnect.");
-      }
-    } while (!closed && (limit == -1 || count++ < limit));
-    return new ArrayList<String>();
+    return retry(path, retrying -> super.getChildren(path, watch ? watcher : null),
+        new ArrayList<String>());
   }
 
   @Override
   public List<String> getChildren(String path, Watcher watcher)
       throws KeeperException, InterruptedException {
-    int count = 0;
-    do {
-      try {
-        return super.getChildren(path, watcher);
-      } catch (KeeperException.ConnectionLossException e) {
-        LOG.warn("ZooKeeper connection lost. Trying to reconnect.");
-      }
-    } while (!closed && (limit == -1 || count++ < limit));
-    return new ArrayList<String>();
+    return retry(path, retrying -> super.getChildren(path, watcher),
+        new ArrayList<String>());
   }
 
   @Override
   public byte[] getData(String path, boolean watch, Stat stat)
       throws KeeperException, InterruptedException {
-    int count = 0;
-    do {
-      try {
-        return super.getData(path, watch ? watcher : null, stat);
-      } catch (KeeperException.ConnectionLossException e) {
-        LOG.warn("ZooKeeper connection lost. Trying to reconnect.");
-      }
-    } while (!closed && (limit == -1 || count++ < limit));
-    return null;
+    return retry(path, retrying -> super.getData(path, watch ? watcher : null, stat), null);
   }
 
   @Override
   public byte[] getData(String path, Watcher watcher, Stat stat)
       throws KeeperException, InterruptedException {
-    int count = 0;
-    do {
-      try {
-        return super.getData(path, watcher, stat);
-      } catch (KeeperException.ConnectionLossException e) {
-        LOG.warn("ZooKeeper connection lost. Trying to reconnect.");
-      }
-    } while (!closed && (limit == -1 || count++ < limit));
-    return null;
+    return retry(path, retrying -> super.getData(path, watcher, stat), null);
   }
 
   @Override
   public Stat setACL(String path, List<ACL> acl, int version)
       throws KeeperException, InterruptedException {
-    int count = 0;
-    do {
-      try {
-        return super.setACL(path, acl, version);
-      } catch (KeeperException.ConnectionLossException e) {
-        LOG.warn("ZooKeeper connection lost. Trying to reconnect.");
+    return retry(path, retrying -> {
+      if (retrying) {
         Stat s = exists(path, false);
-        if (s != null) {
-          if (getACL(path, s).equals(acl)) {
-            return s;
-          }
-        } else {
+        if (s == null) {
           return null;
         }
+        if (acl.equals(getACL(path, s))) {
+          // the lost call set the acl
+          return s;
+        }
       }
-    } while (!closed && (limit == -1 || count++ < limit));
-    return null;
+      return super.setACL(path, acl, version);
+    }, null);
   }
 
+  /**
+   * A retried setData only writes again if the lost call did not take effect.
+   * With a version, it did if the node is now at the next version. Without
+   * one, it did if the node holds the data, which is only fetched and compared
+   * if its length matches.
+   */
   @Override
   public Stat setData(String path, byte[] data, int version)
       throws KeeperException, InterruptedException {
-    int count = 0;
-    do {
-      try {
-        return super.setData(path, data, version);
-      } catch (KeeperException.ConnectionLossException e) {
-        LOG.warn("ZooKeeper connection lost. Trying to reconnect.");
+    return retry(path, retrying -> {
+      if (retrying) {
         Stat s = exists(path, false);
-        if (s != null) {
-          if (getData(path, false, s) == data) {
+        if (s == null) {
+          return null;
+        }
+        if (version != -1) {
+          if (s.getVersion() == version + 1) {
+            // the lost call set the data
             return s;
           }
+        } else if (s.getDataLength() == length(data)
+            && sameData(getData(path, false, s), data)) {
+          return s;
+        }
+      }
+      return super.setData(path, data, version);
+    }, null);
+  }
+
+  /**
+   * The async variant of {@link #create(String, byte[], List, CreateMode)}
+   */
+  public CompletableFuture<String> createAsync(String path, byte[] data,
+                                               List<ACL> acl, CreateMode createMode) {
+    return retryAsync(path, (retrying, future) -> {
+      StringCallback create = (rc, p, ctx, name) -> {
+        if (rc == Code.OK.intValue()) {
+          future.complete(name);
+        } else if (rc == Code.NODEEXISTS.intValue()) {
+          future.complete(path);
         } else {
-          return null;
+          future.completeExceptionally(KeeperException.create(Code.get(rc), p));
         }
+      };
+      if (!retrying) {
+        create(path, data, acl, createMode, create, null);
+        return;
       }
-    } while (!closed && (limit == -1 || count++ < limit));
-    return null;
+      exists(path, false, (rc, p, ctx, stat) -> {
+        if (rc == Code.OK.intValue()) {
+          // the lost call created the node
+          future.complete(path);
+        } else if (rc == Code.NONODE.intValue()) {
+          create(path, data, acl, createMode, create, null);
+        } else {
+          future.completeExceptionally(KeeperException.create(Code.get(rc), p));
+        }
+      }, null);
+    });
   }
 
   /**
-   * @param limit
+   * The async variant of {@link #delete(String, int)}
+   */
+  public CompletableFuture<Void> deleteAsync(String path, int version) {
+    return retryAsync(path, (retrying, future) -> {
+      VoidCallback delete = (rc, p, ctx) -> {
+        if (rc == Code.OK.intValue() || rc == Code.NONODE.intValue()) {
+          future.complete(null);
+        } else {
+          future.completeExceptionally(KeeperException.create(Code.get(rc), p));
+        }
+      };
+      if (!retrying) {
+        delete(path, version, delete, null);
+        return;
+      }
+      exists(path, false, (rc, p, ctx, stat) -> {
+        if (rc == Code.NONODE.intValue()) {
+          // the lost call deleted the node
+          future.complete(null);
+        } else if (rc == Code.OK.intValue()) {
+          delete(path, version, delete, null);
+        } else {
+          future.completeExceptionally(KeeperException.create(Code.get(rc), p));
+        }
+      }, null);
+    });
+  }
+
+  /**
+   * The async variant of {@link #exists(String, boolean)}
+   */
+  public CompletableFuture<Stat> existsAsync(String path, boolean watch) {
+    return retryAsync(path, (retrying, future) ->
+        exists(path, watch ? watcher : null, (rc, p, ctx, stat) -> {
+          if (rc == Code.OK.intValue()) {
+            future.complete(stat);
+          } else if (rc == Code.NONODE.intValue()) {
+            future.complete(null);
+          } else {
+            future.completeExceptionally(KeeperException.create(Code.get(rc), p));
+          }
+        }, null));
+  }
+
+  /**
+   * The async variant of {@link #getACL(String, Stat)}
+   *
+   * @param stat - filled with the stat of the node before the future completes,
+   *             may be null
+   */
+  public CompletableFuture<List<ACL>> getACLAsync(String path, Stat stat) {
+    return retryAsync(path, (retrying, future) ->
+        getACL(path, new Stat(), (rc, p, ctx, acl, s) -> {
+          if (rc == Code.OK.intValue()) {
+            copyStat(s, stat);
+            future.complete(acl);
+          } else {
+            future.completeExceptionally(KeeperException.create(Code.get(rc), p));
+          }
+        }, null));
+  }
+
+  /**
+   * The async variant of {@link #getChildren(String, boolean)}
+   */
+  public CompletableFuture<List<String>> getChildrenAsync(String path, boolean watch) {
+    return retryAsync(path, (retrying, future) ->
+        getChildren(path, watch ? watcher : null, (ChildrenCallback) (rc, p, ctx, children) -> {
+          if (rc == Code.OK.intValue()) {
+            future.complete(children);
+          } else {
+            future.completeExceptionally(KeeperException.create(Code.get(rc), p));
+          }
+        }, null));
+  }
+
+  /**
+   * The async variant of {@link #getData(String, boolean, Stat)}
+   *
+   * @param stat - filled with the stat of the node before the future completes,
+   *             may be null
+   */
+  public CompletableFuture<byte[]> getDataAsync(String path, boolean watch, Stat stat) {
+    return retryAsync(path, (retrying, future) ->
+        getData(path, watch ? watcher : null, (rc, p, ctx, data, s) -> {
+          if (rc == Code.OK.intValue()) {
+            copyStat(s, stat);
+            future.complete(data);
+          } else {
+            future.completeExceptionally(KeeperException.create(Code.get(rc), p));
+          }
+        }, null));
+  }
+
+  /**
+   * The async variant of {@link #setData(String, byte[], int)}
+   */
+  public CompletableFuture<Stat> setDataAsync(String path, byte[] data, int version) {
+    return retryAsync(path, (retrying, future) -> {
+      StatCallback set = (rc, p, ctx, stat) -> {
+        if (rc == Code.OK.intValue()) {
+          future.complete(stat);
+        } else {
+          future.completeExceptionally(KeeperException.create(Code.get(rc), p));
+        }
+      };
+      if (!retrying) {
+        setData(path, data, version, set, null);
+        return;
+      }
+      exists(path, false, (rc, p, ctx, stat) -> {
+        if (rc == Code.NONODE.intValue()) {
+          future.complete(null);
+        } else if (rc != Code.OK.intValue()) {
+          future.completeExceptionally(KeeperException.create(Code.get(rc), p));
+        } else if (version != -1) {
+          if (stat.getVersion() == version + 1) {
+            // the lost call set the data
+            future.complete(stat);
+          } else {
+            setData(path, data, version, set, null);
+          }
+        } else if (stat.getDataLength() != length(data)) {
+          setData(path, data, version, set, null);
+        } else {
+          getData(path, false, (rc2, p2, ctx2, current, s) -> {
+            if (rc2 == Code.NONODE.intValue()) {
+              future.complete(null);
+            } else if (rc2 != Code.OK.intValue()) {
+              future.completeExceptionally(KeeperException.create(Code.get(rc2), p2));
+            } else if (sameData(current, data)) {
+              future.complete(s);
+            } else {
+              setData(path, data, version, set, null);
+            }
+          }, null);
+        }
+      }, null);
+    });
+  }
+
+  /**
+   * Limit the number of retries of a call, replacing the {@link RetryPolicy}
+   * with the default one
+   *
+   * @param limit - the maximum number of retries, -1 for no limit
    */
   public void setRetryLimit(int limit) {
-    this.limit = limit;
+    this.retryPolicy = defaultPolicy(limit);
+  }
+
+  /**
+   * @param retryPolicy - the policy deciding the retries of every call
+   */
+  public void setRetryPolicy(RetryPolicy retryPolicy) {
+    if (retryPolicy == null) {
+      throw new IllegalArgumentException("retryPolicy must not be null");
+    }
+    this.retryPolicy = retryPolicy;
+  }
+
+  public RetryPolicy getRetryPolicy() {
+    return retryPolicy;
+  }
+
+  /**
+   * @param retryBudget - the budget shared by the retries of all calls
+   */
+  public void setRetryBudget(RetryBudget retryBudget) {
+    if (retryBudget == null) {
+      throw new IllegalArgumentException("retryBudget must not be null");
+    }
+    this.retryBudget = retryBudget;
+  }
+
+  /**
+   * @return the counters of the retries made by this client
+   */
+  public RetryMetrics getRetryMetrics() {
+    return metrics;
   }
 
   /**
@@ -275,4 +482,170 @@ public class ZooKeeperRetry extends ZooKeeper {
     return false;
   }
 
+  private RetryPolicy defaultPolicy(int limit) {
+    return new ExponentialBackoffRetry(DEFAULT_BASE_DELAY_MS,
+        DEFAULT_MAX_DELAY_MS, limit, sessionTimeout);
+  }
+
+  /**
+   * A call to zookeeper
+   */
+  @FunctionalInterface
+  private interface Call<T> {
+    /**
+     * @param retrying - true if an earlier attempt lost the connection, so it
+     *                 may have taken effect
+     */
+    T call(boolean retrying) throws KeeperException, InterruptedException;
+  }
+
+  /**
+   * Make a call, retrying it on connection loss as long as the retry policy
+   * and the retry budget allow
+   *
+   * @param path  - the path of the call, for logging
+   * @param call  - the call
+   * @param given - the result if the call is given up
+   * @return the result of the call
+   */
+  private <T> T retry(String path, Call<T> call, T given)
+      throws KeeperException, InterruptedException {
+    long start = System.nanoTime();
+    int retries = 0;
+    while (true) {
+      try {
+        T result = call.call(retries > 0);
+        if (retries > 0) {
+          metrics.recovered();
+        }
+        return result;
+      } catch (KeeperException.ConnectionLossException e) {
+        long delay = backoff(path, start, ++retries);
+        if (delay < 0) {
+          return given;
+        }
+        Thread.sleep(delay);
+      }
+    }
+  }
+
+  /**
+   * An async call to zookeeper
+   */
+  @FunctionalInterface
+  private interface AsyncCall<T> {
+    /**
+     * Issue the call, which completes the future from its callback
+     *
+     * @param retrying - true if an earlier attempt lost the connection, so it
+     *                 may have taken effect
+     * @param future   - the future of this attempt
+     */
+    void call(boolean retrying, CompletableFuture<T> future);
+  }
+
+  /**
+   * Make an async call, scheduling a retry on connection loss as long as the
+   * retry policy and the retry budget allow
+   *
+   * @param path - the path of the call, for logging
+   * @param call - the call
+   * @return the future of the result of the call, completed with the last
+   * {@link KeeperException.ConnectionLossException} if the call is given up
+   */
+  private <T> CompletableFuture<T> retryAsync(String path, AsyncCall<T> call) {
+    CompletableFuture<T> result = new CompletableFuture<>();
+    attempt(path, call, result, System.nanoTime(), 0);
+    return result;
+  }
+
+  private <T> void attempt(String path, AsyncCall<T> call,
+                           CompletableFuture<T> result, long start, int retries) {
+    CompletableFuture<T> attempt = new CompletableFuture<>();
+    attempt.whenComplete((value, error) -> {
+      if (error == null) {
+        if (retries > 0) {
+          metrics.recovered();
+        }
+        result.complete(value);
+        return;
+      }
+      if (!(error instanceof KeeperException.ConnectionLossException)) {
+        result.completeExceptionally(error);
+        return;
+      }
+      long delay = backoff(path, start, retries + 1);
+      if (delay < 0) {
+        // unlike the sync calls, fail rather than complete with a value that
+        // looks like a result
+        result.completeExceptionally(error);
+        return;
+      }
+      SCHEDULER.schedule(() -> attempt(path, call, result, start, retries + 1),
+          delay, TimeUnit.MILLISECONDS);
+    });
+    try {
+      call.call(retries > 0, attempt);
+    } catch (RuntimeException e) {
+      attempt.completeExceptionally(e);
+    }
+  }
+
+  /**
+   * Decide the retry of a call which lost the connection, recording it in the
+   * metrics
+   *
+   * @param path    - the path of the call, for logging
+   * @param start   - the time the call was first made, from
+   *                {@link System#nanoTime()}
+   * @param retries - the number of the retry about to be made
+   * @return the time to wait before the retry in milliseconds, or -1 if the
+   * call is given up
+   */
+  private long backoff(String path, long start, int retries) {
+    if (closed) {
+      return -1;
+    }
+    long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    long delay = retryPolicy.getDelayMs(retries, elapsed);
+    if (delay < 0) {
+      metrics.givenUp();
+      LOG.warn("ZooKeeper connection lost. Giving up on {} after {} ms.", path, elapsed);
+      return -1;
+    }
+    if (!retryBudget.tryAcquire()) {
+      metrics.budgetExhausted();
+      LOG.warn("ZooKeeper connection lost. Retry budget exhausted, giving up on {}.", path);
+      return -1;
+    }
+    metrics.retried(delay);
+    LOG.warn("ZooKeeper connection lost. Retrying {} in {} ms.", path, delay);
+    return delay;
+  }
+
+  private static int length(byte[] data) {
+    return data == null ? 0 : data.length;
+  }
+
+  private static boolean sameData(byte[] a, byte[] b) {
+    return length(a) == length(b) && (length(a) == 0 || Arrays.equals(a, b));
+  }
+
+  private static void copyStat(Stat from, Stat to) {
+    if (to == null) {
+      return;
+    }
+    to.setCzxid(from.getCzxid());
+    to.setMzxid(from.getMzxid());
+    to.setCtime(from.getCtime());
+    to.setMtime(from.getMtime());
+    to.setVersion(from.getVersion());
+    to.setCversion(from.getCversion());
+    to.setAversion(from.getAversion());
+    to.setEphemeralOwner(from.getEphemeralOwner());
+    to.setDataLength(from.getDataLength());
+    to.setNumChildren(from.getNumChildren());
+    to.setPzxid(from.getPzxid());
+  }
+
 }